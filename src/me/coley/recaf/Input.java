@@ -1,5 +1,6 @@
 package me.coley.recaf;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
@@ -9,32 +10,63 @@ import java.lang.instrument.ClassDefinition;
 import java.lang.instrument.ClassFileTransformer;
 import java.lang.instrument.IllegalClassFormatException;
 import java.lang.instrument.Instrumentation;
+import java.lang.ref.WeakReference;
 import java.nio.channels.ClosedByInterruptException;
+import java.nio.file.AtomicMoveNotSupportedException;
 import java.nio.file.FileSystem;
 import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
 import java.nio.file.StandardCopyOption;
 import java.nio.file.StandardOpenOption;
-import java.nio.file.attribute.BasicFileAttributes;
 import java.security.ProtectionDomain;
 import java.time.Instant;
+import java.util.AbstractCollection;
+import java.util.AbstractMap;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.AbstractSet;
 import java.util.Collection;
 import java.util.Collections;
-import java.util.Enumeration;
+import java.util.Comparator;
+import java.util.Deque;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Objects;
+import java.util.Queue;
 import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
-import java.util.jar.JarEntry;
-import java.util.jar.JarOutputStream;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipFile;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.function.Function;
+import java.util.zip.CRC32;
 
 import org.objectweb.asm.ClassReader;
 import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Type;
 import org.objectweb.asm.commons.ClassRemapper;
 import org.objectweb.asm.commons.Remapper;
 import org.objectweb.asm.tree.ClassNode;
@@ -42,25 +74,73 @@ import org.objectweb.asm.tree.InnerClassNode;
 
 import com.google.common.jimfs.Configuration;
 import com.google.common.jimfs.Jimfs;
+import com.google.common.util.concurrent.Striped;
 
 import me.coley.event.Bus;
 import me.coley.event.Listener;
+import me.coley.recaf.archive.ArchiveEntry;
+import me.coley.recaf.archive.ArchiveIndex;
+import me.coley.recaf.archive.ArchiveLoader;
+import me.coley.recaf.archive.ArchiveWriter;
+import me.coley.recaf.archive.WorkspaceIndex;
 import me.coley.recaf.bytecode.Asm;
+import me.coley.recaf.bytecode.ClassSummary;
+import me.coley.recaf.bytecode.ConstantPoolRemapper;
+import me.coley.recaf.bytecode.analysis.Ancestry;
+import me.coley.recaf.bytecode.analysis.ClassValidator;
 import me.coley.recaf.bytecode.analysis.Hierarchy;
+import me.coley.recaf.bytecode.analysis.ReferenceIndex;
+import me.coley.recaf.bytecode.mapping.MappingRemapper;
+import me.coley.recaf.bytecode.mapping.Mappings;
 import me.coley.recaf.bytecode.analysis.Verify;
+import me.coley.recaf.bytecode.analysis.Verify.VerifyFailure;
+import me.coley.recaf.bytecode.analysis.Verify.VerifyReport;
 import me.coley.recaf.config.impl.ConfASM;
+import me.coley.recaf.config.impl.ConfOther;
 import me.coley.recaf.event.*;
+import me.coley.recaf.journal.Journal;
+import me.coley.recaf.journal.Transaction;
+import me.coley.recaf.util.Delta;
 import me.coley.recaf.util.Streams;
+import me.coley.recaf.util.FileWatcher;
 import me.coley.recaf.util.Threads;
+import me.coley.recaf.util.WeightedCache;
 
 /**
  * 
  * @author Matt
  */
 public class Input {
-	private static final int HISTORY_LENGTH = 10;
-	private static final String HIST_POSTFIX = ".hst";
+	/**
+	 * Interval of save states kept in full rather than as deltas.
+	 */
+	private static final int KEYFRAME_INTERVAL = 8;
+	/**
+	 * Max depth of nested archives to load.
+	 */
+	private static final int MAX_NESTING = 4;
+	/**
+	 * Time the input must go unchanged on disk before it is reloaded.
+	 */
+	private static final long WATCH_QUIET_MILLIS = 750;
+	/**
+	 * Max number of class loads waiting to be added, loads past it are
+	 * dropped.
+	 */
+	private static final int LOAD_QUEUE_CAPACITY = 8192;
+	/**
+	 * Time between adding batches of class loads.
+	 */
+	private static final long LOAD_BATCH_MILLIS = 100;
+	/**
+	 * Defining loader of classes of the bootstrap loader.
+	 */
+	private static final WeakReference<ClassLoader> BOOTSTRAP = new WeakReference<>(null);
 	private static final String FILE_EXT = ".rcf";
+	/**
+	 * Stands in for content of classes that do not exist.
+	 */
+	private static final byte[] ABSENT = new byte[0];
 	/**
 	 * The file loaded from.
 	 */
@@ -69,6 +149,61 @@ public class Input {
 	 * Instrumentation instance loaded from.
 	 */
 	private final Instrumentation instrumentation;
+	/**
+	 * Map of names of runtime classes to the loaded classes, for classes
+	 * whose bytecode has not been captured yet. Bytecode is captured when the
+	 * class is first read.
+	 */
+	private final Map<String, WeakReference<Class<?>>> runtimeClasses = new ConcurrentHashMap<>();
+	/**
+	 * Packages of runtime classes queued to be captured in the background.
+	 */
+	private final BlockingQueue<String> prefetchQueue = new LinkedBlockingQueue<>();
+	/**
+	 * Packages of runtime classes that have been queued to be captured.
+	 */
+	private final Set<String> prefetchedPackages = Collections.newSetFromMap(new ConcurrentHashMap<>());
+	/**
+	 * Classes loaded in the runtime attached to, waiting to be added. Filled
+	 * by the transformer on class-loading threads, so it must never block.
+	 */
+	private final Queue<LoadedClass> loadQueue = new ConcurrentLinkedQueue<>();
+	/**
+	 * Size of {@link #loadQueue}, to bound it without a lock.
+	 */
+	private final AtomicInteger loadQueueSize = new AtomicInteger();
+	/**
+	 * Number of class loads dropped because the queue was full.
+	 */
+	private final AtomicLong droppedLoads = new AtomicLong();
+	/**
+	 * Map of names of runtime classes to the loaders that defined them, so
+	 * classes of any loader can be redefined. {@link #BOOTSTRAP} for classes
+	 * of the bootstrap loader.
+	 */
+	private final Map<String, WeakReference<ClassLoader>> definingLoaders = new ConcurrentHashMap<>();
+	/**
+	 * Map of names of runtime classes to the CRC of the bytecode they were
+	 * last redefined with.
+	 */
+	private final Map<String, Long> redefined = new ConcurrentHashMap<>();
+	/**
+	 * Names of saved classes waiting to be hot-swapped.
+	 */
+	private final Set<String> liveClasses = Collections.newSetFromMap(new ConcurrentHashMap<>());
+	/**
+	 * Executor of hot-swaps, created on the first save while attached.
+	 */
+	private ScheduledExecutorService liveExecutor;
+	/**
+	 * Next hot-swap, rescheduled by each save until saves stop for the
+	 * delay.
+	 */
+	private ScheduledFuture<?> liveTask;
+	/**
+	 * Set once the transformer is registered.
+	 */
+	private final AtomicBoolean loadListening = new AtomicBoolean();
 	/**
 	 * Map of class names to ClassNode representations of the classes.
 	 */
@@ -77,14 +212,66 @@ public class Input {
 	 * Set of classes to be updated in the next save-state.
 	 */
 	private final Set<String> dirtyClasses = Collections.newSetFromMap(new ConcurrentHashMap<>());
+	/**
+	 * Set of classes open in the editor. Along with dirty classes these are
+	 * never evicted from the class cache.
+	 */
+	private final Set<String> openClasses = Collections.newSetFromMap(new ConcurrentHashMap<>());
+	/**
+	 * Set of classes whose cached node has been edited in place since its
+	 * content was last written. Other classes are exported as stored.
+	 */
+	private final Set<String> editedClasses = Collections.newSetFromMap(new ConcurrentHashMap<>());
+	/**
+	 * Set of classes being remapped by a rename. Kept in the class cache until
+	 * the rename is written, so the rename reads one consistent value.
+	 */
+	private final Set<String> renameTargets = Collections.newSetFromMap(new ConcurrentHashMap<>());
 	/**
 	 * Map of resource names to their raw bytes.
 	 */
-	public final Set<String> resources = new HashSet<>();;
+	public final Set<String> resources = Collections.newSetFromMap(new ConcurrentHashMap<>());
 	/**
-	 * File system representation of contents of input.
+	 * File system representation of contents of input. When loaded from an
+	 * archive this only holds files that have been modified, unmodified files
+	 * are read from the {@link #archive} on demand.
 	 */
 	private final FileSystem system;
+	/**
+	 * Index of the archive loaded from. {@code null} if the input is not an
+	 * archive.
+	 */
+	private ArchiveIndex archive;
+	/**
+	 * Map of class and resource names to the archive entries holding their
+	 * original content.
+	 */
+	private final Map<String, ArchiveEntry> archiveEntries = new ConcurrentHashMap<>();
+	/**
+	 * Map of class names to summaries of their original content. Only
+	 * populated when loaded from an archive.
+	 */
+	private final Map<String, ClassSummary> summaries = new ConcurrentHashMap<>();
+	/**
+	 * Classes referencing each class, field and method. Kept up to date as
+	 * classes are written, classes not yet indexed are indexed on
+	 * {@link #getReferences() first use}.
+	 */
+	private final ReferenceIndex references = new ReferenceIndex();
+	/**
+	 * Map of paths to archives nested in the input archive. Entries of nested
+	 * archives are named by their path and {@link ArchiveIndex#SEPARATOR}.
+	 */
+	private final Map<String, ArchiveIndex> nestedArchives = new ConcurrentHashMap<>();
+	/**
+	 * Paths of entries of nested archives that have been removed from the
+	 * input.
+	 */
+	private final Set<String> removedNestedPaths = Collections.newSetFromMap(new ConcurrentHashMap<>());
+	/**
+	 * Watches the input file for changes, {@code null} if not watching.
+	 */
+	private FileWatcher watcher;
 	/**
 	 * Map of class names to ClassNodes.
 	 */
@@ -97,6 +284,16 @@ public class Input {
 	 * History manager of changes.
 	 */
 	private final Map<String, History> history = new ConcurrentHashMap<>();
+	/**
+	 * Journal of changes to classes, for undoing and redoing whole operations.
+	 */
+	private Journal journal = new Journal();
+	/**
+	 * Transaction open on the current thread, {@code null} if none is open.
+	 * Writes from other threads are not part of it, unless they run a task
+	 * {@link #inTransaction(Runnable) joining} it.
+	 */
+	private final ThreadLocal<OpenTransaction> transaction = new ThreadLocal<>();
 	
 	public Input(Instrumentation instrumentation) throws IOException {
 		this.input = null;
@@ -111,14 +308,27 @@ public class Input {
 	public Input(File input) throws IOException {
 		this.input = input;
 		this.instrumentation = null;
+		system = createSystem();
 		if (input.getName().endsWith(".class")) {
-			system = createSystem(readClass());
+			readClass();
 		} else {
-			system = createSystem(readArchive());
+			readArchive();
+			if (ConfOther.instance().doWatchInput()) {
+				try {
+					// Reload on the FX thread, which reads the input without
+					// locking.
+					watcher = new FileWatcher(input, WATCH_QUIET_MILLIS, () -> Threads.runFx(this::reloadQuietly));
+				} catch (IOException e) {
+					Logging.warn("Failed to watch input for changes: " + input.getName());
+				}
+			}
 		}
 		Bus.subscribe(this);
 		proxyClasses = createClassMap();
 		proxyResources = createResourceMap();
+		if (archive != null && ConfOther.instance().doPersistJournal()) {
+			restoreJournal(workspaceKey());
+		}
 		current = this;
 	}
 
@@ -127,6 +337,7 @@ public class Input {
 		// New input is loaded.
 		// Don't want events still coming around here.
 		if (input.get() != this) {
+			close();
 			// Run-later so event system doesn't
 			// concurrent-modification-exception
 			Threads.runFx(() -> {
@@ -137,6 +348,22 @@ public class Input {
 		}
 	}
 
+	/**
+	 * Stop watching the input file and stop the hot-swap executor once queued
+	 * hot-swaps are done. Called when the input is replaced, or when the
+	 * window is closed while attached to a runtime, which keeps running.
+	 */
+	public void close() {
+		if (watcher != null) {
+			watcher.close();
+		}
+		synchronized (liveClasses) {
+			if (liveExecutor != null) {
+				liveExecutor.shutdown();
+			}
+		}
+	}
+
 	/**
 	 * Fires back a SaveStateEvent.
 	 */
@@ -146,6 +373,24 @@ public class Input {
 		dirtyClasses.clear();
 	}
 
+	/**
+	 * Pins an opened class in the class cache.
+	 */
+	@Listener(priority = -1)
+	private void onClassOpen(ClassOpenEvent event) {
+		openClasses.add(event.getNode().name);
+		// Classes of the same package are likely to be opened next
+		prefetchPackage(event.getNode().name);
+	}
+
+	/**
+	 * Unpins a closed class from the class cache.
+	 */
+	@Listener(priority = -1)
+	private void onClassClose(ClassCloseEvent event) {
+		openClasses.remove(event.getName());
+	}
+
 	/**
 	 * Marks a class as dirty <i>(To be saved in next save-state)</i>.
 	 */
@@ -153,57 +398,97 @@ public class Input {
 	private void onClassMarkedDirty(ClassDirtyEvent event) {
 		String name = event.getNode().name;
 		dirtyClasses.add(name);
+		if (proxyClasses.getCache().peek(name) == event.getNode()) {
+			editedClasses.add(name);
+		}
 	}
 
 	/**
-	 * Marks a class as dirty <i>(To be saved in next save-state)</i>.
+	 * Renames a class and updates references to it, as one transaction along
+	 * with the renames of its inner classes.
 	 */
 	@Listener(priority = -1)
 	private void onClassRename(ClassRenameEvent event) {
+		beginTransaction("Rename " + event.getOriginalName() + " -> " + event.getNewName());
+		try {
+			renameClass(event);
+		} finally {
+			endTransaction();
+		}
+	}
+
+	private void renameClass(ClassRenameEvent event) {
 		String nameOriginal = event.getOriginalName();
 		String nameRenamed = event.getNewName();
 		//
-		Set<String> referenced = new HashSet<>();
-		Map<String, ClassNode> updatedMap = new HashMap<>();
-		referenced.add(nameRenamed);
-		// replace references in all classes
+		Map<String, byte[]> updatedMap = new ConcurrentHashMap<>();
+		// replace references in classes that mention the renamed class
+		Set<String> targets = withEditedClasses(getReferences().getClassReferences(nameOriginal));
+		targets.add(nameOriginal);
+		renameTargets.addAll(targets);
+		try {
+			renameClass(nameOriginal, nameRenamed, targets, updatedMap);
+		} finally {
+			renameTargets.removeAll(targets);
+		}
+	}
+
+	/**
+	 * Remap the classes referring to a renamed class, and write them.
+	 * 
+	 * @param nameOriginal
+	 *            Name of the class before the rename.
+	 * @param nameRenamed
+	 *            Name of the class after the rename.
+	 * @param targets
+	 *            Names of classes referring to the class, and the class
+	 *            itself.
+	 * @param updatedMap
+	 *            Map to fill with the remapped content of classes.
+	 */
+	private void renameClass(String nameOriginal, String nameRenamed, Set<String> targets,
+			Map<String, byte[]> updatedMap) {
 		ExecutorService pool = Threads.pool(Threads.PoolKind.LOGIC);
-		for (ClassNode cn : proxyClasses.values()) {
+		for (String name : targets) {
 			pool.execute(() -> {
-				ClassNode updated = new ClassNode();
-				cn.accept(new ClassRemapper(updated, new Remapper() {
-					@Override
-					public String map(String internalName) {
-						if (internalName.equals(nameOriginal)) {
-							// mark classes that have referenced the renamed
-							// class.
-							referenced.add(cn.name);
-							return nameRenamed;
+				// Remap on the worker so that parsing runs in parallel and only
+				// the classes being remapped are held at once.
+				try {
+					AtomicBoolean referenced = new AtomicBoolean();
+					byte[] updated = remapClass(name, new Remapper() {
+						@Override
+						public String map(String internalName) {
+							if (internalName.equals(nameOriginal)) {
+								// mark classes that have referenced the
+								// renamed class.
+								referenced.set(true);
+								return nameRenamed;
+							}
+							return super.map(internalName);
 						}
-						return super.map(internalName);
+					});
+					if (updated != null && referenced.get()) {
+						updatedMap.put(name, updated);
 					}
-				}));
-				if (referenced.contains(cn.name)) {
-					updatedMap.put(cn.name, updated);
+				} catch (Exception e) {
+					Logging.error(e);
 				}
 			});
 		}
 		Threads.waitForCompletion(pool);
 		pool = Threads.pool(Threads.PoolKind.LOGIC);
 		// Update all classes with references to the renamed class.
-		for (Entry<String, ClassNode> e : updatedMap.entrySet()) {
-			pool.execute(() -> {
-				ClassNode updated = e.getValue();
-				if (updated.name.equals(nameRenamed) || updated.name.equals(nameOriginal)) {
+		for (Entry<String, byte[]> e : updatedMap.entrySet()) {
+			pool.execute(inTransaction(() -> {
+				if (e.getKey().equals(nameOriginal)) {
 					// Update the renamed class (itself)
-					proxyClasses.put(nameRenamed, updated);
+					proxyClasses.putBytes(nameRenamed, e.getValue());
 				} else {
 					// Update the class that contains references to the renamed
 					// class
-					proxyClasses.put(updated.name, updated);
-					proxyClasses.removeCache(updated.name);
+					proxyClasses.putBytes(e.getKey(), e.getValue());
 				}
-			});
+			}));
 		}
 		Threads.waitForCompletion(pool);
 		// Get updated node
@@ -285,76 +570,292 @@ public class Input {
 		String fOwner = event.getOwner().name;
 		String fName = event.getOriginalName();
 		String fNameNew = event.getNewName();
-		Set<String> classesWithUpdates = new HashSet<>();
-		for (ClassNode cn : proxyClasses.values()) {
-			ClassNode updated = new ClassNode();
-			cn.accept(new ClassRemapper(updated, new Remapper() {
-				@Override
-				public String mapFieldName(final String owner, final String name, final String descriptor) {
-					if (owner.equals(fOwner) && name.equals(fName) && descriptor.equals(event.getField().desc)) {
-						Bus.post(new ClassDirtyEvent(cn));
-						classesWithUpdates.add(cn.name);
-						return fNameNew;
-					}
-					return name;
+		String fDesc = event.getField().desc;
+		Set<String> targets = withEditedClasses(getReferences().getFieldReferences(fOwner, fName, fDesc));
+		String description = "Rename " + fOwner + "." + fName + " -> " + fNameNew;
+		remapMembers(description, targets, changed -> new Remapper() {
+			@Override
+			public String mapFieldName(final String owner, final String name, final String descriptor) {
+				if (owner.equals(fOwner) && name.equals(fName) && descriptor.equals(fDesc)) {
+					changed.set(true);
+					return fNameNew;
 				}
-			}));
-			if (classesWithUpdates.contains(cn.name)) {
-				proxyClasses.put(updated.name, updated);
+				return name;
 			}
-		}
+		});
 		Logging.info("Rename " + fOwner + "." + fName + " -> " + fOwner + "." + fNameNew);
 	}
 
 	@Listener(priority = -1)
 	private void onMethodRename(MethodRenameEvent event) {
-		try {
-			String mOwner = event.getOwner().name;
-			String mName = event.getOriginalName();
-			String mNameNew = event.getNewName();
-			String mDesc = event.getMethod().desc;
-			Set<String> classesWithUpdates = new HashSet<>();
-			for (ClassNode cn : proxyClasses.values()) {
-				ClassNode updated = new ClassNode();
-				cn.accept(new ClassRemapper(updated, new Remapper() {
-					@Override
-					public String mapMethodName(final String owner, final String name, final String descriptor) {
-						if (ConfASM.instance().useLinkedMethodRenaming()) {
-							// Not combined into one statement since this would
-							// allow the other block to be run even if linked
-							// renaming were to be active.
-							if (Hierarchy.INSTANCE.linked(mOwner, mName, mDesc, owner, name, descriptor)) {
-								return rename(owner, name, descriptor);
-							}
-						} else if (owner.equals(mOwner) && name.equals(mName) && descriptor.equals(mDesc)) {
-							return rename(owner, name, descriptor);
-						}
-						return name;
+		String mOwner = event.getOwner().name;
+		String mName = event.getOriginalName();
+		String mNameNew = event.getNewName();
+		String mDesc = event.getMethod().desc;
+		boolean linked = ConfASM.instance().useLinkedMethodRenaming();
+		Set<String> targets = withEditedClasses(getReferences().getMethodReferences(mName, mDesc));
+		String description = "Rename " + mOwner + "." + mName + mDesc + " -> " + mNameNew;
+		remapMembers(description, targets, changed -> new Remapper() {
+			@Override
+			public String mapMethodName(final String owner, final String name, final String descriptor) {
+				if (linked) {
+					// Not combined into one statement since this would
+					// allow the other block to be run even if linked
+					// renaming were to be active.
+					if (Hierarchy.INSTANCE.linked(mOwner, mName, mDesc, owner, name, descriptor)) {
+						return rename(owner, name, descriptor);
+					}
+				} else if (owner.equals(mOwner) && name.equals(mName) && descriptor.equals(mDesc)) {
+					return rename(owner, name, descriptor);
+				}
+				return name;
+			}
+
+			private String rename(String owner, String name, String descriptor) {
+				Logging.trace("Rename " + owner + "." + name + descriptor + " -> " + mNameNew);
+				changed.set(true);
+				return mNameNew;
+			}
+		});
+	}
+
+	/**
+	 * The reference index is built from stored content, so it does not know
+	 * about references added by edits to a class's node that are not written
+	 * yet. Those classes are remapped by their node regardless.
+	 * 
+	 * @param targets
+	 *            Classes the reference index lists for a rename.
+	 * @return The given set, with classes whose node has been edited added.
+	 */
+	private Set<String> withEditedClasses(Set<String> targets) {
+		targets.addAll(editedClasses);
+		return targets;
+	}
+
+	/**
+	 * Remap classes on the {@link Threads.PoolKind#LOGIC logic pool}, storing
+	 * those the remapper changed. Once all are done, a single
+	 * {@link ClassDirtyEvent} is posted per changed class, rather than one
+	 * per renamed reference. The changes are recorded as one transaction.
+	 * 
+	 * @param description
+	 *            Description of the rename, for the journal.
+	 * @param targets
+	 *            Names of classes to remap.
+	 * @param remappers
+	 *            Creates the remapper for a class. The remapper must set the
+	 *            given flag when it renames something.
+	 */
+	private void remapMembers(String description, Set<String> targets,
+			Function<AtomicBoolean, Remapper> remappers) {
+		Map<String, ClassNode> updatedMap = new ConcurrentHashMap<>();
+		beginTransaction(description);
+		renameTargets.addAll(targets);
+		ExecutorService pool = Threads.pool(Threads.PoolKind.LOGIC);
+		for (String target : targets) {
+			pool.execute(inTransaction(() -> {
+				try {
+					AtomicBoolean changed = new AtomicBoolean();
+					byte[] updated = remapClass(target, remappers.apply(changed));
+					// only update neccesary classes
+					if (updated != null && changed.get()) {
+						proxyClasses.putBytes(target, updated);
+						updatedMap.put(target, Asm.getNode(updated));
 					}
+				} catch (Exception e) {
+					Logging.error(e);
+				}
+			}));
+		}
+		Threads.waitForCompletion(pool);
+		renameTargets.removeAll(targets);
+		endTransaction();
+		for (ClassNode updated : updatedMap.values()) {
+			Bus.post(new ClassDirtyEvent(updated));
+		}
+	}
+
+	/**
+	 * Apply a mapping file in the background.
+	 */
+	@Listener(priority = -1)
+	private void onMappingsRequested(RequestMappingsEvent event) {
+		Threads.run(() -> {
+			try {
+				applyMappings(Mappings.read(event.getFile()));
+			} catch (IOException e) {
+				Logging.error(e);
+			}
+		});
+	}
 
-					/**
-					 * Rename the method, post dirty even for the class.
-					 * 
-					 * @param owner
-					 * @param name
-					 * @param descriptor
-					 * @return
-					 */
-					private String rename(String owner, String name, String descriptor) {
-						Logging.trace("Rename " + owner + "." + name + descriptor + " -> " + mNameNew);
-						Bus.post(new ClassDirtyEvent(cn));
-						classesWithUpdates.add(cn.name);
-						return mNameNew;
+	/**
+	 * Apply many renames in one pass. Every class is remapped once, in
+	 * parallel, with a remapper combining all mappings. Nothing is written
+	 * unless every class remaps successfully and no mapped name collides with
+	 * an existing class. Posts a single {@link InputChangeEvent} instead of an
+	 * event per renamed name.
+	 * 
+	 * @param mappings
+	 *            Names to apply.
+	 * @throws IOException
+	 *             Thrown if a class could not be remapped, or renamed classes
+	 *             would replace existing ones. The input is left unchanged.
+	 */
+	public synchronized void applyMappings(Mappings mappings) throws IOException {
+		if (mappings.isEmpty()) {
+			return;
+		}
+		long start = System.currentTimeMillis();
+		MappingRemapper remapper = new MappingRemapper(mappings, name -> classes.contains(name) ? getSummary(name)
+				: null);
+		// Remap and regenerate every class before writing any
+		Map<String, String> updatedMap = new ConcurrentHashMap<>();
+		Map<String, byte[]> updatedBytes = new ConcurrentHashMap<>();
+		Set<String> failed = Collections.newSetFromMap(new ConcurrentHashMap<>());
+		ExecutorService pool = Threads.pool(Threads.PoolKind.LOGIC);
+		for (String name : classes) {
+			pool.execute(() -> {
+				try {
+					MappingRemapper classRemapper = remapper.copy();
+					byte[] updated = remapClass(name, classRemapper);
+					if (updated != null && classRemapper.isChanged()) {
+						updatedBytes.put(name, updated);
+						updatedMap.put(name, new ClassReader(updated).getClassName());
 					}
-				}));
-				// only update neccesary classes
-				if (classesWithUpdates.contains(cn.name)) {
-					proxyClasses.put(updated.name, updated);
+				} catch (Exception e) {
+					Logging.warn("Failed to remap '" + name + "': " + e);
+					failed.add(name);
 				}
+			});
+		}
+		Threads.waitForCompletion(pool);
+		if (!failed.isEmpty()) {
+			throw new IOException("Failed to remap " + failed.size() + " classes, no mappings were applied");
+		}
+		Map<String, String> renamed = new HashMap<>();
+		for (Entry<String, String> e : updatedMap.entrySet()) {
+			String newName = e.getValue();
+			if (!newName.equals(e.getKey())) {
+				renamed.put(e.getKey(), newName);
+			}
+		}
+		for (String newName : renamed.values()) {
+			if (classes.contains(newName) && !renamed.containsKey(newName)) {
+				throw new IOException("Mapped name '" + newName
+						+ "' is already used by another class, no mappings were applied");
+			}
+		}
+		// Write remapped classes, then drop the original names of renamed
+		// classes. History moves with the class.
+		beginTransaction("Apply " + mappings.size() + " mappings");
+		pool = Threads.pool(Threads.PoolKind.LOGIC);
+		for (Entry<String, String> e : updatedMap.entrySet()) {
+			pool.execute(inTransaction(() -> proxyClasses.putBytes(e.getValue(), updatedBytes.get(e
+					.getKey()))));
+		}
+		Threads.waitForCompletion(pool);
+		Set<String> removed = new HashSet<>();
+		moveHistory(renamed);
+		for (Entry<String, String> e : renamed.entrySet()) {
+			if (!renamed.containsValue(e.getKey())) {
+				// Not taken by another renamed class
+				proxyClasses.remove(e.getKey());
+				removed.add(e.getKey());
+			}
+			if (dirtyClasses.remove(e.getKey())) {
+				dirtyClasses.add(e.getValue());
+			}
+			if (openClasses.remove(e.getKey())) {
+				openClasses.add(e.getValue());
+			}
+		}
+		dirtyClasses.addAll(updatedMap.values());
+		endTransaction();
+		Set<String> added = new HashSet<>(renamed.values());
+		added.removeAll(renamed.keySet());
+		Set<String> changed = new HashSet<>();
+		for (String updated : updatedMap.values()) {
+			if (!added.contains(updated)) {
+				changed.add(updated);
+			}
+		}
+		Logging.info(String.format("Applied %d mappings in %dms: %d classes renamed, %d classes updated", mappings
+				.size(), System.currentTimeMillis() - start, renamed.size(), updatedMap.size()));
+		Bus.post(new InputChangeEvent(this, added, removed, changed, Collections.emptySet(), Collections
+				.emptySet(), Collections.emptySet()));
+	}
+
+	/**
+	 * Remap a class. Unless its cached node has been edited in place, only the
+	 * {@link ConstantPoolRemapper constant pool} of the stored class is
+	 * rewritten and method code is copied as-is. Otherwise, or if that is
+	 * disabled or fails, the class is regenerated.
+	 * 
+	 * @param name
+	 *            Name of class.
+	 * @param remapper
+	 *            Remapper providing new names.
+	 * @return Remapped bytes of the class, {@code null} if it does not exist.
+	 * @throws Exception
+	 *             Thrown if the class could not be read or regenerated.
+	 */
+	private byte[] remapClass(String name, Remapper remapper) throws Exception {
+		if (ConfASM.instance().useConstantPoolRename() && !editedClasses.contains(name)) {
+			try {
+				return ConstantPoolRemapper.remap(getFile(name), remapper);
+			} catch (IllegalArgumentException e) {
+				Logging.fine("Regenerating '" + name + "' to remap it: " + e.getMessage());
+			}
+		}
+		ClassNode cn = proxyClasses.get(name);
+		if (cn == null) {
+			return null;
+		}
+		ClassNode updated = new ClassNode();
+		cn.accept(new ClassRemapper(updated, remapper));
+		updateInnerNames(cn, updated);
+		return Asm.getBytes(updated);
+	}
+
+	/**
+	 * ClassRemapper updates inner class entries by their full names. Update
+	 * the simple names of renamed entries to match.
+	 * 
+	 * @param original
+	 *            Class before remapping.
+	 * @param node
+	 *            Remapped class.
+	 */
+	private static void updateInnerNames(ClassNode original, ClassNode node) {
+		for (int i = 0; i < node.innerClasses.size(); i++) {
+			InnerClassNode inner = node.innerClasses.get(i);
+			if (inner.name.equals(original.innerClasses.get(i).name)) {
+				continue;
+			}
+			if (inner.innerName != null && inner.outerName != null && inner.name.startsWith(inner.outerName + "$")) {
+				inner.innerName = inner.name.substring(inner.outerName.length() + 1);
+			}
+		}
+	}
+
+	/**
+	 * Move the save states of renamed classes to their new names.
+	 * 
+	 * @param renamed
+	 *            Map of original names to new names.
+	 */
+	private void moveHistory(Map<String, String> renamed) {
+		// Take all first, classes may be renamed to each other's names
+		Map<String, History> moved = new HashMap<>();
+		for (Entry<String, String> e : renamed.entrySet()) {
+			History old = history.remove(e.getKey());
+			if (old != null) {
+				moved.put(e.getValue(), new History(e.getValue(), old));
 			}
-		} catch (Exception e) {
-			Logging.error(e);
 		}
+		history.putAll(moved);
 	}
 
 	/**
@@ -362,6 +863,7 @@ public class Input {
 	 */
 	@Listener(priority = -1)
 	private void onSave(SaveStateEvent event) {
+		beginTransaction("Save state of " + event.getClasses().size() + " classes");
 		for (String name : event.getClasses()) {
 			// ensure history for item exists
 			if (!history.containsKey(name)) {
@@ -370,14 +872,55 @@ public class Input {
 			// Update history.
 			// This will in turn update the current stored class instance.
 			try {
-				byte[] modified = Asm.getBytes(proxyClasses.get(name));
+				// Classes changed only by writes, such as constant pool
+				// renames, are stored already. Regenerating them from the node
+				// would undo the byte-stable output of those writes.
+				byte[] modified = editedClasses.contains(name) ? Asm.getBytes(proxyClasses.get(name))
+						: getFile(name);
 				History classHistory = history.get(name);
+				recordBefore(name);
 				classHistory.push(modified);
+				proxyClasses.updated(name, modified);
 				Logging.info("Save state created for: " + name + " [" + classHistory.length + " total states]");
 			} catch (Exception e) {
 				Logging.error(e);
 			}
 		}
+		endTransaction();
+		trimHistory(event.getClasses());
+	}
+
+	/**
+	 * Drop the oldest save states of any class until all states fit in the
+	 * {@link ConfOther#getHistoryBudget() history budget}.
+	 * 
+	 * @param saved
+	 *            Names of classes just saved. Their latest state is kept.
+	 */
+	private void trimHistory(Collection<String> saved) {
+		long budget = ConfOther.instance().getHistoryBudget();
+		long total = 0;
+		for (History h : history.values()) {
+			total += h.getWeight();
+		}
+		while (total > budget) {
+			History oldest = null;
+			Instant oldestTime = null;
+			for (History h : history.values()) {
+				Instant time = h.getOldestTime();
+				if (time == null || (h.length == 1 && saved.contains(h.name))) {
+					continue;
+				}
+				if (oldestTime == null || time.isBefore(oldestTime)) {
+					oldest = h;
+					oldestTime = time;
+				}
+			}
+			if (oldest == null) {
+				break;
+			}
+			total -= oldest.dropOldest();
+		}
 	}
 
 	/**
@@ -389,157 +932,655 @@ public class Input {
 	 */
 	@Listener(priority = -1)
 	private void onExportRequested(RequestExportEvent event) throws IOException {
+		if (archive != null && archive.isChanged()) {
+			// Unchanged entries are copied from the archive as mapped, which
+			// no longer matches its directory.
+			Logging.warn("'" + input.getName() + "' changed on disk since it was loaded, reloading it before export");
+			reload();
+		}
 		if (ConfASM.instance().doVerify() && !Verify.isValid()) {
 			// isValid() will show a window detailing the first instance of bad
 			// bytecode being exported.
 			Logging.error("Denied export, please fix invalid bytecode");
 			return;
 		}
-		Map<String, byte[]> contents = new HashMap<>();
 		Logging.info("Exporting to " + event.getFile().getAbsolutePath());
+		// Content of each entry is only produced when it is about to be
+		// written, so the output is never held in memory as a whole.
+		Map<String, Callable<byte[]>> tasks = new HashMap<>();
+		Map<String, ArchiveEntry> sources = new HashMap<>();
+		// Unchanged entries of the input archive are copied without being
+		// inflated and compressed again.
+		Map<String, ArchiveEntry> copies = new HashMap<>();
 		// write classes
 		Set<String> modified = getModifiedClasses();
 		Logging.info("Writing " + classes.size() + " classes...");
 		Logging.info("\t" + modified.size() + " modified classes");
+		// Contents of nested archives are written back into their archives.
+		Map<ArchiveEntry, byte[]> nestedContents = new HashMap<>();
 		for (String name : classes) {
+			ArchiveEntry source = archiveEntries.get(name);
+			if (source != null && source.getArchive().getSource() != null) {
+				if (modified.contains(name) || Files.exists(getPath(name))) {
+					nestedContents.put(source, getClassBytes(name, modified));
+				}
+				continue;
+			}
 			// Export if file has been modified.
 			// We know if it is modified if it has a history or is marked as
 			// dirty.
-			if (modified.contains(name)) {
-				try {
-					byte[] data = Asm.getBytes(getClass(name));
-					contents.put(name + ".class", data);
-					continue;
-				} catch (Exception e) {
-					Logging.warn("Failed to export: '" + name + "' due to the following error: ");
-					Logging.error(e);
-				}
+			if (source != null && !(modified.contains(name) && editedClasses.contains(name)) && !Files.exists(
+					getPath(name))) {
+				copies.put(name + ".class", source);
+			} else {
+				tasks.put(name + ".class", () -> getClassBytes(name, modified));
 			}
-			// Otherwise we don't even have to have ASM regenerate the
-			// bytecode. We can just plop the exact original file back
-			// into the output.
-			// This is great for editing one file in a large system.
-			//
-			// Or we can be here because the export failed, which sucks, but is
-			// better than not exporting anything at all. At least the user will
-			// be notified in the console.
-			byte[] data = getFile(getPath(name));
-			contents.put(name + ".class", data);
-
+			sources.put(name + ".class", source);
 		}
 		Logging.info("Writing " + resources.size() + " resources...");
 		// Write resources. Can't modify these yet so just take them directly
 		// from the system.
 		for (String name : resources) {
-			byte[] data = getFile(getPath(name));
-			contents.put(name, data);
+			ArchiveEntry source = archiveEntries.get(name);
+			if (source != null && source.getArchive().getSource() != null) {
+				if (Files.exists(getPath(name))) {
+					nestedContents.put(source, getFile(name));
+				}
+				continue;
+			}
+			if (source != null && !Files.exists(getPath(name))) {
+				copies.put(name, source);
+			} else {
+				tasks.put(name, () -> getFile(name));
+			}
+			sources.put(name, source);
 		}
-		// Post to event bus. Allow plugins to inject their own files to the
-		// output.
-		Bus.post(new ExportEvent(event.getFile(), contents));
+		// Rebuild nested archives with modified contents. Deepest first, so
+		// that rebuilt archives are included in their parents.
+		Map<String, byte[]> added = new HashMap<>();
+		for (ArchiveIndex index : getModifiedArchives(nestedContents.keySet())) {
+			byte[] data = writeArchive(index, nestedContents);
+			ArchiveEntry source = index.getSource();
+			if (source.getArchive().getSource() == null) {
+				added.put(source.getPath(), data);
+				sources.put(source.getPath(), source);
+			} else {
+				nestedContents.put(source, data);
+			}
+		}
+		for (Entry<String, byte[]> entry : added.entrySet()) {
+			byte[] data = entry.getValue();
+			tasks.put(entry.getKey(), () -> data);
+			copies.remove(entry.getKey());
+		}
+		// Post to event bus. Allow plugins to read, replace, remove and
+		// inject files of the output.
+		Bus.post(new ExportEvent(event.getFile(), new ExportContents(tasks, copies)));
+		Logging.info("\t" + copies.size() + " unchanged entries copied as stored");
 		// Save contents to jar.
-		try (JarOutputStream output = new JarOutputStream(new FileOutputStream(event.getFile()))) {
-			for (Entry<String, byte[]> entry : contents.entrySet()) {
-				output.putNextEntry(new JarEntry(entry.getKey()));
-				output.write(entry.getValue());
-				output.closeEntry();
+		Set<String> names = new HashSet<>(tasks.keySet());
+		names.addAll(copies.keySet());
+		// Unchanged entries are read from the input archive while writing,
+		// and the target may be that archive. Write next to the target and
+		// only replace it once the output is complete.
+		Path target = event.getFile().getAbsoluteFile().toPath();
+		Path temp = target.resolveSibling(target.getFileName() + ".export");
+		try {
+			try (ArchiveWriter output = new ArchiveWriter(new FileOutputStream(temp.toFile()), ConfOther
+					.instance().getExportLevel())) {
+				writeEntries(output, exportOrder(names, sources), tasks, copies);
 			}
+			try {
+				Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+			} catch (AtomicMoveNotSupportedException e) {
+				Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+			}
+		} finally {
+			Files.deleteIfExists(temp);
 		}
 		Logging.info("Exported to: " + event.getFile());
 
 	}
 
 	/**
-	 * Populates class and resource maps.
-	 * 
-	 * @throws IOException
-	 *             Thrown if the archive could not be read, or an internal file
-	 *             could not be read.
-	 */
-	private Map<String, byte[]> readArchive() throws IOException {
-		Map<String, byte[]> contents = new HashMap<>();
-		try (ZipFile file = new ZipFile(input)) {
-			// iterate zip entries
-			Enumeration<? extends ZipEntry> entries = file.entries();
-			while (entries.hasMoreElements()) {
-				ZipEntry entry = entries.nextElement();
-				// skip directories
-				if (entry.isDirectory()) continue;
-				try (InputStream is = file.getInputStream(entry)) {
-					// add as class, or resource if not a class file.
-					String name = entry.getName();
-					if (name.endsWith(".class")) {
-						addClass(contents, name, is);
-					} else {
-						addResource(contents, name, is);
-					}
-				}
+	 * @param names
+	 *            Names of entries to export.
+	 * @param sources
+	 *            Entries of the input archive the exported entries come from.
+	 * @return Names in the order of their source entries in the input
+	 *         archive, followed by new entries sorted by name. Keeps the
+	 *         output stable between exports, and entries such as the manifest
+	 *         where they were.
+	 */
+	private List<String> exportOrder(Set<String> names, Map<String, ArchiveEntry> sources) {
+		Map<ArchiveEntry, Integer> positions = new HashMap<>();
+		if (archive != null) {
+			List<ArchiveEntry> entries = archive.getEntries();
+			for (int i = 0; i < entries.size(); i++) {
+				positions.put(entries.get(i), i);
 			}
 		}
-		return contents;
+		List<String> order = new ArrayList<>(names);
+		order.sort(Comparator.<String> comparingInt(name -> {
+			Integer position = positions.get(sources.get(name));
+			return position == null ? Integer.MAX_VALUE : position;
+		}).thenComparing(Comparator.naturalOrder()));
+		return order;
 	}
 
 	/**
-	 * Populates class map.
+	 * Write entries to the output in order. Content is produced and
+	 * compressed in parallel, at most a few entries per thread ahead of the
+	 * writer, so only those are held in memory at once.
 	 * 
+	 * @param output
+	 *            Stream to write to.
+	 * @param order
+	 *            Names of entries, in the order to write them.
+	 * @param tasks
+	 *            Tasks producing the content of each entry.
+	 * @param copies
+	 *            Entries of the input archive to copy as they are stored,
+	 *            for entries without a task.
 	 * @throws IOException
-	 *             Thrown if the file could not be read.
+	 *             Thrown if content could not be produced or written.
 	 */
-	private Map<String, byte[]> readClass() throws IOException {
-		Map<String, byte[]> contents = new HashMap<>();
-		try (InputStream is = new FileInputStream(input)) {
-			addClass(contents, input.getName(), is);
-		}
-		return contents;
-	}
-
-	/**
-	 * Try to add the class contained in the given stream to the classes map.
-	 * 
-	 * @param name
+	private void writeEntries(ArchiveWriter output, List<String> order, Map<String, Callable<byte[]>> tasks,
+			Map<String, ArchiveEntry> copies) throws IOException {
+		ExecutorService pool = Threads.pool(Threads.PoolKind.LOGIC);
+		int window = Math.max(1, ConfOther.instance().maxThreadsLogic) * 4;
+		Deque<Entry<String, Future<ArchiveWriter.Content>>> pending = new ArrayDeque<>();
+		Iterator<String> names = order.iterator();
+		try {
+			while (true) {
+				while (names.hasNext() && pending.size() < window) {
+					String name = names.next();
+					Callable<byte[]> task = tasks.get(name);
+					pending.add(new SimpleImmutableEntry<>(name, task == null ? null : pool.submit(() -> output
+							.prepare(task.call(), isExportStored(name)))));
+				}
+				Entry<String, Future<ArchiveWriter.Content>> next = pending.poll();
+				if (next == null) {
+					break;
+				}
+				String name = next.getKey();
+				if (next.getValue() == null) {
+					output.copy(name, copies.get(name));
+					continue;
+				}
+				ArchiveWriter.Content content;
+				try {
+					content = next.getValue().get();
+				} catch (InterruptedException e) {
+					throw new ClosedByInterruptException();
+				} catch (ExecutionException e) {
+					if (e.getCause() instanceof NoSuchFileException && instrumentation != null) {
+						// Runtime class without a class file to capture
+						Logging.warn("Skipped exporting '" + name + "', its bytecode is not available");
+						continue;
+					}
+					if (e.getCause() instanceof IOException) {
+						throw (IOException) e.getCause();
+					}
+					throw new IOException("Failed to export '" + name + "'", e.getCause());
+				}
+				output.write(name, content);
+			}
+		} finally {
+			pool.shutdownNow();
+		}
+	}
+
+	/**
+	 * @param name
+	 *            Name of exported entry.
+	 * @return {@code true} if the entry should be written uncompressed.
+	 */
+	private boolean isExportStored(String name) {
+		if (ConfOther.instance().doExportStored()) {
+			return true;
+		}
+		// Nested archives must stay uncompressed if they were, fat jar
+		// launchers read them in place.
+		ArchiveEntry source = archiveEntries.get(name);
+		return source != null && source.getMethod() == ArchiveEntry.STORED && isArchive(name);
+	}
+
+	/**
+	 * @return Key of the loaded archive in the workspace index and journal.
+	 *         Verification and nesting modes decide which entries are loaded,
+	 *         so they are part of the key.
+	 */
+	private String workspaceKey() {
+		return archive.getDigest() + (ConfASM.instance().doStrictVerify() ? "-strict" : "") + (ConfOther
+				.instance().loadNestedArchives() ? "-nested" : "");
+	}
+
+	/**
+	 * Populates class and resource maps. Classes are inflated and validated in
+	 * parallel, but only the index of the archive is kept. Content is inflated
+	 * again when it is requested.
+	 * 
+	 * @throws IOException
+	 *             Thrown if the archive could not be read.
+	 */
+	private void readArchive() throws IOException {
+		long start = System.currentTimeMillis();
+		archive = ArchiveIndex.open(input);
+		boolean nested = ConfOther.instance().loadNestedArchives();
+		String key = null;
+		if (ConfOther.instance().useWorkspaceIndex()) {
+			key = workspaceKey();
+			if (readWorkspaceIndex(key)) {
+				Logging.info(String.format("Loaded '%s' from workspace index in %dms", input.getName(), System
+						.currentTimeMillis() - start));
+				return;
+			}
+		}
+		ArchiveLoader loader = new ArchiveLoader(input);
+		readArchive(loader, archive);
+		if (nested) {
+			readNestedArchives(loader, archive, 1);
+		}
+		loader.logTimings();
+		if (key != null) {
+			writeWorkspaceIndex(key);
+		}
+	}
+
+	/**
+	 * Reload the input archive from disk. Entries are compared by CRC and size
+	 * against the loaded state, and only added or changed entries are
+	 * processed. Local modifications are kept, even if the class changed on
+	 * disk. Posts an {@link InputChangeEvent} describing the changes.<br>
+	 * Must be called on the FX thread, as the class and resource sets it
+	 * updates are read there without locking. The previous archive is no
+	 * longer referenced once the reload completes, so its mapping is released
+	 * when it is collected.
+	 * 
+	 * @throws IOException
+	 *             Thrown if the archive could not be read.
+	 */
+	public synchronized void reload() throws IOException {
+		if (archive == null) {
+			return;
+		}
+		long start = System.currentTimeMillis();
+		ArchiveIndex newArchive = ArchiveIndex.open(input);
+		Map<String, ArchiveIndex> newNested = new HashMap<>();
+		Map<String, ArchiveEntry> newEntries = new HashMap<>();
+		collectEntries(newArchive, newEntries, newNested, ConfOther.instance().loadNestedArchives() ? 1 : 0);
+		// Compare loaded entries against the new archive
+		Set<String> droppedClasses = new HashSet<>();
+		Set<String> droppedResources = new HashSet<>();
+		Set<String> keptClasses = new HashSet<>();
+		Set<String> keptResources = new HashSet<>();
+		Map<String, ArchiveEntry> loaded = new HashMap<>();
+		for (Entry<String, ArchiveEntry> e : archiveEntries.entrySet()) {
+			loaded.put(e.getValue().getPath(), e.getValue());
+			String name = e.getKey();
+			ArchiveEntry old = e.getValue();
+			ArchiveEntry now = newEntries.get(old.getPath());
+			if (now != null && now.getCrc() == old.getCrc() && now.getSize() == old.getSize()) {
+				// Unchanged, point to the new archive
+				archiveEntries.put(name, now);
+				continue;
+			}
+			boolean isClass = classes.contains(name);
+			archiveEntries.remove(name);
+			summaries.remove(name);
+			(isClass ? proxyClasses : proxyResources).removeCache(name);
+			if (Files.exists(getPath(name))) {
+				// Keep local modifications
+				Logging.warn("Kept local changes to '" + name + "', which changed on disk");
+				(isClass ? keptClasses : keptResources).add(name);
+			} else if (isClass) {
+				classes.remove(name);
+				history.remove(name);
+				references.remove(name);
+			} else {
+				resources.remove(name);
+			}
+			(isClass ? droppedClasses : droppedResources).add(name);
+		}
+		// Process entries that are new or have changed
+		List<ArchiveEntry> pending = new ArrayList<>();
+		for (ArchiveEntry entry : newEntries.values()) {
+			ArchiveEntry old = loaded.get(entry.getPath());
+			if (old == null || old.getCrc() != entry.getCrc() || old.getSize() != entry.getSize()) {
+				pending.add(entry);
+			}
+		}
+		Set<String> addedClasses = new HashSet<>();
+		Set<String> addedResources = new HashSet<>();
+		ArchiveLoader loader = new ArchiveLoader(input);
+		loader.load(pending, entry -> entry.getName().endsWith(".class"), (entry, value) -> process(entry
+				.getPath(), entry, value), (LoadedEntry entry) -> {
+					if (publish(entry)) {
+						(entry.isClass ? addedClasses : addedResources).add(entry.name);
+					}
+				});
+		archive = newArchive;
+		nestedArchives.clear();
+		nestedArchives.putAll(newNested);
+		// Entries that were dropped and added again have changed
+		Set<String> changedClasses = new HashSet<>(droppedClasses);
+		changedClasses.retainAll(addedClasses);
+		changedClasses.addAll(keptClasses);
+		addedClasses.removeAll(changedClasses);
+		droppedClasses.removeAll(changedClasses);
+		Set<String> changedResources = new HashSet<>(droppedResources);
+		changedResources.retainAll(addedResources);
+		changedResources.addAll(keptResources);
+		addedResources.removeAll(changedResources);
+		droppedResources.removeAll(changedResources);
+		InputChangeEvent event = new InputChangeEvent(this, addedClasses, droppedClasses, changedClasses,
+				addedResources, droppedResources, changedResources);
+		Logging.info(String.format("Reloaded '%s' in %dms: %d classes added, %d removed, %d changed", input
+				.getName(), System.currentTimeMillis() - start, addedClasses.size(), droppedClasses.size(),
+				changedClasses.size()));
+		if (ConfOther.instance().useWorkspaceIndex()) {
+			writeWorkspaceIndex(workspaceKey());
+		}
+		if (!event.isEmpty()) {
+			Bus.post(event);
+		}
+	}
+
+	/**
+	 * Reload from the file watcher, reporting failures instead of throwing
+	 * them. The archive may still be incomplete, in which case it is reloaded
+	 * again once the build finishes writing it.
+	 */
+	private void reloadQuietly() {
+		try {
+			reload();
+		} catch (IOException e) {
+			Logging.warn("Failed to reload '" + input.getName() + "': " + e.getMessage());
+		}
+	}
+
+	/**
+	 * @param index
+	 *            Archive to collect entries of.
+	 * @param entries
+	 *            Map to add entries to, by {@link ArchiveEntry#getPath()
+	 *            path}.
+	 * @param nested
+	 *            Map to add opened nested archives to, by path.
+	 * @param depth
+	 *            Nesting depth of the archives to open, {@code 0} to not open
+	 *            nested archives.
+	 */
+	private static void collectEntries(ArchiveIndex index, Map<String, ArchiveEntry> entries,
+			Map<String, ArchiveIndex> nested, int depth) {
+		for (ArchiveEntry entry : index.getEntries()) {
+			if (entry.isDirectory()) {
+				continue;
+			}
+			entries.put(entry.getPath(), entry);
+			if (depth > 0 && depth <= MAX_NESTING && isArchive(entry.getName())) {
+				try {
+					ArchiveIndex inner = index.openNested(entry);
+					nested.put(inner.getPath(), inner);
+					collectEntries(inner, entries, nested, depth + 1);
+				} catch (IOException e) {
+					Logging.warn(String.format("Could not open nested archive: '%s'", entry.getPath()));
+				}
+			}
+		}
+	}
+
+	/**
+	 * Load the entries of an archive.
+	 * 
+	 * @param loader
+	 *            Loader to use.
+	 * @param index
+	 *            Archive to load.
+	 * @throws IOException
+	 *             Thrown if the archive could not be read.
+	 */
+	private void readArchive(ArchiveLoader loader, ArchiveIndex index) throws IOException {
+		loader.load(index, entry -> entry.getName().endsWith(".class"), (entry, value) -> process(entry
+				.getPath(), entry, value), this::publish);
+	}
+
+	/**
+	 * Load the archives nested in an archive, such as the libraries of a fat
+	 * jar or WAR. Their classes are added like any other class, their
+	 * resources are named by {@link ArchiveEntry#getPath() path}. The nested
+	 * archives themselves remain resources of their parent archive.
+	 * 
+	 * @param loader
+	 *            Loader to use.
+	 * @param index
+	 *            Archive to load nested archives of.
+	 * @param depth
+	 *            Nesting depth of the archives to load.
+	 * @throws IOException
+	 *             Thrown if the archive could not be read.
+	 */
+	private void readNestedArchives(ArchiveLoader loader, ArchiveIndex index, int depth) throws IOException {
+		for (ArchiveEntry entry : index.getEntries()) {
+			if (!isArchive(entry.getName())) {
+				continue;
+			}
+			ArchiveIndex nested;
+			try {
+				nested = index.openNested(entry);
+			} catch (IOException e) {
+				Logging.warn(String.format("Could not open nested archive: '%s'", entry.getPath()));
+				continue;
+			}
+			nestedArchives.put(nested.getPath(), nested);
+			readArchive(loader, nested);
+			if (depth < MAX_NESTING) {
+				readNestedArchives(loader, nested, depth + 1);
+			}
+		}
+	}
+
+	/**
+	 * @param name
 	 *            Entry name.
-	 * @param is
-	 *            Stream of entry.
+	 * @return {@code true} if the name denotes an archive.
+	 */
+	private static boolean isArchive(String name) {
+		String lower = name.toLowerCase();
+		return lower.endsWith(".jar") || lower.endsWith(".war") || lower.endsWith(".zip");
+	}
+
+	/**
+	 * @param path
+	 *            {@link ArchiveEntry#getPath() Path} of an entry in the input
+	 *            archive or in an archive nested in it.
+	 * @return Entry of the given path, or {@code null} if no such entry
+	 *         exists.
+	 * @throws IOException
+	 *             Thrown if a nested archive on the path could not be opened.
+	 */
+	private ArchiveEntry resolveEntry(String path) throws IOException {
+		int split = path.lastIndexOf(ArchiveIndex.SEPARATOR);
+		if (split < 0) {
+			return archive.getEntry(path);
+		}
+		String container = path.substring(0, split);
+		ArchiveIndex nested = nestedArchives.get(container);
+		if (nested == null) {
+			ArchiveEntry entry = resolveEntry(container);
+			if (entry == null) {
+				return null;
+			}
+			nested = entry.getArchive().openNested(entry);
+			nestedArchives.put(container, nested);
+		}
+		return nested.getEntry(path.substring(split + ArchiveIndex.SEPARATOR.length()));
+	}
+
+	/**
+	 * Populate the class and resource sets from a stored workspace index.
+	 * 
+	 * @param key
+	 *            Key of the archive.
+	 * @return {@code true} if the index exists and matches the archive.
+	 */
+	private boolean readWorkspaceIndex(String key) {
+		WorkspaceIndex index = WorkspaceIndex.read(key);
+		if (index == null) {
+			return false;
+		}
+		List<ArchiveEntry> entries = new ArrayList<>();
+		for (WorkspaceIndex.Record record : index.getRecords()) {
+			ArchiveEntry entry;
+			try {
+				entry = resolveEntry(record.getEntry());
+			} catch (IOException e) {
+				entry = null;
+			}
+			if (entry == null) {
+				nestedArchives.clear();
+				return false;
+			}
+			entries.add(entry);
+		}
+		for (int i = 0; i < entries.size(); i++) {
+			ClassSummary summary = index.getRecords().get(i).getSummary();
+			ArchiveEntry entry = entries.get(i);
+			if (summary != null) {
+				archiveEntries.put(summary.getName(), entry);
+				summaries.put(summary.getName(), summary);
+				classes.add(summary.getName());
+			} else {
+				archiveEntries.put(entry.getPath(), entry);
+				resources.add(entry.getPath());
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Store the result of loading the archive in the background, so that the
+	 * next load of the same archive can skip processing its entries.
+	 * 
+	 * @param key
+	 *            Key of the archive.
+	 */
+	private void writeWorkspaceIndex(String key) {
+		WorkspaceIndex index = new WorkspaceIndex(key);
+		for (String name : classes) {
+			ArchiveEntry entry = archiveEntries.get(name);
+			ClassSummary summary = summaries.get(name);
+			if (entry != null && summary != null) {
+				index.addClass(entry.getPath(), summary);
+			}
+		}
+		for (String name : resources) {
+			ArchiveEntry entry = archiveEntries.get(name);
+			if (entry != null) {
+				index.addResource(entry.getPath());
+			}
+		}
+		Threads.run(() -> {
+			try {
+				index.write();
+			} catch (IOException e) {
+				Logging.warn("Failed to write workspace index for: " + input.getName());
+				Logging.warn(e);
+			}
+		});
+	}
+
+	/**
+	 * Populates class map.
+	 * 
 	 * @throws IOException
-	 *             Thrown if stream could not be read or if ClassNode could not
-	 *             be derived from the streamed content.
+	 *             Thrown if the file could not be read.
 	 */
-	private void addClass(Map<String, byte[]> contents, String name, InputStream is) throws IOException {
-		byte[] value = Streams.from(is);
+	private void readClass() throws IOException {
+		try (InputStream is = new FileInputStream(input)) {
+			LoadedEntry entry = process(input.getName(), null, Streams.from(is));
+			if (entry != null) {
+				publish(entry);
+			}
+		}
+	}
+
+	/**
+	 * Validate and name an entry read from the input. Classes that cannot be
+	 * parsed are treated as resources.
+	 * 
+	 * @param name
+	 *            Entry name.
+	 * @param source
+	 *            Archive entry holding the content, {@code null} if the content
+	 *            is not backed by an archive.
+	 * @param value
+	 *            Entry content. Only required for classes.
+	 * @return Entry to add to the input, or {@code null} if the entry should
+	 *         be skipped.
+	 */
+	private LoadedEntry process(String name, ArchiveEntry source, byte[] value) {
+		if (!name.endsWith(".class")) {
+			return new LoadedEntry(name, source, value, false);
+		}
 		try {
 			ClassReader cr = new ClassReader(value);
 			String className = cr.getClassName();
 			// run some basic verification
 			if (className.endsWith("/")) {
 				Logging.warn(String.format("Invalid file-name, '%s', skipping this entry", name));
-				return;
+				return null;
 			}
-			if (!verify(cr)) {
+			if (!verify(value, cr)) {
 				Logging.warn(String.format("Invalid code, '%s', skipping this entry", name));
-				return;
+				return null;
+			}
+			LoadedEntry entry = new LoadedEntry(className, source, value, true);
+			if (source != null) {
+				entry.summary = ClassSummary.of(cr);
 			}
-			classes.add(className);
-			contents.put(className, value);
+			return entry;
 		} catch (Exception e) {
 			Logging.warn(String.format("Could not read archive entry: '%s' as a class. Added as resource instead.", name));
-			contents.put(name, value);
+			return new LoadedEntry(name, source, value, false);
 		}
 	}
 
 	/**
-	 * Try to add the resource contained in the given stream to the resource
-	 * map.
+	 * Add a processed entry to the class or resource set. Entries not backed by
+	 * an archive are written to the {@link #getFileSystem() virtual system}.
 	 * 
-	 * @param name
-	 *            Entry name.
-	 * @param is
-	 *            Stream of entry.
+	 * @param entry
+	 *            Processed entry.
+	 * @return {@code true} if the entry was added, {@code false} if it
+	 *         duplicates a class already in the input.
 	 * @throws IOException
-	 *             Thrown if stream could not be read.
+	 *             Thrown if the entry could not be written.
 	 */
-	private void addResource(Map<String, byte[]> contents, String name, InputStream is) throws IOException {
-		resources.add(name);
-		contents.put(name, Streams.from(is));
+	private boolean publish(LoadedEntry entry) throws IOException {
+		if (entry.isClass && entry.source != null && entry.source.getArchive().getSource() != null && classes
+				.contains(entry.name)) {
+			// Libraries often bundle the same classes, keep the first and
+			// leave the others in their archives.
+			Logging.fine(String.format("Skipping duplicate class '%s' in '%s'", entry.name, entry.source
+					.getArchive().getPath()));
+			return false;
+		}
+		if (entry.source != null) {
+			archiveEntries.put(entry.name, entry.source);
+			if (entry.summary != null) {
+				summaries.put(entry.name, entry.summary);
+			}
+		} else {
+			write(getPath(entry.name), entry.value);
+		}
+		if (entry.isClass) {
+			classes.add(entry.name);
+		} else {
+			resources.add(entry.name);
+		}
+		return true;
 	}
 
 	/**
@@ -560,6 +1601,62 @@ public class Input {
 		return proxyClasses.get(name);
 	}
 
+	/**
+	 * Get a summary of a class by its name. Cheaper than
+	 * {@link #getClass(String)} when only the outline of the class is needed.
+	 * 
+	 * @param name
+	 *            Name of class.
+	 * @return Summary of the class's current content if found, {@code null}
+	 *         otherwise.
+	 */
+	public ClassSummary getSummary(String name) {
+		ClassSummary summary = peekSummary(name);
+		if (summary != null) {
+			return summary;
+		}
+		try {
+			return ClassSummary.of(new ClassReader(getFile(name)));
+		} catch (IOException e) {
+			Logging.warn(e);
+		}
+		return null;
+	}
+
+	/**
+	 * Get a summary of a class without reading the class. The summary is taken
+	 * from the loaded node of the class, which holds any unsaved edits, or
+	 * else from the stored summary of an unmodified class.
+	 * 
+	 * @param name
+	 *            Name of class.
+	 * @return Summary of the class's current content, {@code null} if no
+	 *         summary is available without reading the class.
+	 */
+	public ClassSummary peekSummary(String name) {
+		// Stored summaries describe the archive, modified classes need a new
+		// summary.
+		ClassSummary summary = summaries.get(name);
+		if (summary != null && !hasUnsavedChanges(name) && !Files.exists(getPath(name))) {
+			return summary;
+		}
+		ClassNode node = proxyClasses.getCache().peek(name);
+		if (node != null) {
+			return ClassSummary.of(node);
+		}
+		return null;
+	}
+
+	/**
+	 * @param name
+	 *            Name of class.
+	 * @return {@code true} if the class has edits not yet written to its
+	 *         stored content.
+	 */
+	public boolean hasUnsavedChanges(String name) {
+		return dirtyClasses.contains(name) || editedClasses.contains(name);
+	}
+
 	/**
 	 * @return Map of resources.
 	 */
@@ -568,136 +1665,555 @@ public class Input {
 	}
 
 	/**
-	 * Get a resource by its name.
+	 * Get a resource by its name.
+	 * 
+	 * @param name
+	 *            Name of resource.
+	 * @return {@code byte[]} if found, {@code null} otherwise.
+	 */
+	public byte[] getResource(String name) {
+		return proxyResources.get(name);
+	}
+
+	/**
+	 * @return Map of save states for classes.
+	 */
+	public Map<String, History> getHistory() {
+		return history;
+	}
+
+	/**
+	 * @return Index of the classes referencing each class, field and method.
+	 *         Classes are not indexed when loaded, those not indexed yet are
+	 *         indexed first.
+	 */
+	public ReferenceIndex getReferences() {
+		List<String> missing = new ArrayList<>();
+		for (String name : classes) {
+			if (!references.contains(name)) {
+				missing.add(name);
+			}
+		}
+		if (missing.isEmpty()) {
+			return references;
+		}
+		long start = System.currentTimeMillis();
+		ExecutorService pool = Threads.pool(Threads.PoolKind.LOGIC);
+		for (String name : missing) {
+			pool.execute(() -> {
+				try {
+					// Skip classes written since, they index themselves
+					references.updateIfAbsent(name, ReferenceIndex.scan(getFile(name)));
+				} catch (Exception e) {
+					Logging.warn("Failed to index references of: " + name);
+				}
+			});
+		}
+		Threads.waitForCompletion(pool);
+		Logging.fine(String.format("Indexed references of %d classes in %dms", missing.size(), System
+				.currentTimeMillis() - start));
+		return references;
+	}
+
+	/**
+	 * Undo the last action for the ClassNode with the given name. To receive
+	 * changes re-use {@link #getClass(String)}.
+	 * 
+	 * @param name
+	 * @throws IOException
+	 */
+	public void undo(String name) throws IOException {
+		History hist = history.get(name);
+		byte[] last = hist == null ? null : hist.pop();
+		if (last != null) {
+			beginTransaction("Revert " + name);
+			recordBefore(name);
+			proxyClasses.removeCache(name);
+			write(getPath(name), last);
+			proxyClasses.updated(name, last);
+			endTransaction();
+			Bus.post(new HistoryRevertEvent(name));
+			Logging.info("Reverted '" + name + "'");
+		} else {
+			Logging.info("No history for '" + name + "' to revert back to");
+		}
+	}
+
+	/**
+	 * Begin a transaction. Changes to classes until the transaction
+	 * {@link #endTransaction() ends} are recorded in the journal together, so
+	 * they are undone and redone as one. Transactions begun while another is
+	 * open become part of it.<br>
+	 * The transaction belongs to the calling thread. Changes made by other
+	 * threads at the same time are not recorded in it.
+	 * 
+	 * @param description
+	 *            Description of the operation.
+	 */
+	public void beginTransaction(String description) {
+		OpenTransaction open = transaction.get();
+		if (open == null) {
+			transaction.set(new OpenTransaction(description));
+		} else {
+			open.depth++;
+		}
+	}
+
+	/**
+	 * End the transaction of the calling thread, recording it in the journal
+	 * once no enclosing transaction is open.
+	 */
+	public void endTransaction() {
+		OpenTransaction open = transaction.get();
+		if (open == null || --open.depth > 0) {
+			return;
+		}
+		transaction.remove();
+		Map<String, byte[]> before = new HashMap<>();
+		for (Entry<String, byte[]> e : open.before.entrySet()) {
+			before.put(e.getKey(), e.getValue() == ABSENT ? null : e.getValue());
+		}
+		journal.record(Transaction.create(open.description, before, this::getClassContent));
+	}
+
+	/**
+	 * @param task
+	 *            Task changing classes on behalf of the calling thread.
+	 * @return Task recording its changes in the transaction open on the
+	 *         calling thread, if any.
+	 */
+	private Runnable inTransaction(Runnable task) {
+		OpenTransaction open = transaction.get();
+		if (open == null) {
+			return task;
+		}
+		return () -> {
+			transaction.set(open);
+			try {
+				task.run();
+			} finally {
+				transaction.remove();
+			}
+		};
+	}
+
+	/**
+	 * Undo the last transaction in the journal, reverting every class it
+	 * changed.
+	 * 
+	 * @return {@code true} if a transaction was undone.
+	 * @throws IOException
+	 *             Thrown if a class the transaction changed has been changed
+	 *             since. Nothing is reverted.
+	 */
+	public synchronized boolean undoTransaction() throws IOException {
+		Transaction transaction = journal.peekUndo();
+		if (transaction == null) {
+			return false;
+		}
+		applyTransaction(transaction, true, true);
+		journal.undo();
+		Logging.info("Undone: " + transaction.getDescription());
+		return true;
+	}
+
+	/**
+	 * Redo the last undone transaction in the journal.
+	 * 
+	 * @return {@code true} if a transaction was redone.
+	 * @throws IOException
+	 *             Thrown if a class the transaction changed has been changed
+	 *             since it was undone. Nothing is changed.
+	 */
+	public synchronized boolean redoTransaction() throws IOException {
+		Transaction transaction = journal.peekRedo();
+		if (transaction == null) {
+			return false;
+		}
+		applyTransaction(transaction, false, true);
+		journal.redo();
+		Logging.info("Redone: " + transaction.getDescription());
+		return true;
+	}
+
+	/**
+	 * @return Journal of changes to classes.
+	 */
+	public Journal getJournal() {
+		return journal;
+	}
+
+	/**
+	 * Undo or redo a transaction. All classes are checked before any is
+	 * changed.
+	 * 
+	 * @param transaction
+	 *            Transaction to apply.
+	 * @param undo
+	 *            {@code true} to undo the transaction, {@code false} to redo
+	 *            it.
+	 * @param notify
+	 *            {@code true} to post an {@link InputChangeEvent} for the
+	 *            changed classes.
+	 * @throws IOException
+	 *             Thrown if a class is not in the state the transaction
+	 *             expects.
+	 */
+	private void applyTransaction(Transaction transaction, boolean undo, boolean notify) throws IOException {
+		Map<String, byte[]> current = new HashMap<>();
+		for (String name : transaction.getNames()) {
+			byte[] value = getClassContent(name);
+			if (undo ? !transaction.isUndoable(name, value) : !transaction.isRedoable(name, value)) {
+				throw new IOException("'" + name + "' has been changed since '" + transaction.getDescription()
+						+ "', it cannot be " + (undo ? "undone" : "redone"));
+			}
+			current.put(name, value);
+		}
+		Map<String, byte[]> targets = new ConcurrentHashMap<>();
+		ExecutorService pool = Threads.pool(Threads.PoolKind.LOGIC);
+		for (String name : transaction.getNames()) {
+			pool.execute(() -> {
+				byte[] value = current.get(name);
+				value = undo ? transaction.undo(name, value) : transaction.redo(name, value);
+				targets.put(name, value == null ? ABSENT : value);
+			});
+		}
+		Threads.waitForCompletion(pool);
+		if (targets.size() != current.size()) {
+			throw new IOException("Failed to " + (undo ? "undo" : "redo") + " '" + transaction.getDescription()
+					+ "', nothing was changed");
+		}
+		applyContents(targets, notify);
+	}
+
+	/**
+	 * Replace the content of classes.
+	 * 
+	 * @param contents
+	 *            New content of classes, {@link #ABSENT} to remove a class.
+	 * @param notify
+	 *            {@code true} to post an {@link InputChangeEvent} for the
+	 *            changed classes.
+	 */
+	private void applyContents(Map<String, byte[]> contents, boolean notify) {
+		Set<String> added = new HashSet<>();
+		Set<String> removed = new HashSet<>();
+		Set<String> changed = new HashSet<>();
+		for (Entry<String, byte[]> e : contents.entrySet()) {
+			String name = e.getKey();
+			if (e.getValue() == ABSENT) {
+				if (classes.contains(name)) {
+					proxyClasses.remove(name);
+					dirtyClasses.remove(name);
+					openClasses.remove(name);
+					removed.add(name);
+				}
+				continue;
+			}
+			(classes.contains(name) ? changed : added).add(name);
+			proxyClasses.putBytes(name, e.getValue());
+			dirtyClasses.add(name);
+		}
+		if (notify) {
+			Bus.post(new InputChangeEvent(this, added, removed, changed, Collections.emptySet(), Collections
+					.emptySet(), Collections.emptySet()));
+		}
+	}
+
+	/**
+	 * Bring classes back to the state recorded in the journal stored for the
+	 * input, or start a new stored journal if there is none.
 	 * 
-	 * @param name
-	 *            Name of resource.
-	 * @return {@code byte[]} if found, {@code null} otherwise.
+	 * @param key
+	 *            Key of the input.
 	 */
-	public byte[] getResource(String name) {
-		return proxyResources.get(name);
+	private void restoreJournal(String key) {
+		Journal.Restore restore = Journal.read(key, this::getClassContent);
+		if (restore == null) {
+			journal = new Journal(key, this::getClassContent);
+			return;
+		}
+		long start = System.currentTimeMillis();
+		Map<String, byte[]> checkpoint = new HashMap<>();
+		for (Entry<String, byte[]> e : restore.getCheckpoint().entrySet()) {
+			checkpoint.put(e.getKey(), e.getValue() == null ? ABSENT : e.getValue());
+		}
+		applyContents(checkpoint, false);
+		try {
+			for (Journal.Step step : restore.getSteps()) {
+				applyTransaction(step.getTransaction(), step.isUndo(), false);
+			}
+		} catch (IOException e) {
+			Logging.warn("Failed to replay journal, starting a new one: " + e.getMessage());
+			journal = new Journal(key, this::getClassContent);
+			return;
+		}
+		journal = restore.getJournal();
+		Logging.info(String.format("Restored %d changed classes from the journal in %dms", restore.size(), System
+				.currentTimeMillis() - start));
 	}
 
 	/**
-	 * @return Map of save states for classes.
+	 * Keep the content of a class before the open transaction changes it. Only
+	 * the first change of a class in a transaction is kept.
+	 * 
+	 * @param name
+	 *            Name of class about to be changed.
 	 */
-	public Map<String, History> getHistory() {
-		return history;
+	private void recordBefore(String name) {
+		OpenTransaction open = transaction.get();
+		if (open != null && !open.before.containsKey(name)) {
+			byte[] value = getClassContent(name);
+			open.before.putIfAbsent(name, value == null ? ABSENT : value);
+		}
 	}
 
 	/**
-	 * Undo the last action for the ClassNode with the given name. To receive
-	 * changes re-use {@link #getClass(String)}.
-	 * 
 	 * @param name
-	 * @throws IOException
+	 *            Name of class.
+	 * @return Content of the class, {@code null} if it does not exist or
+	 *         could not be read.
 	 */
-	public void undo(String name) throws IOException {
-		History hist = history.get(name);
-		byte[] last = hist.pop();
-		if (last != null) {
-			proxyClasses.removeCache(name);
-			write(getPath(name), last);
-			Bus.post(new HistoryRevertEvent(name));
-			Logging.info("Reverted '" + name + "'");
-		} else {
-			Logging.info("No history for '" + name + "' to revert back to");
+	private byte[] getClassContent(String name) {
+		if (!classes.contains(name)) {
+			return null;
+		}
+		try {
+			return getFile(name);
+		} catch (IOException e) {
+			Logging.warn("Failed to read '" + name + "': " + e);
+			return null;
 		}
 	}
 
 	/**
-	 * Generate FileSystem to represent contained data:
-	 * <ul>
-	 * <li>{@link #classes}</li>
-	 * <li>{@link #resources}</li>
-	 * </ul>
+	 * Generate an empty FileSystem to be populated with the contents of the
+	 * input.
 	 * 
-	 * @return FileSystem representation of input.
-	 * @throws IOException
+	 * @return FileSystem to hold the input.
 	 */
-	private FileSystem createSystem(Map<String, byte[]> contents) throws IOException {
+	private static FileSystem createSystem() {
 		Logging.fine("Creating internal file-system for archive...");
-		FileSystem fs = Jimfs.newFileSystem(Configuration.unix());
-		for (Entry<String, byte[]> entry : contents.entrySet()) {
-			Path path = getPath(fs, entry.getKey());
-			write(path, entry.getValue());
-		}
-		return fs;
+		return Jimfs.newFileSystem(Configuration.unix());
 	}
 
 	/**
 	 * Generate FileSystem to represent classes loaded in the given
-	 * Instrumentation instance.
+	 * Instrumentation instance. Only the names of loaded classes are read,
+	 * their bytecode is {@link #captureRuntimeClass(String, WeakReference)
+	 * captured} when first needed.
 	 * 
 	 * @param instrumentation
 	 * @return FileSystem representation of instrumentation.
-	 * @throws IOException
 	 */
-	private FileSystem createSystem(Instrumentation instrumentation) throws IOException {
+	private FileSystem createSystem(Instrumentation instrumentation) {
 		Logging.fine("Creating internal file-system for instrumented runtime...");
 		FileSystem fs = Jimfs.newFileSystem(Configuration.unix());
-		// Wrapped return of "readContents" in another map to prevent
-		// ConcurrentModificationException for when a new class is loaded
-		// while this loop is executing.
-		Map<String, byte[]> contents = new HashMap<>(readContents(instrumentation));
-		for (Entry<String, byte[]> entry : contents.entrySet()) {
-			Path path = getPath(fs, entry.getKey());
-			write(path, entry.getValue());
+		long start = System.currentTimeMillis();
+		for (Class<?> c : instrumentation.getAllLoadedClasses()) {
+			// Skip classes without class files
+			if (c.isArray() || c.isPrimitive() || c.getName().contains("$$Lambda$")) {
+				continue;
+			}
+			String name = c.getName().replace(".", "/");
+			runtimeClasses.putIfAbsent(name, new WeakReference<>(c));
+			definingLoaders.putIfAbsent(name, loaderRef(c.getClassLoader()));
+			classes.add(name);
 		}
+		Logging.info(String.format("Indexed %d runtime classes in %dms", classes.size(), System
+				.currentTimeMillis() - start));
 		return fs;
 	}
 
 	/**
-	 * Read bytecode of classes in the instrumented environment.
+	 * Capture the bytecode of a runtime class, and store it in the
+	 * {@link #getFileSystem() virtual system}.
 	 * 
-	 * @param instrumentation
-	 * @return Map of runtime classes's bytecode.
+	 * @param name
+	 *            Name of class.
+	 * @param runtime
+	 *            Reference to the loaded class.
+	 * @return Bytecode of the class.
 	 * @throws IOException
+	 *             Thrown if the class has been unloaded, or has no class file
+	 *             to read its bytecode from.
 	 */
-	private Map<String, byte[]> readContents(Instrumentation instrumentation) throws IOException {
-		Map<String, byte[]> map = new HashMap<>();
-		// add all existing classes
-		for (Class<?> c : instrumentation.getAllLoadedClasses()) {
-			String name = c.getName().replace(".", "/");
-			String path = name + ".class";
-			ClassLoader loader = c.getClassLoader();
-			if (loader == null) {
-				loader = ClassLoader.getSystemClassLoader();
+	private byte[] captureRuntimeClass(String name, WeakReference<Class<?>> runtime) throws IOException {
+		// Each class has a single reference, other threads capturing the
+		// same class wait for this one.
+		synchronized (runtime) {
+			Path path = getPath(name);
+			if (Files.exists(path)) {
+				return getFile(path);
+			}
+			Class<?> c = runtime.get();
+			byte[] value = null;
+			if (c != null) {
+				ClassLoader loader = c.getClassLoader();
+				if (loader == null) {
+					loader = ClassLoader.getSystemClassLoader();
+				}
+				try (InputStream is = loader.getResourceAsStream(name + ".class")) {
+					if (is != null) {
+						value = Streams.from(is);
+					}
+				}
+			}
+			if (value == null) {
+				runtimeClasses.remove(name);
+				classes.remove(name);
+				throw new NoSuchFileException(name);
 			}
-			InputStream is = loader.getResourceAsStream(path);
-			if (is != null) {
-				classes.add(name);
-				map.put(name, Streams.from(is));
+			// Readers check for the file without the lock, it must not be
+			// visible before it is complete.
+			Path temp = path.resolveSibling(path.getFileName() + ".capture");
+			write(temp, value);
+			Files.move(temp, path, StandardCopyOption.ATOMIC_MOVE);
+			runtimeClasses.remove(name);
+			return value;
+		}
+	}
+
+	/**
+	 * Queue the uncaptured runtime classes in the package of a class to be
+	 * captured in the background, at the
+	 * {@link ConfOther#getAgentPrefetchRate() prefetch rate}.
+	 * 
+	 * @param name
+	 *            Name of class.
+	 */
+	private void prefetchPackage(String name) {
+		if (runtimeClasses.isEmpty() || ConfOther.instance().getAgentPrefetchRate() <= 0) {
+			return;
+		}
+		String pkg = name.lastIndexOf('/') == -1 ? "" : name.substring(0, name.lastIndexOf('/'));
+		if (!prefetchedPackages.add(pkg)) {
+			return;
+		}
+		if (prefetchedPackages.size() == 1) {
+			Thread thread = new Thread(this::prefetch, "Recaf-Prefetch");
+			thread.setDaemon(true);
+			thread.setPriority(Thread.MIN_PRIORITY);
+			thread.start();
+		}
+		prefetchQueue.add(pkg);
+	}
+
+	/**
+	 * Capture queued packages of runtime classes, until a new input is
+	 * loaded.
+	 */
+	private void prefetch() {
+		try {
+			while (current == this && !runtimeClasses.isEmpty()) {
+				String pkg = prefetchQueue.poll(1, TimeUnit.SECONDS);
+				if (pkg == null) {
+					continue;
+				}
+				int count = 0;
+				for (Entry<String, WeakReference<Class<?>>> e : runtimeClasses.entrySet()) {
+					String name = e.getKey();
+					if (name.length() <= pkg.length() || !name.startsWith(pkg) || name.indexOf('/', pkg.length()
+							+ 1) != -1 || (!pkg.isEmpty() && name.charAt(pkg.length()) != '/')) {
+						continue;
+					}
+					try {
+						captureRuntimeClass(name, e.getValue());
+						count++;
+					} catch (IOException ex) {
+						Logging.trace("Could not capture runtime class: " + name, 1);
+					}
+					// Throttled, so the target is not stalled
+					TimeUnit.NANOSECONDS.sleep(1_000_000_000L / Math.max(1, ConfOther.instance()
+							.getAgentPrefetchRate()));
+				}
+				Logging.fine(String.format("Prefetched %d classes of '%s'", count, pkg));
 			}
+		} catch (InterruptedException e) {
+			// Stopped
 		}
-		return map;
 	}
 
 	/**
 	 * Called after the window is loaded. This allows the UI to register an
 	 * instance of "Input" so that it can use it when fetching values posted by
 	 * the transformer in this method.
+	 * <hr>
+	 * The transformer runs on the class-loading threads of the runtime, so it
+	 * only queues the loaded class. Classes are added in batches on a
+	 * background thread.
 	 */
 	public void registerLoadListener() {
-		if (instrumentation == null) return;
+		if (instrumentation == null || !loadListening.compareAndSet(false, true)) return;
+		Thread consumer = new Thread(this::consumeLoads, "Recaf-Loads");
+		consumer.setDaemon(true);
+		consumer.start();
 		// register transformer so new classes can be added on the fly
 		instrumentation.addTransformer(new ClassFileTransformer() {
 			@Override
 			public byte[] transform(ClassLoader loader, String className, Class<?> classBeingRedefined,
 					ProtectionDomain protectionDomain, byte[] classfileBuffer) throws IllegalClassFormatException {
 				// skip invalid entries
-				if (className == null || classfileBuffer == null) {
-					return classfileBuffer;
+				if (className != null && classfileBuffer != null) {
+					queueLoaded(loader, className, classfileBuffer);
 				}
-				// add classes as they're loaded
+				// No transformation, so the class is not parsed again
+				return null;
+			}
+		}, true);
+	}
+
+	/**
+	 * Queue a loaded class to be added, unless the queue is full.
+	 * 
+	 * @param loader
+	 *            Defining loader of class loaded.
+	 * @param className
+	 *            Name of class loaded.
+	 * @param classfileBuffer
+	 *            Bytecode of class loaded.
+	 */
+	private void queueLoaded(ClassLoader loader, String className, byte[] classfileBuffer) {
+		if (loadQueueSize.incrementAndGet() > LOAD_QUEUE_CAPACITY) {
+			loadQueueSize.decrementAndGet();
+			droppedLoads.incrementAndGet();
+			return;
+		}
+		loadQueue.add(new LoadedClass(loader, className, classfileBuffer));
+	}
+
+	/**
+	 * Add queued class loads in batches, until a new input is loaded.
+	 */
+	private void consumeLoads() {
+		long reported = 0;
+		while (current == this) {
+			try {
+				Thread.sleep(LOAD_BATCH_MILLIS);
+			} catch (InterruptedException e) {
+				return;
+			}
+			List<LoadedClass> batch = new ArrayList<>();
+			LoadedClass loaded;
+			while ((loaded = loadQueue.poll()) != null) {
+				loadQueueSize.decrementAndGet();
+				batch.add(loaded);
+			}
+			for (LoadedClass c : batch) {
 				try {
-					instLoaded(className, classfileBuffer);
+					definingLoaders.put(c.name, loaderRef(c.loader));
+					instLoaded(c.name, c.value);
 				} catch (IOException e) {
-					Logging.warn("Failed to load inst. class: " + className);
+					Logging.warn("Failed to load inst. class: " + c.name);
 				}
-				return classfileBuffer;
 			}
-		}, true);
+			long dropped = droppedLoads.get();
+			if (dropped != reported) {
+				Logging.warn(String.format("Dropped %d class loads, too many classes were loaded at once", dropped
+						- reported));
+				reported = dropped;
+			}
+		}
 	}
 
 	@Listener
@@ -725,26 +2241,323 @@ public class Input {
 				}
 			}
 		}
+		redefineTargets(targets);
+	}
+
+	/**
+	 * Redefine classes of the runtime attached to, if they changed since they
+	 * were last redefined.
+	 * 
+	 * @param targets
+	 *            Map of class names to their new bytecode. Plugins may add to
+	 *            it.
+	 * @return Names of redefined classes.
+	 */
+	private synchronized Set<String> redefineTargets(Map<String, byte[]> targets) {
 		// Post to event bus. Allow plugins to inject their own files to the
 		// output.
 		Bus.post(new AgentSaveEvent(instrumentation, targets));
-		// Create new definitions and apply
-		try {
-			int i = 0;
-			ClassDefinition[] defs = new ClassDefinition[targets.size()];
-			for (Entry<String, byte[]> entry : targets.entrySet()) {
-				String name = entry.getKey().replace("/", ".");
-				ClassLoader loader = ClassLoader.getSystemClassLoader();
-				defs[i] = new ClassDefinition(Class.forName(name, false, loader), entry.getValue());
-				i++;
-			}
-			instrumentation.redefineClasses(defs);
+		// Only redefine classes changed since they were last redefined
+		Map<String, Long> crcs = new HashMap<>();
+		for (Iterator<Entry<String, byte[]>> it = targets.entrySet().iterator(); it.hasNext();) {
+			Entry<String, byte[]> entry = it.next();
+			CRC32 crc = new CRC32();
+			crc.update(entry.getValue());
+			crcs.put(entry.getKey(), crc.getValue());
+			if (Long.valueOf(crc.getValue()).equals(redefined.get(entry.getKey()))) {
+				it.remove();
+			}
+		}
+		Logging.info("\t" + targets.size() + " changed since last redefinition");
+		// Group definitions by defining loader, classes of different loaders
+		// do not depend on each other.
+		Map<ClassLoader, List<ClassDefinition>> batches = new HashMap<>();
+		Set<String> failed = new HashSet<>();
+		for (Entry<String, byte[]> entry : targets.entrySet()) {
+			Class<?> c = findRuntimeClass(entry.getKey());
+			if (c == null) {
+				Logging.warn("Failed to redefine '" + entry.getKey() + "', it is not loaded");
+				failed.add(entry.getKey());
+				continue;
+			}
+			batches.computeIfAbsent(c.getClassLoader(), k -> new ArrayList<>()).add(new ClassDefinition(c, entry
+					.getValue()));
+		}
+		Set<String> done = new HashSet<>();
+		for (List<ClassDefinition> batch : batches.values()) {
+			redefine(batch, done, failed);
+		}
+		for (String name : done) {
+			redefined.put(name, crcs.get(name));
+		}
+		if (failed.isEmpty()) {
 			Logging.info("Redefinition complete.");
-		} catch (Exception e) {
-			Logging.error(e);
+		} else {
+			Logging.warn(String.format("Redefined %d classes, %d failed: %s", done.size(), failed.size(),
+					failed));
 		}
-		// clear dirty list
-		dirtyClasses.clear();
+		// clear dirty list, failed classes stay dirty so they are retried
+		for (String name : crcs.keySet()) {
+			if (!failed.contains(name)) {
+				dirtyClasses.remove(name);
+			}
+		}
+		return done;
+	}
+
+	/**
+	 * Queue the classes of a save-state to be hot-swapped, when attached to a
+	 * runtime with {@link ConfOther#doAgentLive() live redefinition} enabled.
+	 * Saves made within the {@link ConfOther#getAgentLiveDelay() delay} of
+	 * each other are hot-swapped together.
+	 */
+	@Listener
+	private void onLiveSave(SaveStateEvent event) {
+		if (instrumentation == null || !ConfOther.instance().doAgentLive() || event.getClasses().isEmpty()) {
+			return;
+		}
+		liveClasses.addAll(event.getClasses());
+		synchronized (liveClasses) {
+			if (liveExecutor != null && liveExecutor.isShutdown()) {
+				// Input closed
+				return;
+			}
+			if (liveExecutor == null) {
+				liveExecutor = Executors.newSingleThreadScheduledExecutor(r -> {
+					Thread thread = new Thread(r, "Recaf-HotSwap");
+					thread.setDaemon(true);
+					return thread;
+				});
+			}
+			if (liveTask != null) {
+				liveTask.cancel(false);
+			}
+			liveTask = liveExecutor.schedule(this::hotSwap, ConfOther.instance().getAgentLiveDelay(),
+					TimeUnit.MILLISECONDS);
+		}
+	}
+
+	/**
+	 * Verify and redefine the classes queued by saves.
+	 */
+	private void hotSwap() {
+		if (current != this) {
+			return;
+		}
+		Set<String> names = new HashSet<>(liveClasses);
+		liveClasses.removeAll(names);
+		names.retainAll(classes);
+		if (names.isEmpty()) {
+			return;
+		}
+		long start = System.nanoTime();
+		if (ConfASM.instance().doVerify()) {
+			VerifyReport report = Verify.verify(names);
+			if (!report.isValid()) {
+				// Invalid classes are not redefined, the rest still are
+				Logging.warn("Skipped hot-swapping invalid classes:\n" + report);
+				for (VerifyFailure failure : report.getFailures()) {
+					names.remove(failure.owner);
+				}
+			}
+		}
+		long verified = System.nanoTime();
+		Map<String, byte[]> targets = new HashMap<>();
+		for (String name : names) {
+			try {
+				targets.put(name, Asm.getBytes(getClass(name)));
+			} catch (Exception e) {
+				Logging.warn("Failed to hot-swap: '" + name + "' due to the following error: ");
+				Logging.error(e);
+			}
+		}
+		long written = System.nanoTime();
+		Set<String> done = redefineTargets(targets);
+		long end = System.nanoTime();
+		Logging.info(String.format("Hot-swapped %d classes in %dms (verify: %dms, write: %dms, redefine: %dms)",
+				done.size(), (end - start) / 1_000_000, (verified - start) / 1_000_000, (written - verified)
+						/ 1_000_000, (end - written) / 1_000_000));
+	}
+
+	/**
+	 * Redefine a batch of classes at once. If the batch fails, it is split so
+	 * that one failing class does not stop the others from being redefined:
+	 * first into nests <i>(an outer class and its inner classes)</i>, then
+	 * into single classes.
+	 * 
+	 * @param batch
+	 *            Definitions to apply.
+	 * @param done
+	 *            Names of redefined classes, added to.
+	 * @param failed
+	 *            Names of classes that could not be redefined, added to.
+	 */
+	private void redefine(List<ClassDefinition> batch, Set<String> done, Set<String> failed) {
+		try {
+			instrumentation.redefineClasses(batch.toArray(new ClassDefinition[0]));
+			for (ClassDefinition def : batch) {
+				done.add(Type.getInternalName(def.getDefinitionClass()));
+			}
+			return;
+		} catch (Exception | LinkageError e) {
+			if (batch.size() == 1) {
+				String name = Type.getInternalName(batch.get(0).getDefinitionClass());
+				Logging.warn("Failed to redefine '" + name + "': " + e);
+				failed.add(name);
+				return;
+			}
+		}
+		Map<String, List<ClassDefinition>> nests = new LinkedHashMap<>();
+		for (ClassDefinition def : batch) {
+			String name = def.getDefinitionClass().getName();
+			String outer = name.indexOf('$') == -1 ? name : name.substring(0, name.indexOf('$'));
+			nests.computeIfAbsent(outer, k -> new ArrayList<>()).add(def);
+		}
+		if (nests.size() == 1) {
+			// Already a single nest
+			nests.clear();
+			for (ClassDefinition def : batch) {
+				nests.put(def.getDefinitionClass().getName(), Collections.singletonList(def));
+			}
+		}
+		for (List<ClassDefinition> nest : nests.values()) {
+			redefine(nest, done, failed);
+		}
+	}
+
+	/**
+	 * @param name
+	 *            Internal name of a runtime class.
+	 * @return Loaded class of the name, from the loader that defined it.
+	 *         {@code null} if it is not loaded.
+	 */
+	private Class<?> findRuntimeClass(String name) {
+		WeakReference<ClassLoader> ref = definingLoaders.get(name);
+		ClassLoader loader = ref == null ? null : ref.get();
+		if (ref != BOOTSTRAP && ref != null && loader == null) {
+			// Loader was collected, so was the class
+			return null;
+		}
+		try {
+			return Class.forName(name.replace('/', '.'), false, ref == null ? ClassLoader.getSystemClassLoader()
+					: loader);
+		} catch (ClassNotFoundException | LinkageError e) {
+			// Search all loaded classes, for classes of unknown loaders
+			for (Class<?> c : instrumentation.getAllLoadedClasses()) {
+				if (c.getName().equals(name.replace('/', '.'))) {
+					return c;
+				}
+			}
+			return null;
+		}
+	}
+
+	private static WeakReference<ClassLoader> loaderRef(ClassLoader loader) {
+		return loader == null ? BOOTSTRAP : new WeakReference<>(loader);
+	}
+
+	/**
+	 * @param name
+	 *            Class name.
+	 * @param modified
+	 *            Set of modified class names.
+	 * @return Bytes of the class, regenerated if modified by edits to its
+	 *         node. Otherwise the stored content is used as-is, so renamed
+	 *         classes keep their untouched code byte-for-byte.
+	 * @throws IOException
+	 *             Thrown if the class could not be read.
+	 */
+	private byte[] getClassBytes(String name, Set<String> modified) throws IOException {
+		// Export if file has been modified.
+		// We know if it is modified if it has a history or is marked as
+		// dirty.
+		if (modified.contains(name) && editedClasses.contains(name)) {
+			try {
+				return Asm.getBytes(getClass(name));
+			} catch (Exception e) {
+				Logging.warn("Failed to export: '" + name + "' due to the following error: ");
+				Logging.error(e);
+			}
+		}
+		// Otherwise we don't even have to have ASM regenerate the
+		// bytecode. We can just plop the stored file back into the output.
+		// This is great for editing one file in a large system.
+		//
+		// Or we can be here because the export failed, which sucks, but is
+		// better than not exporting anything at all. At least the user will
+		// be notified in the console.
+		return getFile(name);
+	}
+
+	/**
+	 * @param changed
+	 *            Entries of nested archives with modified content.
+	 * @return Nested archives that need to be rebuilt, deepest first.
+	 */
+	private List<ArchiveIndex> getModifiedArchives(Set<ArchiveEntry> changed) {
+		Set<ArchiveIndex> set = new HashSet<>();
+		Set<ArchiveEntry> entries = new HashSet<>(changed);
+		for (String path : removedNestedPaths) {
+			try {
+				ArchiveEntry entry = resolveEntry(path);
+				if (entry != null) {
+					entries.add(entry);
+				}
+			} catch (IOException e) {
+				// Archive holding the entry is gone too
+			}
+		}
+		for (ArchiveEntry entry : entries) {
+			// The archive holding the entry and all archives holding that
+			// archive.
+			ArchiveIndex index = entry.getArchive();
+			while (index.getSource() != null && set.add(index)) {
+				index = index.getSource().getArchive();
+			}
+		}
+		List<ArchiveIndex> list = new ArrayList<>(set);
+		list.sort((a, b) -> Integer.compare(depth(b), depth(a)));
+		return list;
+	}
+
+	private static int depth(ArchiveIndex index) {
+		int depth = 0;
+		while (index.getSource() != null) {
+			index = index.getSource().getArchive();
+			depth++;
+		}
+		return depth;
+	}
+
+	/**
+	 * Write a nested archive with its modified content.
+	 * 
+	 * @param index
+	 *            Nested archive.
+	 * @param replaced
+	 *            Map of entries to their modified content.
+	 * @return Bytes of the archive.
+	 * @throws IOException
+	 *             Thrown if the original content of an entry could not be
+	 *             read.
+	 */
+	private byte[] writeArchive(ArchiveIndex index, Map<ArchiveEntry, byte[]> replaced) throws IOException {
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		boolean storeAll = ConfOther.instance().doExportStored();
+		try (ArchiveWriter output = new ArchiveWriter(baos, ConfOther.instance().getExportLevel())) {
+			for (ArchiveEntry entry : index.getEntries()) {
+				if (removedNestedPaths.contains(entry.getPath())) {
+					continue;
+				}
+				byte[] data = replaced.get(entry);
+				if (data == null) {
+					output.copy(entry.getName(), entry);
+				} else {
+					output.write(entry.getName(), data, storeAll || entry.getMethod() == ArchiveEntry.STORED);
+				}
+			}
+		}
+		return baos.toByteArray();
 	}
 
 	/**
@@ -771,6 +2584,7 @@ public class Input {
 		Files.createDirectories(path.getParent());
 		write(path, classfileBuffer);
 		// add to class list
+		runtimeClasses.remove(className);
 		classes.add(className);
 		// send notification
 		Bus.post(new ClassLoadInstrumentedEvent(className));
@@ -779,20 +2593,25 @@ public class Input {
 	/**
 	 * Verify that constant-pool values are not malformed.
 	 * 
+	 * @param value
+	 *            Class file bytes.
 	 * @param cr
-	 *            ClassReader.
+	 *            ClassReader of the given bytes.
 	 * @return Validity of code, {@code true} for valid.
 	 */
-	private static boolean verify(ClassReader cr) {
+	private static boolean verify(byte[] value, ClassReader cr) {
+		if (!ConfASM.instance().doStrictVerify() && ClassValidator.isValid(value)) {
+			// Single pass over the raw bytes, checks the constant pool,
+			// attribute lengths and code lengths.
+			return true;
+		}
+		// Classes the validator rejects are given the full check before they
+		// are dropped, so no class ASM can handle is skipped.
 		try {
 			// The class reader will attempt to parse the raw bytecode stored in
 			// the array "b" in ClassReader and save it back to a class file via
 			// ClassWriter. If any errors occur in this process, the code is
 			// invalid.
-			//
-			// This kinda sucks for speed/performance, but hey it means not
-			// dealing with invalid code (which IMO are not within the scope of
-			// this tool)
 			cr.accept(new ClassWriter(0), 0);
 		} catch (Exception e) {
 			return false;
@@ -835,7 +2654,8 @@ public class Input {
 	}
 
 	/**
-	 * Retrieve bytes of file in the {@link #getFileSystem() virtual system}.
+	 * Retrieve bytes of file in the {@link #getFileSystem() virtual system}, or
+	 * if it has not been modified, from the archive loaded from.
 	 * 
 	 * @param name
 	 *            File name. For classes, use internal names.
@@ -844,7 +2664,19 @@ public class Input {
 	 *             File could not be read from.
 	 */
 	public byte[] getFile(String name) throws IOException {
-		return Files.readAllBytes(getPath(name));
+		Path path = getPath(name);
+		if (Files.exists(path)) {
+			return getFile(path);
+		}
+		ArchiveEntry entry = archiveEntries.get(name);
+		if (entry != null) {
+			return entry.getArchive().read(entry);
+		}
+		WeakReference<Class<?>> runtime = runtimeClasses.get(name);
+		if (runtime != null) {
+			return captureRuntimeClass(name, runtime);
+		}
+		throw new NoSuchFileException(name);
 	}
 
 	/**
@@ -869,7 +2701,13 @@ public class Input {
 	 *             Thrown if the file could not be removed.
 	 */
 	private void removeFile(String name) throws IOException {
-		Files.delete(getPath(name));
+		ArchiveEntry entry = archiveEntries.remove(name);
+		if (entry != null && entry.getArchive().getSource() != null) {
+			removedNestedPaths.add(entry.getPath());
+		}
+		summaries.remove(name);
+		runtimeClasses.remove(name);
+		Files.deleteIfExists(getPath(name));
 	}
 
 	/**
@@ -884,7 +2722,8 @@ public class Input {
 	 */
 	private static void write(Path path, byte[] value) throws IOException {
 		ensureParentExists(path);
-		Files.write(path, value, StandardOpenOption.CREATE);
+		Files.write(path, value, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+				StandardOpenOption.WRITE);
 	}
 
 	/**
@@ -934,26 +2773,73 @@ public class Input {
 			}
 
 			@Override
-			byte[] castBytes(ClassNode value) {
+			byte[] castBytes(ClassNode value) {
+				try {
+					return Asm.getBytes(value);
+				} catch (Exception e) {
+					Logging.warn("Failed to convert to raw byte[]: '" + value.name + "' due to the following error: ");
+					Logging.error(e);
+				}
+				try {
+					return getFile(value.name);
+				} catch (IOException e) {
+					Logging.warn("Failed to fetch fallback value of byte[] for: '" + value.name
+							+ "' due to the following error: ");
+					Logging.error(e);
+				}
+				return new byte[0];
+			}
+
+			@Override
+			String castKey(Object in) {
+				return in.toString();
+			}
+
+			@Override
+			long weigh(ClassNode value) {
+				return Asm.estimateSize(value);
+			}
+
+			/**
+			 * Pinned classes are those whose stored content does not match the
+			 * cached node <i>(dirty or edited)</i>, those open in the editor,
+			 * and those being remapped by a rename.
+			 */
+			@Override
+			boolean isPinned(String key) {
+				return dirtyClasses.contains(key) || editedClasses.contains(key) || openClasses.contains(key)
+						|| renameTargets.contains(key);
+			}
+
+			@Override
+			void updated(String key, byte[] value) {
+				// The written content replaces any edits to the cached node
+				editedClasses.remove(key);
 				try {
-					return Asm.getBytes(value);
+					references.update(key, ReferenceIndex.scan(value));
 				} catch (Exception e) {
-					Logging.warn("Failed to convert to raw byte[]: '" + value.name + "' due to the following error: ");
-					Logging.error(e);
+					// Re-indexed from the stored value on next use
+					references.remove(key);
 				}
 				try {
-					return getFile(getPath(value.name));
-				} catch (IOException e) {
-					Logging.warn("Failed to fetch fallback value of byte[] for: '" + value.name
-							+ "' due to the following error: ");
-					Logging.error(e);
+					ClassReader cr = new ClassReader(value);
+					Ancestry.INSTANCE.update(key, cr.getAccess(), cr.getSuperName(), Arrays.asList(cr
+							.getInterfaces()));
+				} catch (Exception e) {
+					Ancestry.INSTANCE.remove(key);
 				}
-				return new byte[0];
 			}
 
 			@Override
-			String castKey(Object in) {
-				return in.toString();
+			void writing(String key) {
+				recordBefore(key);
+			}
+
+			@Override
+			void removed(String key) {
+				editedClasses.remove(key);
+				references.remove(key);
+				Ancestry.INSTANCE.remove(key);
 			}
 		};
 	}
@@ -986,11 +2872,230 @@ public class Input {
 			String castKey(Object in) {
 				return in.toString();
 			}
+
+			@Override
+			long weigh(byte[] value) {
+				return value.length;
+			}
 		};
 	}
 
 	/**
-	 * History manager for files.
+	 * Entry read from the input, validated and named.
+	 * 
+	 * @author Matt
+	 */
+	private static class LoadedEntry {
+		/**
+		 * Internal name for classes, entry name for resources.
+		 */
+		private final String name;
+		/**
+		 * Archive entry holding the content, {@code null} if not backed by an
+		 * archive.
+		 */
+		private final ArchiveEntry source;
+		/**
+		 * Content, only held on to if not backed by an archive.
+		 */
+		private final byte[] value;
+		private final boolean isClass;
+		/**
+		 * Summary of archived classes, for the workspace index.
+		 */
+		private ClassSummary summary;
+
+		private LoadedEntry(String name, ArchiveEntry source, byte[] value, boolean isClass) {
+			this.name = name;
+			this.source = source;
+			this.value = source == null ? value : null;
+			this.isClass = isClass;
+		}
+	}
+
+	/**
+	 * Entries of an export, as a map of names to content. Content is produced
+	 * when it is read, so the map can be passed around without holding the
+	 * output in memory. Changes to the map change what is exported.
+	 * <br>
+	 * {@link #put(String, byte[])} and {@link #remove(Object)} return
+	 * {@code null} rather than producing the previous content.
+	 * 
+	 * @author Matt
+	 */
+	private static class ExportContents extends AbstractMap<String, byte[]> {
+		private final Map<String, Callable<byte[]>> tasks;
+		private final Map<String, ArchiveEntry> copies;
+
+		private ExportContents(Map<String, Callable<byte[]>> tasks, Map<String, ArchiveEntry> copies) {
+			this.tasks = tasks;
+			this.copies = copies;
+		}
+
+		@Override
+		public int size() {
+			return tasks.size() + copies.size();
+		}
+
+		@Override
+		public boolean containsKey(Object key) {
+			return tasks.containsKey(key) || copies.containsKey(key);
+		}
+
+		@Override
+		public byte[] get(Object key) {
+			try {
+				Callable<byte[]> task = tasks.get(key);
+				if (task != null) {
+					return task.call();
+				}
+				ArchiveEntry copy = copies.get(key);
+				return copy == null ? null : copy.getArchive().read(copy);
+			} catch (Exception e) {
+				throw new IllegalStateException("Failed to read export entry: " + key, e);
+			}
+		}
+
+		@Override
+		public byte[] put(String key, byte[] value) {
+			Objects.requireNonNull(value);
+			copies.remove(key);
+			tasks.put(key, () -> value);
+			return null;
+		}
+
+		@Override
+		public byte[] remove(Object key) {
+			copies.remove(key);
+			tasks.remove(key);
+			return null;
+		}
+
+		@Override
+		public void clear() {
+			copies.clear();
+			tasks.clear();
+		}
+
+		@Override
+		public Set<Entry<String, byte[]>> entrySet() {
+			return new AbstractSet<Entry<String, byte[]>>() {
+				@Override
+				public int size() {
+					return ExportContents.this.size();
+				}
+
+				@Override
+				public boolean contains(Object o) {
+					return o instanceof Entry && containsKey(((Entry<?, ?>) o).getKey());
+				}
+
+				@Override
+				public boolean remove(Object o) {
+					if (!contains(o)) {
+						return false;
+					}
+					ExportContents.this.remove(((Entry<?, ?>) o).getKey());
+					return true;
+				}
+
+				@Override
+				public Iterator<Entry<String, byte[]>> iterator() {
+					// Iterate over a copy of the names, so entries can be
+					// removed or replaced while iterating.
+					Set<String> names = new LinkedHashSet<>(tasks.keySet());
+					names.addAll(copies.keySet());
+					Iterator<String> it = names.iterator();
+					return new Iterator<Entry<String, byte[]>>() {
+						private String last;
+
+						@Override
+						public boolean hasNext() {
+							return it.hasNext();
+						}
+
+						@Override
+						public Entry<String, byte[]> next() {
+							last = it.next();
+							String name = last;
+							return new Entry<String, byte[]>() {
+								@Override
+								public String getKey() {
+									return name;
+								}
+
+								@Override
+								public byte[] getValue() {
+									return get(name);
+								}
+
+								@Override
+								public byte[] setValue(byte[] value) {
+									return put(name, value);
+								}
+							};
+						}
+
+						@Override
+						public void remove() {
+							if (last == null) {
+								throw new IllegalStateException();
+							}
+							ExportContents.this.remove(last);
+							last = null;
+						}
+					};
+				}
+			};
+		}
+	}
+
+	/**
+	 * Class loaded in the runtime attached to, waiting to be added.
+	 * 
+	 * @author Matt
+	 */
+	private static class LoadedClass {
+		private final ClassLoader loader;
+		private final String name;
+		private final byte[] value;
+
+		private LoadedClass(ClassLoader loader, String name, byte[] value) {
+			this.loader = loader;
+			this.name = name;
+			this.value = value;
+		}
+	}
+
+	/**
+	 * Transaction open on a thread.
+	 * 
+	 * @author Matt
+	 */
+	private static class OpenTransaction {
+		private final String description;
+		/**
+		 * Content of classes before the transaction changed them,
+		 * {@link #ABSENT} for classes that did not exist. Filled by the
+		 * owning thread and the tasks joining it.
+		 */
+		private final Map<String, byte[]> before = new ConcurrentHashMap<>();
+		/**
+		 * Number of nested transactions, only changed by the owning thread.
+		 */
+		private int depth = 1;
+
+		private OpenTransaction(String description) {
+			this.description = description;
+		}
+	}
+
+	/**
+	 * History manager for files. Save states are kept in a ring buffer, oldest
+	 * first. The most recent state is stored in full, older states as
+	 * {@link Delta deltas} from the next newer state, so undoing only ever
+	 * applies one delta. Every {@value #KEYFRAME_INTERVAL}th state is also
+	 * kept in full, bounding the work to read an arbitrary state.
 	 * 
 	 * @author Matt
 	 */
@@ -1003,71 +3108,116 @@ public class Input {
 		 * Number of elements.
 		 */
 		public int length;
+		/**
+		 * Ring buffer of states.
+		 */
+		private State[] states;
+		/**
+		 * Index of the oldest state in {@link #states}.
+		 */
+		private int head;
+		/**
+		 * Number of states pushed, for spacing keyframes.
+		 */
+		private long pushed;
+		/**
+		 * Stored size of all states, in bytes.
+		 */
+		private long weight;
 
 		public History(String name) {
 			this.name = name;
+			this.states = new State[ConfOther.instance().getHistoryDepth()];
 		}
 
 		/**
-		 * Wipe all items from the history.
-		 * 
-		 * @throws IOException
-		 *             Thrown if the history file could not be deleted.
+		 * @param name
+		 *            File being tracked.
+		 * @param other
+		 *            History to take the states of, such as the history of
+		 *            the file before it was renamed.
 		 */
-		public void clear() throws IOException {
-			for (int i = 0; i < length; i++) {
-				Path cur = getPath(name + HIST_POSTFIX + i);
-				Files.delete(cur);
+		private History(String name, History other) {
+			this.name = name;
+			synchronized (other) {
+				this.states = other.states;
+				this.head = other.head;
+				this.pushed = other.pushed;
+				this.weight = other.weight;
+				this.length = other.length;
 			}
+		}
+
+		/**
+		 * Wipe all items from the history.
+		 */
+		public synchronized void clear() {
+			Arrays.fill(states, null);
+			head = 0;
 			length = 0;
+			weight = 0;
 		}
 
 		/**
-		 * Fetch the creation times of all files in the history.
+		 * Fetch the creation times of all states in the history.
 		 * 
-		 * @return Creation times. Lower index = older files.
-		 * @throws IOException
-		 *             Thrown if the history file could not have their
-		 *             attributes read.
+		 * @return Creation times. Lower index = newer states.
 		 */
-		public Instant[] getFileTimes() throws IOException {
+		public synchronized Instant[] getTimes() {
 			Instant[] instants = new Instant[length];
 			for (int i = 0; i < length; i++) {
-				Path file = getPath(name + HIST_POSTFIX + i);
-				BasicFileAttributes attr = Files.readAttributes(file, BasicFileAttributes.class);
-				instants[i] = attr.creationTime().toInstant();
+				instants[i] = state(i).time;
 			}
 			return instants;
 		}
 
 		/**
-		 * Gets most recent change, shifts all history up.
+		 * @param index
+		 *            Index of state, lower index = newer states.
+		 * @return Value of the state.
+		 */
+		public synchronized byte[] get(int index) {
+			if (index < 0 || index >= length) {
+				throw new IndexOutOfBoundsException("State " + index + " of " + length);
+			}
+			// Find the nearest newer keyframe, then apply deltas back to the
+			// requested state.
+			int key = index;
+			while (!state(key).keyframe) {
+				key--;
+			}
+			byte[] value = state(key).data;
+			for (int i = key + 1; i <= index; i++) {
+				value = Delta.apply(value, state(i).data);
+			}
+			return value;
+		}
+
+		/**
+		 * Gets most recent change, removing it from the history.
 		 * 
-		 * @return Last value before change.
-		 * @throws IOException
-		 *             Thrown if the history file could not be read, or if
-		 *             history files could not be re-arranged.
+		 * @return Last value before change, {@code null} if there is no
+		 *         history.
 		 */
-		public byte[] pop() throws IOException {
-			// Path of most recent element
-			Path lastPath = getPath(name + HIST_POSTFIX + "0");
-			if (Files.exists(lastPath)) {
-				byte[] last = getFile(lastPath);
-				// Move histories up.
-				// Acts like a history stack.
-				for (int i = -1; i < length; i++) {
-					Path cur = i == -1 ? getPath(name) : getPath(name + HIST_POSTFIX + i);
-					Path newer = getPath(name + HIST_POSTFIX + (i + 1));
-					if (Files.exists(newer)) {
-						Files.move(newer, cur, StandardCopyOption.REPLACE_EXISTING);
-					}
+		public synchronized byte[] pop() {
+			if (length == 0) {
+				return null;
+			}
+			State last = state(0);
+			states[slot(0)] = null;
+			length--;
+			weight -= last.data.length;
+			if (length > 0) {
+				// The newest state is always kept in full
+				State next = state(0);
+				if (!next.keyframe) {
+					weight -= next.data.length;
+					next.data = Delta.apply(last.data, next.data);
+					next.keyframe = true;
+					weight += next.data.length;
 				}
-				// Decrease history count, return last
-				length--;
-				return last;
 			}
-			// No history to be found
-			return null;
+			return last.data;
 		}
 
 		/**
@@ -1079,25 +3229,121 @@ public class Input {
 		 * @throws IOException
 		 *             thrown if the value failed to push onto the stack.
 		 */
-		public void push(byte[] modified) throws IOException {
-			Path path = getPath(name);
-			for (int i = Math.min(length, HISTORY_LENGTH) + 1; i > 0; i--) {
-				Path cur = getPath(name + HIST_POSTFIX + i);
-				Path newer = getPath(name + HIST_POSTFIX + (i - 1));
-				// start of history
-				if (Files.exists(newer)) {
-					Files.move(newer, cur, StandardCopyOption.REPLACE_EXISTING);
+		public synchronized void push(byte[] modified) throws IOException {
+			byte[] current = getFile(name);
+			resize(ConfOther.instance().getHistoryDepth());
+			if (length > 0) {
+				// Store the previous state relative to the new one, unless it
+				// is a keyframe or the delta saves nothing.
+				State previous = state(0);
+				if (previous.sequence % KEYFRAME_INTERVAL != 0) {
+					byte[] delta = Delta.diff(current, previous.data);
+					if (delta.length < previous.data.length) {
+						weight += delta.length - previous.data.length;
+						previous.data = delta;
+						previous.keyframe = false;
+					}
 				}
 			}
-			// Update lastest history element.
-			Path pathNewHistory = getPath(name + HIST_POSTFIX + "0");
-			write(pathNewHistory, getFile(name));
-			// Update current value.
-			write(path, modified);
+			if (length == states.length) {
+				dropOldest();
+			}
+			states[slot(-1)] = new State(current, pushed++);
 			length++;
-			if (length > HISTORY_LENGTH) {
-				length = HISTORY_LENGTH;
+			weight += current.length;
+			// Update current value.
+			write(getPath(name), modified);
+		}
+
+		/**
+		 * Remove the oldest state. No other state depends on it.
+		 * 
+		 * @return Stored size of the removed state, in bytes.
+		 */
+		private synchronized long dropOldest() {
+			if (length == 0) {
+				return 0;
+			}
+			State oldest = states[head];
+			states[head] = null;
+			head = (head + 1) % states.length;
+			length--;
+			weight -= oldest.data.length;
+			return oldest.data.length;
+		}
+
+		/**
+		 * @return Creation time of the oldest state, {@code null} if there is
+		 *         no history.
+		 */
+		private synchronized Instant getOldestTime() {
+			return length == 0 ? null : states[head].time;
+		}
+
+		/**
+		 * @return Stored size of all states, in bytes.
+		 */
+		private synchronized long getWeight() {
+			return weight;
+		}
+
+		/**
+		 * Change the number of states the ring buffer holds, dropping the
+		 * oldest states if it shrinks.
+		 */
+		private void resize(int depth) {
+			if (depth == states.length) {
+				return;
+			}
+			while (length > depth) {
+				dropOldest();
+			}
+			State[] resized = new State[depth];
+			for (int i = 0; i < length; i++) {
+				resized[length - 1 - i] = state(i);
 			}
+			states = resized;
+			head = 0;
+		}
+
+		/**
+		 * @param index
+		 *            Index of state, lower index = newer states.
+		 * @return The state.
+		 */
+		private State state(int index) {
+			return states[slot(index)];
+		}
+
+		/**
+		 * @param index
+		 *            Index of state, lower index = newer states. {@code -1}
+		 *            for the slot following the newest state.
+		 * @return Index in the ring buffer.
+		 */
+		private int slot(int index) {
+			return (head + length - 1 - index) % states.length;
+		}
+	}
+
+	/**
+	 * Single save state.
+	 * 
+	 * @author Matt
+	 */
+	private static class State {
+		/**
+		 * Full value if a keyframe, otherwise the delta from the next newer
+		 * state.
+		 */
+		private byte[] data;
+		private boolean keyframe = true;
+		private final long sequence;
+		private final Instant time = Instant.now();
+
+		private State(byte[] data, long sequence) {
+			this.data = data;
+			this.sequence = sequence;
 		}
 	}
 
@@ -1111,7 +3357,15 @@ public class Input {
 	 * @param <V>
 	 */
 	public abstract class FileMap<K, V> implements Map<K, V> {
-		protected Map<K, V> cache = new HashMap<>();
+		protected final WeightedCache<K, V> cache = new WeightedCache<>(() -> ConfOther.instance()
+				.getCacheBudget(), this::weigh, this::isPinned);
+		/**
+		 * Per-key locks, striped so that unrelated keys rarely contend. Loads
+		 * and writes of a key are serialized so that a key is parsed once no
+		 * matter how many threads request it, and a write can not be undone
+		 * by a load of the outdated value.
+		 */
+		private final Striped<Lock> locks = Striped.lock(Runtime.getRuntime().availableProcessors() * 16);
 		protected final Set<K> keys;
 
 		public FileMap(Set<K> keys) {
@@ -1148,6 +3402,56 @@ public class Input {
 		 */
 		abstract byte[] castBytes(V value);
 
+		/**
+		 * @param value
+		 *            Cached value.
+		 * @return Estimated heap size of the value, in bytes.
+		 */
+		abstract long weigh(V value);
+
+		/**
+		 * @param key
+		 *            Key of cached value.
+		 * @return {@code true} if the value must not be evicted from the
+		 *         cache.
+		 */
+		boolean isPinned(K key) {
+			return false;
+		}
+
+		/**
+		 * Called after a value is written.
+		 * 
+		 * @param key
+		 *            Key of value.
+		 * @param value
+		 *            Written {@code byte[]} of the value.
+		 */
+		void updated(K key, byte[] value) {}
+
+		/**
+		 * Called before a value is written or removed.
+		 * 
+		 * @param key
+		 *            Key of value.
+		 */
+		void writing(K key) {}
+
+		/**
+		 * Called after a value is removed.
+		 * 
+		 * @param key
+		 *            Key of removed value.
+		 */
+		void removed(K key) {}
+
+		/**
+		 * @return Cache of parsed values, for hit, miss and eviction counts.
+		 */
+		public WeightedCache<K, V> getCache() {
+			return cache;
+		}
+
 		@Override
 		public int size() {
 			return keys.size();
@@ -1184,9 +3488,18 @@ public class Input {
 				return v;
 			}
 			// no cache, fetch from file system, add to cache.
+			// Only one thread loads a given key, others wait for its result.
+			Lock lock = locks.get(key);
+			lock.lock();
 			try {
-				v = castValue(getFile(key.toString()));
-				cache.put(castKey(key), v);
+				// another thread may have loaded it while this one waited
+				v = cache.peek(key);
+				if (v == null) {
+					v = castValue(getFile(key.toString()));
+					if (v != null) {
+						cache.put(castKey(key), v);
+					}
+				}
 				return v;
 			} catch (ClosedByInterruptException e) {
 				// happens when closing the editor window when runnon on an
@@ -1194,32 +3507,66 @@ public class Input {
 				// Ignore.
 			} catch (IOException e) {
 				Logging.warn(e);
+			} finally {
+				lock.unlock();
 			}
 			return null;
 		}
 
 		@Override
 		public V put(K key, V value) {
-			keys.add(key);
-			cache.remove(key);
+			// Convert before locking, regenerating classes is expensive.
+			putBytes(key, castBytes(value));
+			return value;
+		}
+
+		/**
+		 * Store an already converted value.
+		 * 
+		 * @param key
+		 *            Key of value.
+		 * @param bytes
+		 *            {@code byte[]} of the value.
+		 */
+		void putBytes(K key, byte[] bytes) {
+			Lock lock = locks.get(key);
+			lock.lock();
 			try {
-				write(getPath(key.toString()), castBytes(value));
+				writing(key);
+				write(getPath(key.toString()), bytes);
+				keys.add(key);
+				cache.remove(key);
+				updated(key, bytes);
 			} catch (IOException e) {
 				Logging.fatal(e);
+			} finally {
+				lock.unlock();
 			}
-			return value;
 		}
 
+		/**
+		 * Removed values are not loaded just to be returned.
+		 * 
+		 * @return Cached value of the key, or {@code null} if it was not
+		 *         cached.
+		 */
 		@Override
 		public V remove(Object key) {
 			String ks = key.toString();
-			V v = get(key);
+			V v = null;
+			Lock lock = locks.get(key);
+			lock.lock();
 			try {
+				writing(castKey(key));
+				v = cache.remove(key);
 				removeFile(ks);
 				keys.remove(ks);
 				history.remove(ks);
+				removed(castKey(key));
 			} catch (IOException e) {
 				return v;
+			} finally {
+				lock.unlock();
 			}
 			return v;
 		}
@@ -1245,38 +3592,61 @@ public class Input {
 			return keys;
 		}
 
+		/**
+		 * Values are loaded one at a time as the collection is iterated, so
+		 * a full scan only holds what the cache budget allows. Streams of the
+		 * collection split over the key set and can be run in parallel.
+		 */
 		@Override
 		public Collection<V> values() {
-			Set<V> s = new HashSet<>();
-			for (K key : keys) {
-				s.add(get(key));
-			}
-			return s;
+			return new AbstractCollection<V>() {
+				@Override
+				public Iterator<V> iterator() {
+					return Spliterators.iterator(spliterator());
+				}
+
+				@Override
+				public Spliterator<V> spliterator() {
+					return keys.stream().map(FileMap.this::get).filter(Objects::nonNull).spliterator();
+				}
+
+				@Override
+				public int size() {
+					return keys.size();
+				}
+			};
 		}
 
+		/**
+		 * Entries are loaded one at a time as the set is iterated, see
+		 * {@link #values()}.
+		 */
 		@Override
 		public Set<Entry<K, V>> entrySet() {
-			Set<Entry<K, V>> s = new HashSet<>();
-			for (final K key : keys) {
-				final V value = get(key);
-				s.add(new Entry<K, V>() {
-					@Override
-					public K getKey() {
-						return key;
-					}
+			return new AbstractSet<Entry<K, V>>() {
+				@Override
+				public Iterator<Entry<K, V>> iterator() {
+					return Spliterators.iterator(spliterator());
+				}
 
-					@Override
-					public V getValue() {
-						return value;
-					}
+				@Override
+				public Spliterator<Entry<K, V>> spliterator() {
+					return keys.stream().map(this::entry).filter(Objects::nonNull).spliterator();
+				}
+
+				@Override
+				public int size() {
+					return keys.size();
+				}
 
-					@Override
-					public V setValue(V value) {
-						throw new UnsupportedOperationException();
+				private Entry<K, V> entry(K key) {
+					V value = get(key);
+					if (value == null) {
+						return null;
 					}
-				});
-			}
-			return s;
+					return new SimpleImmutableEntry<>(key, value);
+				}
+			};
 		}
 	}
 
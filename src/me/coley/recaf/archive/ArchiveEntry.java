@@ -0,0 +1,168 @@
+package me.coley.recaf.archive;
+
+/**
+ * Central directory record of an entry in an {@link ArchiveIndex}. Holds just
+ * enough to locate and inflate the entry's content on demand.
+ *
+ * @author Matt
+ */
+public class ArchiveEntry {
+	/**
+	 * Compression method for uncompressed entries.
+	 */
+	public static final int STORED = 0;
+	/**
+	 * Compression method for deflated entries.
+	 */
+	public static final int DEFLATED = 8;
+	private final ArchiveIndex archive;
+	private final String name;
+	private final int method;
+	private final int flags;
+	private final int crc;
+	private final int dosTime;
+	private final long compressedSize;
+	private final long size;
+	private final long headerOffset;
+	private final int versionMadeBy;
+	private final int externalAttributes;
+	/**
+	 * Offset of the entry's central directory record.
+	 */
+	private final int recordOffset;
+	/**
+	 * Offset of the entry's data. Resolved from the local header on first
+	 * access, {@code -1} until then.
+	 */
+	private volatile long dataOffset = -1;
+
+	ArchiveEntry(ArchiveIndex archive, String name, int method, int flags, int crc, int dosTime,
+			long compressedSize, long size, long headerOffset, int versionMadeBy, int externalAttributes,
+			int recordOffset) {
+		this.archive = archive;
+		this.name = name;
+		this.method = method;
+		this.flags = flags;
+		this.crc = crc;
+		this.dosTime = dosTime;
+		this.compressedSize = compressedSize;
+		this.size = size;
+		this.headerOffset = headerOffset;
+		this.versionMadeBy = versionMadeBy;
+		this.externalAttributes = externalAttributes;
+		this.recordOffset = recordOffset;
+	}
+
+	/**
+	 * @return Entry name.
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * @return Archive holding the entry.
+	 */
+	public ArchiveIndex getArchive() {
+		return archive;
+	}
+
+	/**
+	 * @return Entry name, prefixed by the path of the archive holding it if
+	 *         that archive is nested.
+	 * @see ArchiveIndex#getPath()
+	 */
+	public String getPath() {
+		return archive.getPath() == null ? name : archive.getPath() + ArchiveIndex.SEPARATOR + name;
+	}
+
+	/**
+	 * @return Compression method, {@link #STORED} or {@link #DEFLATED}.
+	 */
+	public int getMethod() {
+		return method;
+	}
+
+	/**
+	 * @return General purpose bit flags.
+	 */
+	public int getFlags() {
+		return flags;
+	}
+
+	/**
+	 * @return CRC-32 of the uncompressed content.
+	 */
+	public int getCrc() {
+		return crc;
+	}
+
+	/**
+	 * @return Last modification time, in MS-DOS format <i>(Date in the high
+	 *         word, time in the low word)</i>.
+	 */
+	public int getDosTime() {
+		return dosTime;
+	}
+
+	/**
+	 * @return Size of the compressed content.
+	 */
+	public long getCompressedSize() {
+		return compressedSize;
+	}
+
+	/**
+	 * @return Size of the uncompressed content.
+	 */
+	public long getSize() {
+		return size;
+	}
+
+	/**
+	 * @return Offset of the entry's local header in the archive.
+	 */
+	public long getHeaderOffset() {
+		return headerOffset;
+	}
+
+	/**
+	 * @return Version made by. The high byte identifies the host system, which
+	 *         determines the meaning of the {@link #getExternalAttributes()
+	 *         external attributes}.
+	 */
+	public int getVersionMadeBy() {
+		return versionMadeBy;
+	}
+
+	/**
+	 * @return External file attributes, such as unix permissions.
+	 */
+	public int getExternalAttributes() {
+		return externalAttributes;
+	}
+
+	/**
+	 * @return {@code true} if the entry is a directory.
+	 */
+	public boolean isDirectory() {
+		return name.endsWith("/");
+	}
+
+	int getRecordOffset() {
+		return recordOffset;
+	}
+
+	long getDataOffset() {
+		return dataOffset;
+	}
+
+	void setDataOffset(long dataOffset) {
+		this.dataOffset = dataOffset;
+	}
+
+	@Override
+	public String toString() {
+		return name;
+	}
+}
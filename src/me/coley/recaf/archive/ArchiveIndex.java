@@ -0,0 +1,578 @@
+package me.coley.recaf.archive;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+/**
+ * Index of a zip archive's central directory, backed by a read-only mapping
+ * of the archive. Entries are only inflated when their content is
+ * {@link #read(ArchiveEntry) requested}, so an index costs little more than
+ * its {@link ArchiveEntry entry records} no matter how large the archive is.
+ * <hr>
+ * Archives stored inside the archive can be {@link #openNested(ArchiveEntry)
+ * opened} in place, without extracting them to disk.
+ * <hr>
+ * Thread safe, all reads use independent views of the mapped buffer.
+ *
+ * @author Matt
+ */
+public class ArchiveIndex {
+	/**
+	 * Separator between the path of a nested archive and the names of its
+	 * entries.
+	 */
+	public static final String SEPARATOR = "!/";
+	private static final int SIG_LOCAL = 0x04034b50;
+	private static final int SIG_CENTRAL = 0x02014b50;
+	private static final int SIG_END = 0x06054b50;
+	private static final int SIG_END64 = 0x06064b50;
+	private static final int SIG_END64_LOCATOR = 0x07064b50;
+	private static final int END_SIZE = 22;
+	private static final int LOCAL_SIZE = 30;
+	private static final int CENTRAL_SIZE = 46;
+	private static final int ZIP64_EXTRA = 0x0001;
+	private static final long ZIP64_MAGIC = 0xFFFFFFFFL;
+	/**
+	 * Flag bit for encrypted entries.
+	 */
+	private static final int FLAG_ENCRYPTED = 0x1;
+	/**
+	 * Size of chunks passed to and from the inflater.
+	 */
+	private static final int CHUNK_SIZE = 64 * 1024;
+	private final ByteBuffer buffer;
+	/**
+	 * Entry holding this archive, {@code null} if this is not a nested
+	 * archive.
+	 */
+	private final ArchiveEntry source;
+	private final List<ArchiveEntry> entries = new ArrayList<>();
+	private final Map<String, ArchiveEntry> lookup = new HashMap<>();
+	/**
+	 * Offset of the first central directory record.
+	 */
+	private int directoryStart;
+	/**
+	 * File the archive was mapped from, {@code null} if not opened from a
+	 * file.
+	 */
+	private File file;
+	/**
+	 * Modification time of the file when it was mapped.
+	 */
+	private long fileModified;
+
+	/**
+	 * @param buffer
+	 *            Buffer holding the complete archive.
+	 * @throws IOException
+	 *             Thrown if the central directory could not be read.
+	 */
+	public ArchiveIndex(ByteBuffer buffer) throws IOException {
+		this(buffer, null);
+	}
+
+	/**
+	 * @param buffer
+	 *            Buffer holding the complete archive.
+	 * @param source
+	 *            Entry holding the archive, {@code null} if this is not a
+	 *            nested archive.
+	 * @throws IOException
+	 *             Thrown if the central directory could not be read.
+	 */
+	private ArchiveIndex(ByteBuffer buffer, ArchiveEntry source) throws IOException {
+		this.buffer = buffer.slice().order(ByteOrder.LITTLE_ENDIAN);
+		this.source = source;
+		try {
+			readCentralDirectory();
+		} catch (IndexOutOfBoundsException | IllegalArgumentException e) {
+			throw new ZipException("Malformed central directory");
+		}
+	}
+
+	/**
+	 * Map the given archive and index its central directory.
+	 *
+	 * @param file
+	 *            Archive to open.
+	 * @return Index of the archive.
+	 * @throws IOException
+	 *             Thrown if the file could not be mapped, or is not a valid
+	 *             archive.
+	 */
+	public static ArchiveIndex open(File file) throws IOException {
+		// Taken before mapping, so a write while mapping shows as a change
+		long modified = file.lastModified();
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			long size = channel.size();
+			if (size > Integer.MAX_VALUE) {
+				throw new IOException("Archive exceeds the 2GB mapping limit: " + file.getName());
+			}
+			// The mapping stays valid after the channel is closed.
+			ArchiveIndex index = new ArchiveIndex(channel.map(FileChannel.MapMode.READ_ONLY, 0, size));
+			index.file = file;
+			index.fileModified = modified;
+			return index;
+		}
+	}
+
+	/**
+	 * A file rewritten in place shows through the mapping, so entries would
+	 * be read at offsets and checked against CRCs of the old content.
+	 *
+	 * @return {@code true} if the file the archive, or its outermost archive,
+	 *         was mapped from has changed on disk since.
+	 */
+	public boolean isChanged() {
+		if (source != null) {
+			return source.getArchive().isChanged();
+		}
+		return file != null && (file.length() != buffer.limit() || file.lastModified() != fileModified);
+	}
+
+	/**
+	 * Open an archive stored in this archive. Stored <i>(uncompressed)</i>
+	 * archives, such as the libraries of a Spring Boot jar, are read directly
+	 * from this archive's buffer. Compressed archives are inflated to memory
+	 * outside of the heap.
+	 *
+	 * @param entry
+	 *            Entry holding the nested archive.
+	 * @return Index of the nested archive.
+	 * @throws IOException
+	 *             Thrown if the entry could not be read, or is not a valid
+	 *             archive.
+	 */
+	public ArchiveIndex openNested(ArchiveEntry entry) throws IOException {
+		ByteBuffer content;
+		if (entry.getMethod() == ArchiveEntry.STORED) {
+			// Entries of the nested archive are CRC checked as they are read.
+			checkReadable(entry);
+			content = getRaw(entry);
+		} else {
+			content = ByteBuffer.allocateDirect(checkReadable(entry));
+			extract(entry, content);
+			content.flip();
+		}
+		return new ArchiveIndex(content, entry);
+	}
+
+	/**
+	 * @return Entry holding this archive, {@code null} if this is not a
+	 *         nested archive.
+	 */
+	public ArchiveEntry getSource() {
+		return source;
+	}
+
+	/**
+	 * @return Path of the archive within its outermost archive, {@code null}
+	 *         if this is not a nested archive.
+	 */
+	public String getPath() {
+		return source == null ? null : source.getPath();
+	}
+
+	/**
+	 * @return Entries in central directory order.
+	 */
+	public List<ArchiveEntry> getEntries() {
+		return Collections.unmodifiableList(entries);
+	}
+
+	/**
+	 * @param name
+	 *            Entry name.
+	 * @return Entry of the given name, or {@code null} if no such entry exists.
+	 */
+	public ArchiveEntry getEntry(String name) {
+		return lookup.get(name);
+	}
+
+	/**
+	 * Digest of the central directory and end records. These hold the name,
+	 * offset, size and CRC of every entry, so the digest changes whenever the
+	 * content of any entry does, without reading the entries themselves.
+	 *
+	 * @return Digest of the archive's directory, as a hex string.
+	 */
+	public String getDigest() {
+		MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			// Every Java platform is required to support SHA-256
+			throw new IllegalStateException(e);
+		}
+		ByteBuffer view = buffer.duplicate();
+		view.position(directoryStart);
+		digest.update(view);
+		digest.update(ByteBuffer.allocate(8).putLong(0, buffer.limit()));
+		StringBuilder sb = new StringBuilder();
+		for (byte b : digest.digest()) {
+			sb.append(String.format("%02x", b));
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Inflate the content of an entry.
+	 *
+	 * @param entry
+	 *            Entry to read.
+	 * @return Uncompressed content of the entry.
+	 * @throws IOException
+	 *             Thrown if the entry uses an unsupported compression method, or
+	 *             its content is corrupt.
+	 */
+	public byte[] read(ArchiveEntry entry) throws IOException {
+		byte[] data = new byte[checkReadable(entry)];
+		extract(entry, ByteBuffer.wrap(data));
+		return data;
+	}
+
+	/**
+	 * @param entry
+	 *            Entry to read.
+	 * @return View of the entry's compressed content.
+	 * @throws IOException
+	 *             Thrown if the local header of the entry is invalid.
+	 */
+	public ByteBuffer getRaw(ArchiveEntry entry) throws IOException {
+		long offset = entry.getDataOffset();
+		try {
+			if (offset < 0) {
+				int header = localHeader(entry);
+				int nameLen = u2(header + 26);
+				int extraLen = u2(header + 28);
+				offset = header + LOCAL_SIZE + nameLen + extraLen;
+				entry.setDataOffset(offset);
+			}
+			ByteBuffer view = buffer.duplicate();
+			int start = toInt(offset);
+			view.limit(toInt(offset + entry.getCompressedSize()));
+			view.position(start);
+			return view.slice();
+		} catch (InternalError e) {
+			// Raised when the mapped file has been truncated underneath us.
+			throw new IOException("Archive changed while reading: " + entry.getName(), e);
+		}
+	}
+
+	/**
+	 * @param entry
+	 *            Entry to read.
+	 * @return Extra field of the entry's local header, without zip64 fields.
+	 * @throws IOException
+	 *             Thrown if the local header of the entry is invalid.
+	 */
+	public byte[] getLocalExtra(ArchiveEntry entry) throws IOException {
+		try {
+			int header = localHeader(entry);
+			return extra(header + LOCAL_SIZE + u2(header + 26), u2(header + 28));
+		} catch (InternalError e) {
+			throw new IOException("Archive changed while reading: " + entry.getName(), e);
+		}
+	}
+
+	/**
+	 * @param entry
+	 *            Entry to read.
+	 * @return Extra field of the entry's central directory record, without
+	 *         zip64 fields.
+	 * @throws IOException
+	 *             Thrown if the record could not be read.
+	 */
+	public byte[] getCentralExtra(ArchiveEntry entry) throws IOException {
+		int pos = entry.getRecordOffset();
+		try {
+			return extra(pos + CENTRAL_SIZE + u2(pos + 28), u2(pos + 30));
+		} catch (InternalError e) {
+			throw new IOException("Archive changed while reading: " + entry.getName(), e);
+		}
+	}
+
+	/**
+	 * @param entry
+	 *            Entry to locate.
+	 * @return Offset of the entry's local header.
+	 * @throws ZipException
+	 *             Thrown if the local header of the entry is invalid.
+	 */
+	private int localHeader(ArchiveEntry entry) throws ZipException {
+		int header = toInt(entry.getHeaderOffset());
+		if (header + LOCAL_SIZE > buffer.limit() || buffer.getInt(header) != SIG_LOCAL) {
+			throw new ZipException("Invalid local header: " + entry.getName());
+		}
+		return header;
+	}
+
+	/**
+	 * @param start
+	 *            Offset of an extra field.
+	 * @param len
+	 *            Length of the extra field.
+	 * @return Copy of the extra field without zip64 fields, which only apply
+	 *         to the sizes and offsets of this archive.
+	 * @throws ZipException
+	 *             Thrown if the extra field is out of bounds.
+	 */
+	private byte[] extra(int start, int len) throws ZipException {
+		if (start + len > buffer.limit()) {
+			throw new ZipException("Extra field out of bounds");
+		}
+		ByteBuffer out = ByteBuffer.allocate(len);
+		int pos = start;
+		int end = start + len;
+		while (pos + 4 <= end) {
+			int size = 4 + u2(pos + 2);
+			if (pos + size > end) {
+				break;
+			}
+			if (u2(pos) != ZIP64_EXTRA) {
+				ByteBuffer field = buffer.duplicate();
+				field.limit(pos + size);
+				field.position(pos);
+				out.put(field);
+			}
+			pos += size;
+		}
+		return Arrays.copyOf(out.array(), out.position());
+	}
+
+	/**
+	 * @param entry
+	 *            Entry to read.
+	 * @return Uncompressed size of the entry.
+	 * @throws ZipException
+	 *             Thrown if the entry can not be read.
+	 */
+	private static int checkReadable(ArchiveEntry entry) throws ZipException {
+		if ((entry.getFlags() & FLAG_ENCRYPTED) != 0) {
+			throw new ZipException("Encrypted entries are not supported: " + entry.getName());
+		}
+		if (entry.getSize() > Integer.MAX_VALUE) {
+			throw new ZipException("Entry too large: " + entry.getName());
+		}
+		return (int) entry.getSize();
+	}
+
+	/**
+	 * Write the uncompressed content of an entry to the given buffer and
+	 * check it against the entry's CRC.
+	 *
+	 * @param entry
+	 *            Entry to read.
+	 * @param out
+	 *            Buffer with room for the uncompressed content.
+	 * @throws IOException
+	 *             Thrown if the entry uses an unsupported compression method,
+	 *             or its content is corrupt.
+	 */
+	private void extract(ArchiveEntry entry, ByteBuffer out) throws IOException {
+		int start = out.position();
+		try {
+			ByteBuffer raw = getRaw(entry);
+			switch (entry.getMethod()) {
+			case ArchiveEntry.STORED:
+				if (raw.remaining() != entry.getSize()) {
+					throw new ZipException("Size mismatch: " + entry.getName());
+				}
+				out.put(raw);
+				break;
+			case ArchiveEntry.DEFLATED:
+				inflate(entry, raw, out);
+				break;
+			default:
+				throw new ZipException("Unsupported compression method " + entry.getMethod() + ": " + entry
+						.getName());
+			}
+		} catch (InternalError e) {
+			// Raised when the mapped file has been truncated underneath us.
+			throw new IOException("Archive changed while reading: " + entry.getName(), e);
+		}
+		ByteBuffer written = out.duplicate();
+		written.flip();
+		written.position(start);
+		CRC32 crc = new CRC32();
+		crc.update(written);
+		if ((int) crc.getValue() != entry.getCrc()) {
+			throw new ZipException("CRC mismatch: " + entry.getName());
+		}
+	}
+
+	private void inflate(ArchiveEntry entry, ByteBuffer raw, ByteBuffer out) throws IOException {
+		// Java 8's Inflater only accepts arrays, so feed and drain it in
+		// chunks. Heap arrays are written to directly.
+		byte[] input = new byte[Math.min(CHUNK_SIZE, raw.remaining())];
+		byte[] chunk = out.hasArray() ? null : new byte[Math.min(CHUNK_SIZE, out.remaining())];
+		Inflater inflater = new Inflater(true);
+		try {
+			while (out.hasRemaining()) {
+				if (inflater.needsInput()) {
+					if (!raw.hasRemaining()) {
+						throw new ZipException("Unexpected end of entry: " + entry.getName());
+					}
+					int len = Math.min(input.length, raw.remaining());
+					raw.get(input, 0, len);
+					inflater.setInput(input, 0, len);
+				}
+				int read;
+				if (chunk == null) {
+					read = inflater.inflate(out.array(), out.arrayOffset() + out.position(), out.remaining());
+					out.position(out.position() + read);
+				} else {
+					read = inflater.inflate(chunk, 0, Math.min(chunk.length, out.remaining()));
+					out.put(chunk, 0, read);
+				}
+				if (read == 0 && (inflater.finished() || inflater.needsDictionary())) {
+					throw new ZipException("Unexpected end of entry: " + entry.getName());
+				}
+			}
+		} catch (DataFormatException e) {
+			throw new ZipException("Invalid deflate data: " + entry.getName());
+		} finally {
+			inflater.end();
+		}
+	}
+
+	private void readCentralDirectory() throws IOException {
+		int end = findEnd();
+		long count = u2(end + 10);
+		long cdSize = u4(end + 12);
+		long cdOffset = u4(end + 16);
+		// Zip64 archives store the real values in a second end record,
+		// located via the record directly before the standard one.
+		int recordStart = end;
+		if (end >= 20 && buffer.getInt(end - 20) == SIG_END64_LOCATOR) {
+			long end64 = buffer.getLong(end - 12);
+			if (end64 < 0 || end64 + 4 > buffer.limit() || buffer.getInt((int) end64) != SIG_END64) {
+				// Record offset is off by any prepended data, assume the
+				// record has no extensible data and sits before the locator.
+				end64 = end - 20 - 56;
+			}
+			if (end64 >= 0 && buffer.getInt((int) end64) == SIG_END64) {
+				int pos = (int) end64;
+				count = buffer.getLong(pos + 32);
+				cdSize = buffer.getLong(pos + 40);
+				cdOffset = buffer.getLong(pos + 48);
+				recordStart = pos;
+			}
+		}
+		// Data may be prepended to the archive (launcher scripts,
+		// self-extractors), in which case all recorded offsets are off by the
+		// size of that data.
+		long cdStart = recordStart - cdSize;
+		long shift = cdStart - cdOffset;
+		if (shift < 0) {
+			shift = 0;
+			cdStart = cdOffset;
+		}
+		int pos = toInt(cdStart);
+		directoryStart = pos;
+		for (long i = 0; i < count; i++) {
+			if (buffer.getInt(pos) != SIG_CENTRAL) {
+				throw new ZipException("Invalid central directory header at entry " + i);
+			}
+			int flags = u2(pos + 8);
+			int method = u2(pos + 10);
+			int dosTime = buffer.getInt(pos + 12);
+			int crc = buffer.getInt(pos + 16);
+			long compressedSize = u4(pos + 20);
+			long size = u4(pos + 24);
+			int nameLen = u2(pos + 28);
+			int extraLen = u2(pos + 30);
+			int commentLen = u2(pos + 32);
+			long headerOffset = u4(pos + 42);
+			String name = string(pos + CENTRAL_SIZE, nameLen);
+			// Zip64 extra holds the values that overflowed, in order.
+			int extra = pos + CENTRAL_SIZE + nameLen;
+			int extraEnd = extra + extraLen;
+			while (extra + 4 <= extraEnd) {
+				int id = u2(extra);
+				int len = u2(extra + 2);
+				if (id == ZIP64_EXTRA) {
+					int field = extra + 4;
+					if (size == ZIP64_MAGIC) {
+						size = buffer.getLong(field);
+						field += 8;
+					}
+					if (compressedSize == ZIP64_MAGIC) {
+						compressedSize = buffer.getLong(field);
+						field += 8;
+					}
+					if (headerOffset == ZIP64_MAGIC) {
+						headerOffset = buffer.getLong(field);
+					}
+					break;
+				}
+				extra += 4 + len;
+			}
+			ArchiveEntry entry = new ArchiveEntry(this, name, method, flags, crc, dosTime, compressedSize, size,
+					headerOffset + shift, u2(pos + 4), buffer.getInt(pos + 38), pos);
+			entries.add(entry);
+			lookup.put(name, entry);
+			pos += CENTRAL_SIZE + nameLen + extraLen + commentLen;
+		}
+	}
+
+	/**
+	 * @return Offset of the end of central directory record.
+	 * @throws ZipException
+	 *             Thrown if no record could be found.
+	 */
+	private int findEnd() throws ZipException {
+		int last = buffer.limit() - END_SIZE;
+		// The record is followed by a comment of up to 64k.
+		int min = Math.max(0, last - 0xFFFF);
+		for (int pos = last; pos >= min; pos--) {
+			if (buffer.getInt(pos) == SIG_END && pos + END_SIZE + u2(pos + 20) <= buffer.limit()) {
+				return pos;
+			}
+		}
+		throw new ZipException("No end of central directory record, not a zip archive");
+	}
+
+	private String string(int pos, int len) {
+		byte[] b = new byte[len];
+		ByteBuffer view = buffer.duplicate();
+		view.position(pos);
+		view.get(b);
+		// Names without the utf-8 flag are officially cp437, but like ZipFile
+		// we read them as utf-8 since that is what Java tooling writes.
+		return new String(b, StandardCharsets.UTF_8);
+	}
+
+	private int u2(int pos) {
+		return buffer.getShort(pos) & 0xFFFF;
+	}
+
+	private long u4(int pos) {
+		return buffer.getInt(pos) & 0xFFFFFFFFL;
+	}
+
+	private static int toInt(long offset) throws ZipException {
+		if (offset < 0 || offset > Integer.MAX_VALUE) {
+			throw new ZipException("Offset out of range: " + offset);
+		}
+		return (int) offset;
+	}
+}
@@ -0,0 +1,340 @@
+package me.coley.recaf.archive;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Predicate;
+
+import me.coley.recaf.Logging;
+import me.coley.recaf.util.Threads;
+
+/**
+ * Staged loader for archive contents. The load is split into the following
+ * stages:
+ * <ol>
+ * <li>{@link Stage#DIRECTORY}: Map the archive and read the central
+ * directory.</li>
+ * <li>{@link Stage#INFLATE}: Inflate entries that need their content checked,
+ * in parallel.</li>
+ * <li>{@link Stage#PROCESS}: Validate and name entries, in parallel.</li>
+ * <li>{@link Stage#PUBLISH}: Publish results to the store, on the calling
+ * thread.</li>
+ * </ol>
+ * The worker threads and the publisher are connected by a bounded queue. If
+ * publishing falls behind the workers block, so only a handful of inflated
+ * entries are held in memory at any time regardless of the archive's size.
+ * Entries that do not need to be inspected are not inflated at all.
+ *
+ * @author Matt
+ */
+public class ArchiveLoader {
+	/**
+	 * Default number of processed entries that can wait to be published.
+	 */
+	public static final int DEFAULT_QUEUE_SIZE = 256;
+	/**
+	 * Marker for entries that were dropped by the processor.
+	 */
+	private static final Object SKIPPED = new Object();
+	/**
+	 * Time spent in each stage, in nanoseconds. Parallel stages sum the time
+	 * of all worker threads.
+	 */
+	private final Map<Stage, LongAdder> times = new EnumMap<>(Stage.class);
+	/**
+	 * Archive to load.
+	 */
+	private final File file;
+	/**
+	 * Capacity of the queue between the workers and the publisher.
+	 */
+	private final int queueSize;
+	/**
+	 * Wall-clock duration of all loads, in nanoseconds.
+	 */
+	private long total;
+
+	public ArchiveLoader(File file) {
+		this(file, DEFAULT_QUEUE_SIZE);
+	}
+
+	public ArchiveLoader(File file, int queueSize) {
+		this.file = file;
+		this.queueSize = Math.max(1, queueSize);
+		for (Stage stage : Stage.values()) {
+			times.put(stage, new LongAdder());
+		}
+	}
+
+	/**
+	 * Load the archive.
+	 *
+	 * @param inflate
+	 *            Filter for entries whose content must be passed to the
+	 *            processor. Other entries are passed without content.
+	 * @param processor
+	 *            Validates and names entries. Called from worker threads.
+	 * @param publisher
+	 *            Receives processed entries. Called from the current thread.
+	 * @return Index of the archive, backing the entries passed to the
+	 *         processor.
+	 * @throws IOException
+	 *             Thrown if the archive could not be read.
+	 */
+	public <T> ArchiveIndex load(Predicate<ArchiveEntry> inflate, Processor<T> processor, Publisher<T> publisher)
+			throws IOException {
+		// Stage: read central directory
+		long time = System.nanoTime();
+		ArchiveIndex index = ArchiveIndex.open(file);
+		record(Stage.DIRECTORY, time);
+		total += System.nanoTime() - time;
+		load(index, inflate, processor, publisher);
+		return index;
+	}
+
+	/**
+	 * Load an archive whose central directory has already been read. Stage
+	 * times accumulate over successive loads, so nested archives can be loaded
+	 * through the same loader as their parent.
+	 *
+	 * @param index
+	 *            Index of the archive.
+	 * @param inflate
+	 *            Filter for entries whose content must be passed to the
+	 *            processor. Other entries are passed without content.
+	 * @param processor
+	 *            Validates and names entries. Called from worker threads.
+	 * @param publisher
+	 *            Receives processed entries. Called from the current thread.
+	 * @throws IOException
+	 *             Thrown if the archive could not be read.
+	 */
+	public <T> void load(ArchiveIndex index, Predicate<ArchiveEntry> inflate, Processor<T> processor,
+			Publisher<T> publisher) throws IOException {
+		long start = System.nanoTime();
+		List<ArchiveEntry> entries = new ArrayList<>();
+		for (ArchiveEntry entry : index.getEntries()) {
+			// skip directories
+			if (!entry.isDirectory()) {
+				entries.add(entry);
+			}
+		}
+		record(Stage.DIRECTORY, start);
+		total += System.nanoTime() - start;
+		load(entries, inflate, processor, publisher);
+	}
+
+	/**
+	 * Load a selection of entries, which may belong to different archives.
+	 *
+	 * @param entries
+	 *            Entries to load.
+	 * @param inflate
+	 *            Filter for entries whose content must be passed to the
+	 *            processor. Other entries are passed without content.
+	 * @param processor
+	 *            Validates and names entries. Called from worker threads.
+	 * @param publisher
+	 *            Receives processed entries. Called from the current thread.
+	 * @throws IOException
+	 *             Thrown if the archive could not be read.
+	 */
+	@SuppressWarnings("unchecked")
+	public <T> void load(Collection<ArchiveEntry> entries, Predicate<ArchiveEntry> inflate,
+			Processor<T> processor, Publisher<T> publisher) throws IOException {
+		long start = System.nanoTime();
+		// Stage: inflate + process, on worker threads
+		BlockingQueue<Object> queue = new ArrayBlockingQueue<>(queueSize);
+		ExecutorService pool = Threads.pool(Threads.PoolKind.LOGIC);
+		try {
+			for (ArchiveEntry entry : entries) {
+				pool.execute(() -> {
+					Object result = null;
+					try {
+						byte[] value = null;
+						if (inflate.test(entry)) {
+							long t = System.nanoTime();
+							value = entry.getArchive().read(entry);
+							record(Stage.INFLATE, t);
+						}
+						long t = System.nanoTime();
+						result = processor.process(entry, value);
+						record(Stage.PROCESS, t);
+					} catch (IOException e) {
+						Logging.warn(String.format("Could not read archive entry: '%s'", entry.getPath()));
+					} catch (Exception e) {
+						Logging.warn(String.format("Could not process archive entry: '%s'", entry.getPath()));
+						Logging.warn(e);
+					} catch (Throwable t) {
+						// Errors fail the load, rather than leaving the
+						// publisher waiting on this entry.
+						result = new Failure(entry, t);
+					} finally {
+						try {
+							queue.put(result == null ? SKIPPED : result);
+						} catch (InterruptedException e) {
+							// Load was aborted, the publisher is no longer
+							// waiting on this entry.
+							Thread.currentThread().interrupt();
+						}
+					}
+				});
+			}
+			pool.shutdown();
+			// Stage: publish, on this thread
+			for (int i = 0; i < entries.size(); i++) {
+				Object result = queue.take();
+				if (result == SKIPPED) {
+					continue;
+				}
+				if (result instanceof Failure) {
+					throw ((Failure) result).rethrow();
+				}
+				long t = System.nanoTime();
+				publisher.publish((T) result);
+				record(Stage.PUBLISH, t);
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while loading: " + file.getName(), e);
+		} finally {
+			// Unblock any workers still waiting on the queue if the
+			// publisher failed.
+			pool.shutdownNow();
+			awaitTermination(pool);
+		}
+		total += System.nanoTime() - start;
+	}
+
+	/**
+	 * Log the time spent in each stage of all loads.
+	 */
+	public void logTimings() {
+		Logging.info(String.format("Loaded '%s' in %dms", file.getName(), ms(total)));
+		for (Stage stage : Stage.values()) {
+			Logging.info(String.format("%s: %dms", stage.display, ms(getTime(stage))), 1);
+		}
+	}
+
+	/**
+	 * @param stage
+	 *            Load stage.
+	 * @return Time spent in the stage, in nanoseconds. Parallel stages sum the
+	 *         time of all worker threads.
+	 */
+	public long getTime(Stage stage) {
+		return times.get(stage).sum();
+	}
+
+	/**
+	 * @return Wall-clock duration of all loads, in nanoseconds.
+	 */
+	public long getTotalTime() {
+		return total;
+	}
+
+	private void record(Stage stage, long start) {
+		times.get(stage).add(System.nanoTime() - start);
+	}
+
+	/**
+	 * Error thrown while loading an entry, passed to the publisher.
+	 *
+	 * @author Matt
+	 */
+	private static class Failure {
+		private final ArchiveEntry entry;
+		private final Throwable error;
+
+		private Failure(ArchiveEntry entry, Throwable error) {
+			this.entry = entry;
+			this.error = error;
+		}
+
+		/**
+		 * @return Exception to throw from the publisher. Errors the VM cannot
+		 *         recover from are thrown as they are.
+		 */
+		private IOException rethrow() {
+			if (error instanceof VirtualMachineError && !(error instanceof StackOverflowError)) {
+				throw (VirtualMachineError) error;
+			}
+			return new IOException(String.format("Failed to load archive entry: '%s'", entry.getPath()), error);
+		}
+	}
+
+	private static long ms(long nanos) {
+		return TimeUnit.NANOSECONDS.toMillis(nanos);
+	}
+
+	private static void awaitTermination(ExecutorService pool) {
+		try {
+			pool.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Validates and names entries.
+	 *
+	 * @param <T>
+	 *            Type of processed entry.
+	 */
+	public interface Processor<T> {
+		/**
+		 * @param entry
+		 *            Archive entry.
+		 * @param value
+		 *            Inflated entry content, {@code null} if the entry was not
+		 *            selected for inflation.
+		 * @return Processed entry, or {@code null} to skip the entry.
+		 * @throws Exception
+		 *             Thrown if the entry could not be processed. The entry is
+		 *             skipped.
+		 */
+		T process(ArchiveEntry entry, byte[] value) throws Exception;
+	}
+
+	/**
+	 * Receives processed entries.
+	 *
+	 * @param <T>
+	 *            Type of processed entry.
+	 */
+	public interface Publisher<T> {
+		/**
+		 * @param entry
+		 *            Processed entry.
+		 * @throws IOException
+		 *             Thrown if the entry could not be stored. Aborts the
+		 *             load.
+		 */
+		void publish(T entry) throws IOException;
+	}
+
+	/**
+	 * Stages of the load.
+	 *
+	 * @author Matt
+	 */
+	public enum Stage {
+		DIRECTORY("Index central directory"), INFLATE("Inflate entries"), PROCESS("Validate entries"), PUBLISH(
+				"Publish entries");
+
+		private final String display;
+
+		Stage(String display) {
+			this.display = display;
+		}
+	}
+}
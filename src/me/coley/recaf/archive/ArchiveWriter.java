@@ -0,0 +1,372 @@
+package me.coley.recaf.archive;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.ZipException;
+
+/**
+ * Writer of zip archives. Besides compressing new content, entries of an
+ * {@link ArchiveIndex} can be {@link #copy(String, ArchiveEntry) copied} as
+ * they are stored: their compressed bytes, CRC and sizes go to the output
+ * as-is, so unchanged entries cost a copy rather than an inflate and a
+ * deflate.
+ * <hr>
+ * New content can be {@link #prepare(byte[], boolean) prepared} on any
+ * thread, so entries are compressed in parallel while the writing thread only
+ * appends them in order.
+ * <hr>
+ * Zip64 records are written when the archive has too many entries, or grows
+ * too large, for the standard records.
+ *
+ * @author Matt
+ */
+public class ArchiveWriter implements Closeable {
+	private static final int SIG_LOCAL = 0x04034b50;
+	private static final int SIG_CENTRAL = 0x02014b50;
+	private static final int SIG_END = 0x06054b50;
+	private static final int SIG_END64 = 0x06064b50;
+	private static final int SIG_END64_LOCATOR = 0x07064b50;
+	private static final int LOCAL_SIZE = 30;
+	private static final int CENTRAL_SIZE = 46;
+	private static final int END_SIZE = 22;
+	private static final int END64_SIZE = 56;
+	private static final int END64_LOCATOR_SIZE = 20;
+	private static final int ZIP64_EXTRA = 0x0001;
+	private static final long ZIP64_MAGIC = 0xFFFFFFFFL;
+	/**
+	 * Flag bit for entries with sizes and CRC in a descriptor after the
+	 * content. Sizes are always known here, so it is never written.
+	 */
+	private static final int FLAG_DESCRIPTOR = 0x8;
+	/**
+	 * Flag bit for entries with UTF-8 names.
+	 */
+	private static final int FLAG_UTF8 = 0x800;
+	private static final int VERSION = 20;
+	private static final int VERSION_ZIP64 = 45;
+	private static final byte[] NO_EXTRA = new byte[0];
+	private final OutputStream out;
+	private final WritableByteChannel channel;
+	private final ByteArrayOutputStream directory = new ByteArrayOutputStream();
+	private final Set<String> names = new HashSet<>();
+	/**
+	 * Idle deflaters, one is taken by each thread preparing content.
+	 */
+	private final Queue<Deflater> deflaters = new ConcurrentLinkedQueue<>();
+	private final int level;
+	/**
+	 * Modification time of new entries, in MS-DOS format.
+	 */
+	private final int time = dosTime(LocalDateTime.now());
+	private long offset;
+	private long count;
+	private volatile boolean closed;
+
+	/**
+	 * @param out
+	 *            Stream to write the archive to. Closed with the writer.
+	 */
+	public ArchiveWriter(OutputStream out) {
+		this(out, Deflater.DEFAULT_COMPRESSION);
+	}
+
+	/**
+	 * @param out
+	 *            Stream to write the archive to. Closed with the writer.
+	 * @param level
+	 *            Compression level of new content, see {@link Deflater}.
+	 */
+	public ArchiveWriter(OutputStream out, int level) {
+		this.out = new BufferedOutputStream(out, 64 * 1024);
+		this.channel = Channels.newChannel(this.out);
+		this.level = level;
+	}
+
+	/**
+	 * Compress content for an entry. Thread safe, so content of many entries
+	 * can be prepared at once.
+	 *
+	 * @param data
+	 *            Entry content.
+	 * @param stored
+	 *            {@code true} to keep the content uncompressed.
+	 * @return Content ready to be {@link #write(String, Content) written}.
+	 */
+	public Content prepare(byte[] data, boolean stored) {
+		CRC32 crc = new CRC32();
+		crc.update(data);
+		if (stored) {
+			return new Content(ArchiveEntry.STORED, (int) crc.getValue(), data.length, ByteBuffer.wrap(data));
+		}
+		Deflater deflater = deflaters.poll();
+		if (deflater == null) {
+			deflater = new Deflater(level, true);
+		}
+		try {
+			return new Content(ArchiveEntry.DEFLATED, (int) crc.getValue(), data.length, deflate(deflater, data));
+		} finally {
+			deflaters.add(deflater);
+			if (closed) {
+				// Prepared after the writer was closed, such as when writing failed
+				endDeflaters();
+			}
+		}
+	}
+
+	/**
+	 * Write an entry with prepared content.
+	 *
+	 * @param name
+	 *            Entry name.
+	 * @param content
+	 *            Content of the entry.
+	 * @throws IOException
+	 *             Thrown if the entry could not be written.
+	 */
+	public void write(String name, Content content) throws IOException {
+		writeEntry(name, content.method, 0, content.crc, time, content.data.remaining(), content.size,
+				content.data.duplicate(), 0, 0, NO_EXTRA, NO_EXTRA);
+	}
+
+	/**
+	 * Write an entry with new content.
+	 *
+	 * @param name
+	 *            Entry name.
+	 * @param data
+	 *            Entry content.
+	 * @param stored
+	 *            {@code true} to write the content uncompressed.
+	 * @throws IOException
+	 *             Thrown if the entry could not be written.
+	 */
+	public void write(String name, byte[] data, boolean stored) throws IOException {
+		write(name, prepare(data, stored));
+	}
+
+	/**
+	 * Write an entry with the content of another archive's entry, without
+	 * inflating it. The entry's extra fields, external attributes and host
+	 * system are kept, so are unix permissions.
+	 *
+	 * @param name
+	 *            Entry name.
+	 * @param entry
+	 *            Entry to copy the content of.
+	 * @throws IOException
+	 *             Thrown if the entry could not be read or written.
+	 */
+	public void copy(String name, ArchiveEntry entry) throws IOException {
+		ArchiveIndex archive = entry.getArchive();
+		ByteBuffer raw = archive.getRaw(entry);
+		byte[] localExtra = archive.getLocalExtra(entry);
+		byte[] centralExtra = archive.getCentralExtra(entry);
+		try {
+			writeEntry(name, entry.getMethod(), entry.getFlags() & ~(FLAG_DESCRIPTOR | FLAG_UTF8), entry
+					.getCrc(), entry.getDosTime(), entry.getCompressedSize(), entry.getSize(), raw, entry
+							.getVersionMadeBy() >>> 8, entry.getExternalAttributes(), localExtra, centralExtra);
+		} catch (InternalError e) {
+			// Raised when the mapped file has been truncated underneath us.
+			throw new IOException("Archive changed while copying: " + entry.getName(), e);
+		}
+	}
+
+	/**
+	 * Write the central directory and close the stream.
+	 *
+	 * @throws IOException
+	 *             Thrown if the directory could not be written.
+	 */
+	@Override
+	public void close() throws IOException {
+		if (closed) {
+			return;
+		}
+		closed = true;
+		endDeflaters();
+		try {
+			writeDirectory();
+		} finally {
+			out.close();
+		}
+	}
+
+	private void endDeflaters() {
+		Deflater deflater;
+		while ((deflater = deflaters.poll()) != null) {
+			deflater.end();
+		}
+	}
+
+	private void writeEntry(String name, int method, int flags, int crc, int dosTime, long compressedSize,
+			long size, ByteBuffer content, int host, int externalAttributes, byte[] localExtra,
+			byte[] centralExtra) throws IOException {
+		if (!names.add(name)) {
+			throw new ZipException("duplicate entry: " + name);
+		}
+		byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+		if (nameBytes.length != name.length()) {
+			flags |= FLAG_UTF8;
+		}
+		if (nameBytes.length > 0xFFFF) {
+			throw new ZipException("Entry name too long: " + name);
+		}
+		// Only the offset can overflow, it goes in a zip64 extra field
+		boolean zip64 = offset >= ZIP64_MAGIC;
+		if (centralExtra.length + (zip64 ? 12 : 0) > 0xFFFF) {
+			centralExtra = NO_EXTRA;
+		}
+		// Content comes from heap arrays or mapped archives, both under 2GB
+		ByteBuffer local = buffer(LOCAL_SIZE);
+		local.putInt(SIG_LOCAL);
+		local.putShort((short) VERSION);
+		local.putShort((short) flags);
+		local.putShort((short) method);
+		local.putInt(dosTime);
+		local.putInt(crc);
+		local.putInt((int) compressedSize);
+		local.putInt((int) size);
+		local.putShort((short) nameBytes.length);
+		local.putShort((short) localExtra.length);
+		out.write(local.array());
+		out.write(nameBytes);
+		out.write(localExtra);
+		while (content.hasRemaining()) {
+			channel.write(content);
+		}
+		ByteBuffer central = buffer(CENTRAL_SIZE);
+		central.putInt(SIG_CENTRAL);
+		central.putShort((short) (host << 8 | (zip64 ? VERSION_ZIP64 : VERSION)));
+		central.putShort((short) (zip64 ? VERSION_ZIP64 : VERSION));
+		central.putShort((short) flags);
+		central.putShort((short) method);
+		central.putInt(dosTime);
+		central.putInt(crc);
+		central.putInt((int) compressedSize);
+		central.putInt((int) size);
+		central.putShort((short) nameBytes.length);
+		central.putShort((short) (centralExtra.length + (zip64 ? 12 : 0)));
+		central.putShort((short) 0);
+		central.putShort((short) 0);
+		central.putShort((short) 0);
+		central.putInt(externalAttributes);
+		central.putInt((int) (zip64 ? ZIP64_MAGIC : offset));
+		directory.write(central.array());
+		directory.write(nameBytes);
+		directory.write(centralExtra);
+		if (zip64) {
+			ByteBuffer extra = buffer(12);
+			extra.putShort((short) ZIP64_EXTRA);
+			extra.putShort((short) 8);
+			extra.putLong(offset);
+			directory.write(extra.array());
+		}
+		offset += LOCAL_SIZE + nameBytes.length + localExtra.length + compressedSize;
+		count++;
+	}
+
+	private void writeDirectory() throws IOException {
+		long start = offset;
+		long size = directory.size();
+		directory.writeTo(out);
+		offset += size;
+		boolean zip64 = count >= 0xFFFF || start >= ZIP64_MAGIC || size >= ZIP64_MAGIC;
+		if (zip64) {
+			ByteBuffer end64 = buffer(END64_SIZE + END64_LOCATOR_SIZE);
+			end64.putInt(SIG_END64);
+			end64.putLong(END64_SIZE - 12);
+			end64.putShort((short) VERSION_ZIP64);
+			end64.putShort((short) VERSION_ZIP64);
+			end64.putInt(0);
+			end64.putInt(0);
+			end64.putLong(count);
+			end64.putLong(count);
+			end64.putLong(size);
+			end64.putLong(start);
+			end64.putInt(SIG_END64_LOCATOR);
+			end64.putInt(0);
+			end64.putLong(offset);
+			end64.putInt(1);
+			out.write(end64.array());
+		}
+		ByteBuffer end = buffer(END_SIZE);
+		end.putInt(SIG_END);
+		end.putShort((short) 0);
+		end.putShort((short) 0);
+		end.putShort((short) (zip64 ? 0xFFFF : count));
+		end.putShort((short) (zip64 ? 0xFFFF : count));
+		end.putInt((int) (zip64 ? ZIP64_MAGIC : size));
+		end.putInt((int) (zip64 ? ZIP64_MAGIC : start));
+		end.putShort((short) 0);
+		out.write(end.array());
+	}
+
+	/**
+	 * @return View of the deflated data.
+	 */
+	private static ByteBuffer deflate(Deflater deflater, byte[] data) {
+		deflater.reset();
+		deflater.setInput(data);
+		deflater.finish();
+		byte[] buf = new byte[Math.max(64, data.length / 2)];
+		int len = 0;
+		while (!deflater.finished()) {
+			if (len == buf.length) {
+				buf = Arrays.copyOf(buf, buf.length * 2);
+			}
+			len += deflater.deflate(buf, len, buf.length - len);
+		}
+		return ByteBuffer.wrap(buf, 0, len);
+	}
+
+	/**
+	 * Content of an entry, compressed and checksummed.
+	 *
+	 * @author Matt
+	 */
+	public static class Content {
+		private final int method;
+		private final int crc;
+		private final long size;
+		private final ByteBuffer data;
+
+		private Content(int method, int crc, long size, ByteBuffer data) {
+			this.method = method;
+			this.crc = crc;
+			this.size = size;
+			this.data = data;
+		}
+	}
+
+	private static ByteBuffer buffer(int size) {
+		return ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+	}
+
+	/**
+	 * @return Time in MS-DOS format <i>(Date in the high word, time in the
+	 *         low word)</i>.
+	 */
+	private static int dosTime(LocalDateTime time) {
+		if (time.getYear() < 1980) {
+			return (1 << 21) | (1 << 16);
+		}
+		return (time.getYear() - 1980) << 25 | time.getMonthValue() << 21 | time.getDayOfMonth() << 16 | time
+				.getHour() << 11 | time.getMinute() << 5 | time.getSecond() >> 1;
+	}
+}
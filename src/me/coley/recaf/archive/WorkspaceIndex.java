@@ -0,0 +1,268 @@
+package me.coley.recaf.archive;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import me.coley.recaf.bytecode.ClassSummary;
+import me.coley.recaf.bytecode.ClassSummary.Member;
+
+/**
+ * On-disk record of what loading an archive produced: which entries are
+ * classes, their {@link ClassSummary summaries}, and which entries are
+ * resources. Keyed by the {@link ArchiveIndex#getDigest() archive's digest},
+ * so re-opening an unchanged archive can skip inflating, verifying and
+ * parsing its entries entirely.
+ * <hr>
+ * Strings are written once to a table and referenced by index, since names
+ * and descriptors repeat heavily across classes.
+ *
+ * @author Matt
+ */
+public class WorkspaceIndex {
+	/**
+	 * Folder holding index files.
+	 */
+	private static final File FOLDER = new File("rc-cache");
+	/**
+	 * Number of index files to keep, least recently used are deleted first.
+	 */
+	private static final int MAX_FILES = 16;
+	private static final int MAGIC = 0x52434958;
+	private static final int VERSION = 2;
+	private final String key;
+	private final List<Record> records = new ArrayList<>();
+
+	/**
+	 * @param key
+	 *            Key of the archive the index belongs to.
+	 */
+	public WorkspaceIndex(String key) {
+		this.key = key;
+	}
+
+	/**
+	 * @param key
+	 *            Key of the archive.
+	 * @return Index stored for the archive, or {@code null} if there is none
+	 *         or it could not be read.
+	 */
+	public static WorkspaceIndex read(String key) {
+		File file = file(key);
+		if (!file.isFile()) {
+			return null;
+		}
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+			if (in.readInt() != MAGIC || in.readInt() != VERSION || !in.readUTF().equals(key)) {
+				return null;
+			}
+			String[] table = new String[in.readInt()];
+			for (int i = 0; i < table.length; i++) {
+				table[i] = in.readUTF();
+			}
+			WorkspaceIndex index = new WorkspaceIndex(key);
+			int count = in.readInt();
+			for (int i = 0; i < count; i++) {
+				String entry = table[in.readInt()];
+				ClassSummary summary = null;
+				if (in.readBoolean()) {
+					String name = table[in.readInt()];
+					int superIndex = in.readInt();
+					String superName = superIndex < 0 ? null : table[superIndex];
+					int access = in.readInt();
+					List<String> interfaces = readStrings(in, table);
+					List<Member> fields = readMembers(in, table);
+					List<Member> methods = readMembers(in, table);
+					List<String> strings = readStrings(in, table);
+					summary = new ClassSummary(name, superName, access, interfaces, fields, methods, strings);
+				}
+				index.records.add(new Record(entry, summary));
+			}
+			// Mark as recently used
+			file.setLastModified(System.currentTimeMillis());
+			return index;
+		} catch (IOException | IndexOutOfBoundsException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Store the index, replacing any previous index of the archive.
+	 *
+	 * @throws IOException
+	 *             Thrown if the index could not be written.
+	 */
+	public void write() throws IOException {
+		Map<String, Integer> table = new HashMap<>();
+		List<String> tableOrder = new ArrayList<>();
+		// Records first, so the table is complete when it is written.
+		ByteArrayOutputStream body = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(body);
+		out.writeInt(records.size());
+		for (Record record : records) {
+			out.writeInt(ref(record.entry, table, tableOrder));
+			ClassSummary summary = record.summary;
+			out.writeBoolean(summary != null);
+			if (summary != null) {
+				out.writeInt(ref(summary.getName(), table, tableOrder));
+				out.writeInt(summary.getSuperName() == null ? -1 : ref(summary.getSuperName(), table, tableOrder));
+				out.writeInt(summary.getAccess());
+				writeStrings(out, summary.getInterfaces(), table, tableOrder);
+				writeMembers(out, summary.getFields(), table, tableOrder);
+				writeMembers(out, summary.getMethods(), table, tableOrder);
+				writeStrings(out, summary.getStrings(), table, tableOrder);
+			}
+		}
+		out.flush();
+		FOLDER.mkdirs();
+		File file = file(key);
+		File temp = new File(FOLDER, key + ".tmp");
+		try (DataOutputStream fos = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)))) {
+			fos.writeInt(MAGIC);
+			fos.writeInt(VERSION);
+			fos.writeUTF(key);
+			fos.writeInt(tableOrder.size());
+			for (String value : tableOrder) {
+				fos.writeUTF(value);
+			}
+			body.writeTo(fos);
+		}
+		Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		prune();
+	}
+
+	/**
+	 * @param entry
+	 *            Name of the archive entry holding the class.
+	 * @param summary
+	 *            Summary of the class.
+	 */
+	public void addClass(String entry, ClassSummary summary) {
+		records.add(new Record(entry, summary));
+	}
+
+	/**
+	 * @param entry
+	 *            Name of the archive entry holding the resource.
+	 */
+	public void addResource(String entry) {
+		records.add(new Record(entry, null));
+	}
+
+	/**
+	 * @return Records of loaded entries.
+	 */
+	public List<Record> getRecords() {
+		return Collections.unmodifiableList(records);
+	}
+
+	/**
+	 * Delete the least recently used index files exceeding
+	 * {@link #MAX_FILES}.
+	 */
+	private static void prune() {
+		File[] files = FOLDER.listFiles((dir, name) -> name.endsWith(".idx"));
+		if (files == null || files.length <= MAX_FILES) {
+			return;
+		}
+		Arrays.sort(files, Comparator.comparingLong(File::lastModified).reversed());
+		for (int i = MAX_FILES; i < files.length; i++) {
+			files[i].delete();
+		}
+	}
+
+	private static File file(String key) {
+		return new File(FOLDER, key + ".idx");
+	}
+
+	private static int ref(String value, Map<String, Integer> table, List<String> order) {
+		Integer index = table.get(value);
+		if (index == null) {
+			index = order.size();
+			table.put(value, index);
+			order.add(value);
+		}
+		return index;
+	}
+
+	private static void writeStrings(DataOutputStream out, List<String> values, Map<String, Integer> table,
+			List<String> order) throws IOException {
+		out.writeInt(values.size());
+		for (String value : values) {
+			out.writeInt(ref(value, table, order));
+		}
+	}
+
+	private static void writeMembers(DataOutputStream out, List<Member> members, Map<String, Integer> table,
+			List<String> order) throws IOException {
+		out.writeInt(members.size());
+		for (Member member : members) {
+			out.writeInt(member.getAccess());
+			out.writeInt(ref(member.getName(), table, order));
+			out.writeInt(ref(member.getDesc(), table, order));
+		}
+	}
+
+	private static List<String> readStrings(DataInputStream in, String[] table) throws IOException {
+		int count = in.readInt();
+		List<String> values = new ArrayList<>(count);
+		for (int i = 0; i < count; i++) {
+			values.add(table[in.readInt()]);
+		}
+		return values;
+	}
+
+	private static List<Member> readMembers(DataInputStream in, String[] table) throws IOException {
+		int count = in.readInt();
+		List<Member> members = new ArrayList<>(count);
+		for (int i = 0; i < count; i++) {
+			members.add(new Member(in.readInt(), table[in.readInt()], table[in.readInt()]));
+		}
+		return members;
+	}
+
+	/**
+	 * Loaded archive entry.
+	 *
+	 * @author Matt
+	 */
+	public static class Record {
+		private final String entry;
+		private final ClassSummary summary;
+
+		private Record(String entry, ClassSummary summary) {
+			this.entry = entry;
+			this.summary = summary;
+		}
+
+		/**
+		 * @return Name of the archive entry.
+		 */
+		public String getEntry() {
+			return entry;
+		}
+
+		/**
+		 * @return Summary of the class held by the entry, {@code null} if the
+		 *         entry is a resource.
+		 */
+		public ClassSummary getSummary() {
+			return summary;
+		}
+	}
+}
@@ -87,6 +87,36 @@ public class Asm {
 		return cw.toByteArray();
 	}
 
+	/**
+	 * Rough estimate of the heap used by a ClassNode, dominated by its
+	 * instructions and members.
+	 *
+	 * @param cn
+	 *            The target ClassNode.
+	 * @return Estimated size in bytes.
+	 */
+	public static long estimateSize(ClassNode cn) {
+		long size = 512;
+		if (cn.fields != null) {
+			size += cn.fields.size() * 96L;
+		}
+		if (cn.methods != null) {
+			for (MethodNode mn : cn.methods) {
+				size += 160;
+				if (mn.instructions != null) {
+					size += mn.instructions.size() * 48L;
+				}
+				if (mn.tryCatchBlocks != null) {
+					size += mn.tryCatchBlocks.size() * 64L;
+				}
+				if (mn.localVariables != null) {
+					size += mn.localVariables.size() * 64L;
+				}
+			}
+		}
+		return size;
+	}
+
 	/**
 	 * IndexOf opcode, independent of InsnList.
 	 * 
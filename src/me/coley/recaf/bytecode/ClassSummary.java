@@ -0,0 +1,191 @@
+package me.coley.recaf.bytecode;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.FieldVisitor;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.tree.ClassNode;
+
+/**
+ * Outline of a class: its name, parents, member signatures and string
+ * constants. Much smaller than a ClassNode and cheap to read, since method
+ * code is only scanned for string constants.
+ *
+ * @author Matt
+ */
+public class ClassSummary {
+	private final String name;
+	private final String superName;
+	private final int access;
+	private final List<String> interfaces;
+	private final List<Member> fields;
+	private final List<Member> methods;
+	private final List<String> strings;
+
+	public ClassSummary(String name, String superName, int access, List<String> interfaces, List<Member> fields,
+			List<Member> methods, List<String> strings) {
+		this.name = name;
+		this.superName = superName;
+		this.access = access;
+		this.interfaces = Collections.unmodifiableList(interfaces);
+		this.fields = Collections.unmodifiableList(fields);
+		this.methods = Collections.unmodifiableList(methods);
+		this.strings = Collections.unmodifiableList(strings);
+	}
+
+	/**
+	 * @param cr
+	 *            Reader of the class to summarize.
+	 * @return Summary of the class.
+	 */
+	public static ClassSummary of(ClassReader cr) {
+		SummaryVisitor visitor = new SummaryVisitor();
+		cr.accept(visitor, ClassReader.SKIP_DEBUG | ClassReader.SKIP_FRAMES);
+		return new ClassSummary(cr.getClassName(), cr.getSuperName(), cr.getAccess(), Arrays.asList(cr
+				.getInterfaces()), visitor.fields, visitor.methods, new ArrayList<>(visitor.strings));
+	}
+
+	/**
+	 * @param node
+	 *            Node of the class to summarize.
+	 * @return Summary of the class.
+	 */
+	public static ClassSummary of(ClassNode node) {
+		SummaryVisitor visitor = new SummaryVisitor();
+		node.accept(visitor);
+		return new ClassSummary(node.name, node.superName, node.access, new ArrayList<>(node.interfaces),
+				visitor.fields, visitor.methods, new ArrayList<>(visitor.strings));
+	}
+
+	/**
+	 * @return Internal name of the class.
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * @return Internal name of the parent class. May be {@code null} for
+	 *         {@code java/lang/Object}.
+	 */
+	public String getSuperName() {
+		return superName;
+	}
+
+	/**
+	 * @return Class access flags.
+	 */
+	public int getAccess() {
+		return access;
+	}
+
+	/**
+	 * @return Internal names of implemented interfaces.
+	 */
+	public List<String> getInterfaces() {
+		return interfaces;
+	}
+
+	/**
+	 * @return Declared fields.
+	 */
+	public List<Member> getFields() {
+		return fields;
+	}
+
+	/**
+	 * @return Declared methods.
+	 */
+	public List<Member> getMethods() {
+		return methods;
+	}
+
+	/**
+	 * @return Distinct string constants loaded by the class's code.
+	 */
+	public List<String> getStrings() {
+		return strings;
+	}
+
+	/**
+	 * Access, name and descriptor of a declared field or method.
+	 *
+	 * @author Matt
+	 */
+	public static class Member {
+		private final int access;
+		private final String name;
+		private final String desc;
+
+		public Member(int access, String name, String desc) {
+			this.access = access;
+			this.name = name;
+			this.desc = desc;
+		}
+
+		/**
+		 * @return Member access flags.
+		 */
+		public int getAccess() {
+			return access;
+		}
+
+		/**
+		 * @return Member name.
+		 */
+		public String getName() {
+			return name;
+		}
+
+		/**
+		 * @return Member descriptor.
+		 */
+		public String getDesc() {
+			return desc;
+		}
+	}
+
+	/**
+	 * Collects members and string constants.
+	 *
+	 * @author Matt
+	 */
+	private static class SummaryVisitor extends ClassVisitor {
+		private final List<Member> fields = new ArrayList<>();
+		private final List<Member> methods = new ArrayList<>();
+		private final Set<String> strings = new LinkedHashSet<>();
+		private final MethodVisitor code = new MethodVisitor(Opcodes.ASM7) {
+			@Override
+			public void visitLdcInsn(Object value) {
+				if (value instanceof String) {
+					strings.add((String) value);
+				}
+			}
+		};
+
+		SummaryVisitor() {
+			super(Opcodes.ASM7);
+		}
+
+		@Override
+		public FieldVisitor visitField(int access, String name, String desc, String signature, Object value) {
+			fields.add(new Member(access, name, desc));
+			return null;
+		}
+
+		@Override
+		public MethodVisitor visitMethod(int access, String name, String desc, String signature,
+				String[] exceptions) {
+			methods.add(new Member(access, name, desc));
+			return code;
+		}
+	}
+}
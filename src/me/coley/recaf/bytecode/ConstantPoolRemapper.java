@@ -0,0 +1,546 @@
+package me.coley.recaf.bytecode;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.objectweb.asm.commons.Remapper;
+
+/**
+ * Renames classes and members by rewriting the constant pool of a class file,
+ * instead of regenerating the class. Method code, stack map frames and line
+ * numbers are copied byte-for-byte, so renaming is cheap and the output of
+ * unaffected code is stable.
+ * <hr>
+ * Entries of the constant pool are never moved or removed, only appended.
+ * References to names that change are pointed at the appended entries, so
+ * every index used by method code stays valid. Entries shared between
+ * unrelated uses, such as a {@code NameAndType} used by members of different
+ * classes, are only repointed for the uses that are renamed.
+ * <hr>
+ * The remapper is called for the same names, with the same arguments, as a
+ * {@link org.objectweb.asm.commons.ClassRemapper ClassRemapper} would call it
+ * with.
+ *
+ * @author Matt
+ */
+public class ConstantPoolRemapper {
+	private static final int UTF8 = 1, INTEGER = 3, FLOAT = 4, LONG = 5, DOUBLE = 6, CLASS = 7, STRING = 8,
+			FIELD = 9, METHOD = 10, INTERFACE_METHOD = 11, NAME_TYPE = 12, HANDLE = 15, METHOD_TYPE = 16,
+			DYNAMIC = 17, INVOKE_DYNAMIC = 18, MODULE = 19, PACKAGE = 20;
+	private final byte[] b;
+	private final Remapper remapper;
+	/**
+	 * Offset of each constant pool entry's content, after its tag.
+	 */
+	private final int[] offsets;
+	private final String[] strings;
+	/**
+	 * Original names of class entries, since entries are repointed while
+	 * they are still needed.
+	 */
+	private final String[] classes;
+	/**
+	 * Offset of the first byte after the constant pool.
+	 */
+	private final int poolEnd;
+	private final Map<String, Integer> utf8s = new HashMap<>();
+	private final Map<String, Integer> nameTypes = new HashMap<>();
+	private final ByteArrayOutputStream appended = new ByteArrayOutputStream();
+	private final DataOutputStream out = new DataOutputStream(appended);
+	/**
+	 * Size of the original constant pool.
+	 */
+	private final int poolCount;
+	/**
+	 * Size of the constant pool, including appended entries.
+	 */
+	private int count;
+	private String className;
+
+	private ConstantPoolRemapper(byte[] value, Remapper remapper) {
+		this.b = value.clone();
+		this.remapper = remapper;
+		this.poolCount = u2(8);
+		this.count = poolCount;
+		this.offsets = new int[count];
+		this.strings = new String[count];
+		this.classes = new String[count];
+		int offset = 10;
+		for (int i = 1; i < poolCount; i++) {
+			int tag = b[offset] & 0xFF;
+			offsets[i] = offset + 1;
+			switch (tag) {
+			case UTF8:
+				offset += 3 + u2(offset + 1);
+				break;
+			case INTEGER:
+			case FLOAT:
+			case FIELD:
+			case METHOD:
+			case INTERFACE_METHOD:
+			case NAME_TYPE:
+			case DYNAMIC:
+			case INVOKE_DYNAMIC:
+				offset += 5;
+				break;
+			case LONG:
+			case DOUBLE:
+				offset += 9;
+				i++;
+				break;
+			case CLASS:
+			case STRING:
+			case METHOD_TYPE:
+			case MODULE:
+			case PACKAGE:
+				offset += 3;
+				break;
+			case HANDLE:
+				offset += 4;
+				break;
+			default:
+				throw new IllegalArgumentException("Unknown constant pool tag: " + tag);
+			}
+		}
+		this.poolEnd = offset;
+		for (int i = 1; i < poolCount; i++) {
+			if (offsets[i] != 0 && tag(i) == UTF8) {
+				utf8s.putIfAbsent(utf8(i), i);
+			}
+		}
+		for (int i = 1; i < poolCount; i++) {
+			if (offsets[i] != 0 && tag(i) == CLASS) {
+				classes[i] = utf8(u2(offsets[i]));
+			}
+		}
+		for (int i = 1; i < poolCount; i++) {
+			if (offsets[i] != 0 && tag(i) == NAME_TYPE) {
+				nameTypes.putIfAbsent(u2(offsets[i]) + ":" + u2(offsets[i] + 2), i);
+			}
+		}
+	}
+
+	/**
+	 * @param value
+	 *            Class file bytes.
+	 * @param remapper
+	 *            Remapper providing new names.
+	 * @return Renamed class file bytes.
+	 * @throws IllegalArgumentException
+	 *             Thrown if the class file is malformed, or the constant pool
+	 *             would grow too large.
+	 */
+	public static byte[] remap(byte[] value, Remapper remapper) {
+		try {
+			return new ConstantPoolRemapper(value, remapper).remap();
+		} catch (IOException | IndexOutOfBoundsException e) {
+			throw new IllegalArgumentException("Malformed class file", e);
+		}
+	}
+
+	private byte[] remap() throws IOException {
+		int offset = poolEnd;
+		className = classes[u2(offset + 2)];
+		for (int i = 1; i < poolCount; i++) {
+			if (offsets[i] != 0) {
+				remapEntry(i);
+			}
+		}
+		for (int i = 1; i < poolCount; i++) {
+			if (classes[i] != null) {
+				patch(offsets[i], remapper.mapType(classes[i]), classes[i]);
+			}
+		}
+		// access, this, super, interfaces
+		offset += 6;
+		offset += 2 + 2 * u2(offset);
+		int fields = u2(offset);
+		offset += 2;
+		for (int i = 0; i < fields; i++) {
+			offset = member(offset, false);
+		}
+		int methods = u2(offset);
+		offset += 2;
+		for (int i = 0; i < methods; i++) {
+			offset = member(offset, true);
+		}
+		attributes(offset, Context.CLASS);
+		if (count > 0xFFFF) {
+			throw new IllegalArgumentException("Constant pool too large");
+		}
+		// Constant pool count, entries, appended entries, remainder
+		ByteArrayOutputStream result = new ByteArrayOutputStream(b.length + appended.size());
+		put2(8, count);
+		result.write(b, 0, poolEnd);
+		appended.writeTo(result);
+		result.write(b, poolEnd, b.length - poolEnd);
+		return result.toByteArray();
+	}
+
+	/**
+	 * Repoint member references and other entries describing names.
+	 */
+	private void remapEntry(int i) throws IOException {
+		int offset = offsets[i];
+		switch (tag(i)) {
+		case FIELD:
+		case METHOD:
+		case INTERFACE_METHOD: {
+			String owner = classes[u2(offset)];
+			int nt = offsets[u2(offset + 2)];
+			String name = utf8(u2(nt));
+			String desc = utf8(u2(nt + 2));
+			boolean field = tag(i) == FIELD;
+			String newName = field ? remapper.mapFieldName(owner, name, desc)
+					: remapper.mapMethodName(owner, name, desc);
+			String newDesc = field ? remapper.mapDesc(desc) : remapper.mapMethodDesc(desc);
+			patchNameType(offset + 2, name, desc, newName, newDesc);
+			break;
+		}
+		case METHOD_TYPE: {
+			String desc = utf8(u2(offset));
+			patch(offset, remapper.mapMethodDesc(desc), desc);
+			break;
+		}
+		case DYNAMIC:
+		case INVOKE_DYNAMIC: {
+			int nt = offsets[u2(offset + 2)];
+			String name = utf8(u2(nt));
+			String desc = utf8(u2(nt + 2));
+			String newDesc = tag(i) == DYNAMIC ? remapper.mapDesc(desc) : remapper.mapMethodDesc(desc);
+			patchNameType(offset + 2, name, desc, remapper.mapInvokeDynamicMethodName(name, desc), newDesc);
+			break;
+		}
+		default:
+			break;
+		}
+	}
+
+	/**
+	 * @return Offset after the field or method.
+	 */
+	private int member(int offset, boolean method) throws IOException {
+		String name = utf8(u2(offset + 2));
+		String desc = utf8(u2(offset + 4));
+		if (method) {
+			patch(offset + 2, remapper.mapMethodName(className, name, desc), name);
+			patch(offset + 4, remapper.mapMethodDesc(desc), desc);
+		} else {
+			patch(offset + 2, remapper.mapFieldName(className, name, desc), name);
+			patch(offset + 4, remapper.mapDesc(desc), desc);
+		}
+		return attributes(offset + 6, method ? Context.METHOD : Context.FIELD);
+	}
+
+	/**
+	 * @return Offset after the attributes.
+	 */
+	private int attributes(int offset, Context context) throws IOException {
+		int attributes = u2(offset);
+		offset += 2;
+		for (int i = 0; i < attributes; i++) {
+			String name = utf8(u2(offset));
+			int length = u4(offset + 2);
+			int start = offset + 6;
+			switch (name) {
+			case "Signature": {
+				String signature = utf8(u2(start));
+				patch(start, remapper.mapSignature(signature, context == Context.FIELD), signature);
+				break;
+			}
+			case "RuntimeVisibleAnnotations":
+			case "RuntimeInvisibleAnnotations":
+				annotations(start);
+				break;
+			case "RuntimeVisibleParameterAnnotations":
+			case "RuntimeInvisibleParameterAnnotations": {
+				int parameters = b[start] & 0xFF;
+				int pos = start + 1;
+				for (int p = 0; p < parameters; p++) {
+					pos = annotations(pos);
+				}
+				break;
+			}
+			case "RuntimeVisibleTypeAnnotations":
+			case "RuntimeInvisibleTypeAnnotations":
+				typeAnnotations(start);
+				break;
+			case "AnnotationDefault":
+				elementValue(start);
+				break;
+			case "Code": {
+				int codeLength = u4(start + 4);
+				int pos = start + 8 + codeLength;
+				pos += 2 + 8 * u2(pos);
+				attributes(pos, Context.CODE);
+				break;
+			}
+			case "LocalVariableTable":
+			case "LocalVariableTypeTable": {
+				boolean types = name.equals("LocalVariableTypeTable");
+				int entries = u2(start);
+				for (int e = 0; e < entries; e++) {
+					int pos = start + 2 + e * 10 + 6;
+					String desc = utf8(u2(pos));
+					patch(pos, types ? remapper.mapSignature(desc, true) : remapper.mapDesc(desc), desc);
+				}
+				break;
+			}
+			case "InnerClasses":
+				if (context == Context.CLASS) {
+					innerClasses(start);
+				}
+				break;
+			case "EnclosingMethod":
+				if (context == Context.CLASS) {
+					int nt = u2(start + 2);
+					if (nt != 0) {
+						String owner = classes[u2(start)];
+						String method = utf8(u2(offsets[nt]));
+						String desc = utf8(u2(offsets[nt] + 2));
+						patchNameType(start + 2, method, desc, remapper.mapMethodName(owner, method, desc),
+								remapper.mapMethodDesc(desc));
+					}
+				}
+				break;
+			default:
+				// Other attributes reference classes and handles through
+				// entries that have been remapped already.
+				break;
+			}
+			offset = start + length;
+		}
+		return offset;
+	}
+
+	/**
+	 * Update simple names of inner classes renamed along with their outer
+	 * class.
+	 */
+	private void innerClasses(int offset) throws IOException {
+		int entries = u2(offset);
+		for (int e = 0; e < entries; e++) {
+			int pos = offset + 2 + e * 8;
+			int outerIndex = u2(pos + 2);
+			int simpleIndex = u2(pos + 4);
+			if (outerIndex == 0 || simpleIndex == 0) {
+				continue;
+			}
+			String inner = classes[u2(pos)];
+			String outer = classes[outerIndex];
+			String simple = utf8(simpleIndex);
+			String newInner = remapper.mapType(inner);
+			String newOuter = remapper.mapType(outer);
+			if (newInner.startsWith(newOuter + "$") && !inner.equals(newInner)) {
+				patch(pos + 4, newInner.substring(newOuter.length() + 1), simple);
+			}
+		}
+	}
+
+	/**
+	 * @return Offset after the annotations.
+	 */
+	private int annotations(int offset) throws IOException {
+		int annotations = u2(offset);
+		offset += 2;
+		for (int i = 0; i < annotations; i++) {
+			offset = annotation(offset);
+		}
+		return offset;
+	}
+
+	/**
+	 * @return Offset after the type annotations.
+	 */
+	private int typeAnnotations(int offset) throws IOException {
+		int annotations = u2(offset);
+		offset += 2;
+		for (int i = 0; i < annotations; i++) {
+			int target = b[offset++] & 0xFF;
+			switch (target) {
+			case 0x00:
+			case 0x01:
+			case 0x16:
+				offset += 1;
+				break;
+			case 0x10:
+			case 0x17:
+			case 0x42:
+			case 0x43:
+			case 0x44:
+			case 0x45:
+			case 0x46:
+				offset += 2;
+				break;
+			case 0x11:
+			case 0x12:
+				offset += 2;
+				break;
+			case 0x13:
+			case 0x14:
+			case 0x15:
+				break;
+			case 0x40:
+			case 0x41:
+				offset += 2 + 6 * u2(offset);
+				break;
+			case 0x47:
+			case 0x48:
+			case 0x49:
+			case 0x4A:
+			case 0x4B:
+				offset += 3;
+				break;
+			default:
+				throw new IllegalArgumentException("Unknown type annotation target: " + target);
+			}
+			// type_path
+			offset += 1 + 2 * (b[offset] & 0xFF);
+			offset = annotation(offset);
+		}
+		return offset;
+	}
+
+	/**
+	 * @return Offset after the annotation.
+	 */
+	private int annotation(int offset) throws IOException {
+		String desc = utf8(u2(offset));
+		patch(offset, remapper.mapDesc(desc), desc);
+		int pairs = u2(offset + 2);
+		offset += 4;
+		for (int i = 0; i < pairs; i++) {
+			offset = elementValue(offset + 2);
+		}
+		return offset;
+	}
+
+	/**
+	 * @return Offset after the element value.
+	 */
+	private int elementValue(int offset) throws IOException {
+		int tag = b[offset++] & 0xFF;
+		switch (tag) {
+		case 'e': {
+			String desc = utf8(u2(offset));
+			patch(offset, remapper.mapDesc(desc), desc);
+			return offset + 4;
+		}
+		case 'c': {
+			String desc = utf8(u2(offset));
+			patch(offset, remapper.mapDesc(desc), desc);
+			return offset + 2;
+		}
+		case '@':
+			return annotation(offset);
+		case '[': {
+			int values = u2(offset);
+			offset += 2;
+			for (int i = 0; i < values; i++) {
+				offset = elementValue(offset);
+			}
+			return offset;
+		}
+		default:
+			// Constant values
+			return offset + 2;
+		}
+	}
+
+	/**
+	 * Point the UTF8 reference at the given offset to the new value, if it
+	 * differs from the old value.
+	 */
+	private void patch(int offset, String value, String old) throws IOException {
+		if (value != null && !value.equals(old)) {
+			put2(offset, utf8Index(value));
+		}
+	}
+
+	/**
+	 * Point the NameAndType reference at the given offset to an entry for the
+	 * new name and descriptor, if either differs.
+	 */
+	private void patchNameType(int offset, String name, String desc, String newName, String newDesc)
+			throws IOException {
+		if (name.equals(newName) && desc.equals(newDesc)) {
+			return;
+		}
+		int nameIndex = utf8Index(newName);
+		int descIndex = utf8Index(newDesc);
+		String key = nameIndex + ":" + descIndex;
+		Integer index = nameTypes.get(key);
+		if (index == null) {
+			index = count++;
+			out.writeByte(NAME_TYPE);
+			out.writeShort(nameIndex);
+			out.writeShort(descIndex);
+			nameTypes.put(key, index);
+		}
+		put2(offset, index);
+	}
+
+	private int utf8Index(String value) throws IOException {
+		Integer index = utf8s.get(value);
+		if (index == null) {
+			index = count++;
+			out.writeByte(UTF8);
+			out.writeUTF(value);
+			utf8s.put(value, index);
+		}
+		return index;
+	}
+
+	private int tag(int index) {
+		return b[offsets[index] - 1] & 0xFF;
+	}
+
+	/**
+	 * @return Decoded modified UTF-8 entry of the original constant pool.
+	 */
+	private String utf8(int index) {
+		String value = strings[index];
+		if (value != null) {
+			return value;
+		}
+		int offset = offsets[index];
+		int end = offset + 2 + u2(offset);
+		char[] chars = new char[end - offset];
+		int len = 0;
+		for (int i = offset + 2; i < end;) {
+			int c = b[i++] & 0xFF;
+			if (c < 0x80) {
+				chars[len++] = (char) c;
+			} else if (c < 0xE0) {
+				chars[len++] = (char) (((c & 0x1F) << 6) | (b[i++] & 0x3F));
+			} else {
+				chars[len++] = (char) (((c & 0x0F) << 12) | ((b[i++] & 0x3F) << 6) | (b[i++] & 0x3F));
+			}
+		}
+		return strings[index] = new String(chars, 0, len);
+	}
+
+	private int u2(int offset) {
+		return ((b[offset] & 0xFF) << 8) | (b[offset + 1] & 0xFF);
+	}
+
+	private int u4(int offset) {
+		return ((b[offset] & 0xFF) << 24) | ((b[offset + 1] & 0xFF) << 16) | ((b[offset + 2] & 0xFF) << 8)
+				| (b[offset + 3] & 0xFF);
+	}
+
+	private void put2(int offset, int value) {
+		b[offset] = (byte) (value >>> 8);
+		b[offset + 1] = (byte) value;
+	}
+
+	/**
+	 * Holder of an attribute list.
+	 */
+	private enum Context {
+		CLASS, FIELD, METHOD, CODE
+	}
+}
@@ -0,0 +1,353 @@
+package me.coley.recaf.bytecode.analysis;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+import org.objectweb.asm.tree.ClassNode;
+
+import me.coley.event.Bus;
+import me.coley.event.Listener;
+import me.coley.recaf.Input;
+import me.coley.recaf.Logging;
+import me.coley.recaf.bytecode.ClassSummary;
+import me.coley.recaf.config.impl.ConfASM;
+import me.coley.recaf.event.ClassDirtyEvent;
+import me.coley.recaf.event.InputChangeEvent;
+import me.coley.recaf.event.NewInputEvent;
+
+/**
+ * Shared table of the supertypes of classes, used to find common super-classes
+ * when frames are computed. Types of the input are read from their summaries,
+ * types of the runtime <i>(JDK and libraries)</i> from their class files on the
+ * classpath, so no class is loaded or fully parsed.
+ * <hr>
+ * Parents of each type, its ancestors and the common super-class of each pair
+ * are cached. All are dropped when the parents of any type change, since every
+ * descendant of the type is affected.
+ *
+ * @author Matt
+ */
+public enum Ancestry {
+	INSTANCE;
+	private static final String OBJECT = "java/lang/Object";
+	/**
+	 * Key: Class name.<br>
+	 * Value: Direct parents of the class.
+	 */
+	private final Map<String, Parents> parents = new ConcurrentHashMap<>();
+	/**
+	 * Key: Class name.<br>
+	 * Value: All supertypes of the class.
+	 */
+	private final Map<String, Ancestors> ancestors = new ConcurrentHashMap<>();
+	/**
+	 * Key: Pair of class names.<br>
+	 * Value: Common super-class of the pair.
+	 */
+	private final Map<String, String> common = new ConcurrentHashMap<>();
+	/**
+	 * Incremented when cached values are dropped, so values computed from
+	 * dropped parents are not cached.
+	 */
+	private final AtomicLong generation = new AtomicLong();
+
+	private Ancestry() {
+		Bus.subscribe(this);
+	}
+
+	/**
+	 * @param type1
+	 *            Internal name of a class.
+	 * @param type2
+	 *            Internal name of another class.
+	 * @return Internal name of the closest common super-class. Object if
+	 *         either is an interface, or if either's ancestry is unknown.
+	 */
+	public String getCommonSuperClass(String type1, String type2) {
+		if (type1 == null || type2 == null) {
+			return OBJECT;
+		}
+		if (type1.equals(type2)) {
+			return type1;
+		}
+		// The result does not depend on the order of the pair
+		String key = type1.compareTo(type2) < 0 ? type1 + ' ' + type2 : type2 + ' ' + type1;
+		String result = common.get(key);
+		if (result == null) {
+			long gen = generation.get();
+			result = computeCommonSuperClass(type1, type2);
+			if (gen == generation.get()) {
+				common.put(key, result);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * @param parent
+	 *            Internal name of a class.
+	 * @param child
+	 *            Internal name of another class.
+	 * @return {@code true} if the parent is the child, or one of its
+	 *         superclasses or superinterfaces.
+	 */
+	public boolean isAssignableFrom(String parent, String child) {
+		return getAncestors(child, new HashSet<>()).all.contains(parent);
+	}
+
+	/**
+	 * Update the parents of a class. Cached values are dropped if they
+	 * changed.
+	 *
+	 * @param name
+	 *            Internal name of the class.
+	 * @param access
+	 *            Access flags of the class.
+	 * @param superName
+	 *            Internal name of the super-class.
+	 * @param interfaces
+	 *            Internal names of the interfaces.
+	 */
+	public void update(String name, int access, String superName, Collection<String> interfaces) {
+		Parents now = new Parents(access, superName, interfaces);
+		Parents old = parents.put(name, now);
+		if (old != null && !old.equals(now)) {
+			invalidate();
+		}
+	}
+
+	/**
+	 * Drop the parents of a class, and all values computed from them.
+	 *
+	 * @param name
+	 *            Internal name of the class.
+	 */
+	public void remove(String name) {
+		if (parents.remove(name) != null) {
+			invalidate();
+		}
+	}
+
+	/**
+	 * Drop all cached values.
+	 */
+	public void clear() {
+		parents.clear();
+		invalidate();
+	}
+
+	@Listener
+	private void onClassDirty(ClassDirtyEvent event) {
+		// Edits to the super-class and interfaces of a node
+		ClassNode node = event.getNode();
+		update(node.name, node.access, node.superName, node.interfaces);
+	}
+
+	@Listener
+	private void onNewInput(NewInputEvent input) {
+		clear();
+	}
+
+	@Listener
+	private void onInputChange(InputChangeEvent change) {
+		for (String name : change.getAddedClasses()) {
+			remove(name);
+		}
+		for (String name : change.getRemovedClasses()) {
+			remove(name);
+		}
+		for (String name : change.getChangedClasses()) {
+			remove(name);
+		}
+	}
+
+	private void invalidate() {
+		generation.incrementAndGet();
+		ancestors.clear();
+		common.clear();
+	}
+
+	private String computeCommonSuperClass(String type1, String type2) {
+		Ancestors a1 = getAncestors(type1, new HashSet<>());
+		Ancestors a2 = getAncestors(type2, new HashSet<>());
+		if (a2.all.contains(type1)) {
+			return type1;
+		} else if (a1.all.contains(type2)) {
+			return type2;
+		} else if (a1.isInterface || a2.isInterface) {
+			return OBJECT;
+		}
+		for (String superName : a1.chain) {
+			if (a2.all.contains(superName)) {
+				return superName;
+			}
+		}
+		return OBJECT;
+	}
+
+	/**
+	 * @param type
+	 *            Internal name of a class.
+	 * @param visiting
+	 *            Classes whose ancestors are being computed, to stop at
+	 *            cycles in malformed hierarchies.
+	 * @return All supertypes of the class.
+	 */
+	private Ancestors getAncestors(String type, Set<String> visiting) {
+		Ancestors value = ancestors.get(type);
+		if (value == null) {
+			if (!visiting.add(type)) {
+				return new Ancestors(new String[0], Collections.singleton(type), false);
+			}
+			long gen = generation.get();
+			value = computeAncestors(type, visiting);
+			visiting.remove(type);
+			if (gen == generation.get()) {
+				ancestors.put(type, value);
+			}
+		}
+		return value;
+	}
+
+	private Ancestors computeAncestors(String type, Set<String> visiting) {
+		Parents direct = getParents(type);
+		List<String> chain = new ArrayList<>();
+		Set<String> all = new HashSet<>();
+		all.add(type);
+		if (direct != null) {
+			if (direct.superName != null) {
+				// Ancestors of parents are cached, so shared ancestry is only
+				// walked once.
+				Ancestors sup = getAncestors(direct.superName, visiting);
+				chain.add(direct.superName);
+				chain.addAll(Arrays.asList(sup.chain));
+				all.addAll(sup.all);
+			}
+			for (String itf : direct.interfaces) {
+				all.addAll(getAncestors(itf, visiting).all);
+			}
+		}
+		boolean isInterface = direct != null && (direct.access & Opcodes.ACC_INTERFACE) != 0;
+		return new Ancestors(chain.toArray(new String[0]), all, isInterface);
+	}
+
+	private Parents getParents(String type) {
+		Parents value = parents.get(type);
+		if (value != null) {
+			return value;
+		}
+		Input in = Input.get();
+		if (in != null && in.classes.contains(type)) {
+			ClassSummary summary = in.getSummary(type);
+			if (summary != null) {
+				value = new Parents(summary.getAccess(), summary.getSuperName(), summary.getInterfaces());
+			}
+		} else if (ConfASM.instance().useReflection()) {
+			value = readRuntime(type);
+		}
+		if (value != null) {
+			Parents existing = parents.putIfAbsent(type, value);
+			if (existing != null) {
+				value = existing;
+			}
+		}
+		return value;
+	}
+
+	/**
+	 * @return Parents of a class on the classpath, {@code null} if it could
+	 *         not be found.
+	 */
+	private static Parents readRuntime(String type) {
+		try (InputStream in = ClassLoader.getSystemResourceAsStream(type + ".class")) {
+			if (in != null) {
+				// Only the header of the class is read
+				ClassReader cr = new ClassReader(in);
+				return new Parents(cr.getAccess(), cr.getSuperName(), Arrays.asList(cr.getInterfaces()));
+			}
+		} catch (IOException | IllegalArgumentException e) {
+			// Class files newer than ASM supports, such as those of a newer
+			// JDK. Ask the runtime instead, without initializing the class.
+			try {
+				Class<?> clazz = Class.forName(type.replace('/', '.'), false, ClassLoader.getSystemClassLoader());
+				List<String> interfaces = new ArrayList<>();
+				for (Class<?> itf : clazz.getInterfaces()) {
+					interfaces.add(Type.getInternalName(itf));
+				}
+				Class<?> sup = clazz.getSuperclass();
+				int access = clazz.isInterface() ? Opcodes.ACC_INTERFACE : 0;
+				// Interfaces have no superclass at runtime, but Object in
+				// their class files.
+				String superName = sup != null ? Type.getInternalName(sup) : clazz.isInterface() ? OBJECT : null;
+				return new Parents(access, superName, interfaces);
+			} catch (ClassNotFoundException | LinkageError ex) {
+				Logging.trace("Could not read runtime class: " + type, 1);
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Direct parents of a class.
+	 */
+	private static class Parents {
+		private final int access;
+		private final String superName;
+		private final List<String> interfaces;
+
+		private Parents(int access, String superName, Collection<String> interfaces) {
+			this.access = access & Opcodes.ACC_INTERFACE;
+			this.superName = superName;
+			this.interfaces = interfaces == null ? Collections.emptyList() : new ArrayList<>(interfaces);
+		}
+
+		@Override
+		public boolean equals(Object other) {
+			if (!(other instanceof Parents)) {
+				return false;
+			}
+			Parents o = (Parents) other;
+			return access == o.access && Objects.equals(superName, o.superName) && interfaces.equals(o.interfaces);
+		}
+
+		@Override
+		public int hashCode() {
+			return Objects.hash(access, superName, interfaces);
+		}
+	}
+
+	/**
+	 * All supertypes of a class.
+	 */
+	private static class Ancestors {
+		/**
+		 * Superclasses, closest first.
+		 */
+		private final String[] chain;
+		/**
+		 * The class and all its superclasses and superinterfaces.
+		 */
+		private final Set<String> all;
+		private final boolean isInterface;
+
+		private Ancestors(String[] chain, Set<String> all, boolean isInterface) {
+			this.chain = chain;
+			this.all = all;
+			this.isInterface = isInterface;
+		}
+	}
+}
@@ -0,0 +1,321 @@
+package me.coley.recaf.bytecode.analysis;
+
+/**
+ * Single-pass structural validator for class files. Checks constant-pool tags,
+ * constant-pool index bounds and types, attribute lengths and method code
+ * lengths directly on the raw bytes without building any visitor or tree
+ * structures.
+ * <hr>
+ * This is much cheaper than having ASM parse and re-emit the whole class, but
+ * it does not validate attribute contents beyond the {@code Code} attribute.
+ * See {@link me.coley.recaf.config.impl.ConfASM#doStrictVerify()} for the
+ * full round-trip check.
+ *
+ * @author Matt
+ */
+public class ClassValidator {
+	// Constant pool tags
+	private static final int UTF8 = 1, INT = 3, FLOAT = 4, LONG = 5, DOUBLE = 6, CLASS = 7, STRING = 8,
+			FIELD = 9, METHOD = 10, INTERFACE_METHOD = 11, NAME_TYPE = 12, METHOD_HANDLE = 15, METHOD_TYPE = 16,
+			DYNAMIC = 17, INVOKE_DYNAMIC = 18, MODULE = 19, PACKAGE = 20;
+	private static final int MAX_CODE_LENGTH = 65535;
+	private final byte[] b;
+	/**
+	 * Current read position.
+	 */
+	private int pos;
+	/**
+	 * Tag of each constant pool entry. Zero for unusable slots.
+	 */
+	private int[] tags;
+	/**
+	 * Offset of each constant pool entry's content, directly after its tag.
+	 */
+	private int[] offsets;
+
+	private ClassValidator(byte[] b) {
+		this.b = b;
+	}
+
+	/**
+	 * @param value
+	 *            Class file bytes.
+	 * @return {@code true} if the class is structurally valid.
+	 */
+	public static boolean isValid(byte[] value) {
+		return getFailure(value) == null;
+	}
+
+	/**
+	 * @param value
+	 *            Class file bytes.
+	 * @return Description of the first structural problem found, or
+	 *         {@code null} if the class is valid.
+	 */
+	public static String getFailure(byte[] value) {
+		if (value == null) {
+			return "No class data";
+		}
+		try {
+			new ClassValidator(value).validate();
+			return null;
+		} catch (InvalidClassException e) {
+			return e.getMessage();
+		}
+	}
+
+	private void validate() throws InvalidClassException {
+		if (u4() != 0xCAFEBABE) {
+			throw new InvalidClassException("Invalid magic number");
+		}
+		// minor + major version
+		skip(4);
+		readConstantPool();
+		// access
+		skip(2);
+		// this class, super class, interfaces
+		cpRef(u2(), CLASS);
+		int superIndex = u2();
+		if (superIndex != 0) {
+			cpRef(superIndex, CLASS);
+		}
+		int interfaces = u2();
+		for (int i = 0; i < interfaces; i++) {
+			cpRef(u2(), CLASS);
+		}
+		// fields + methods
+		readMembers(false);
+		readMembers(true);
+		// class attributes
+		readAttributes(null);
+	}
+
+	private void readConstantPool() throws InvalidClassException {
+		int count = u2();
+		if (count == 0) {
+			throw new InvalidClassException("Constant pool count of zero");
+		}
+		tags = new int[count];
+		offsets = new int[count];
+		// First pass: tags and sizes
+		for (int i = 1; i < count; i++) {
+			int tag = u1();
+			tags[i] = tag;
+			offsets[i] = pos;
+			switch (tag) {
+			case UTF8:
+				skip(u2());
+				break;
+			case INT:
+			case FLOAT:
+			case FIELD:
+			case METHOD:
+			case INTERFACE_METHOD:
+			case NAME_TYPE:
+			case DYNAMIC:
+			case INVOKE_DYNAMIC:
+				skip(4);
+				break;
+			case LONG:
+			case DOUBLE:
+				skip(8);
+				// Takes two slots, the second is unusable
+				if (++i >= count) {
+					throw new InvalidClassException("Wide constant at end of pool: " + (i - 1));
+				}
+				break;
+			case CLASS:
+			case STRING:
+			case METHOD_TYPE:
+			case MODULE:
+			case PACKAGE:
+				skip(2);
+				break;
+			case METHOD_HANDLE:
+				skip(3);
+				break;
+			default:
+				throw new InvalidClassException("Invalid constant pool tag " + tag + " at index " + i);
+			}
+		}
+		// Second pass: references between entries
+		int end = pos;
+		for (int i = 1; i < count; i++) {
+			pos = offsets[i];
+			switch (tags[i]) {
+			case CLASS:
+			case STRING:
+			case METHOD_TYPE:
+			case MODULE:
+			case PACKAGE:
+				cpRef(u2(), UTF8);
+				break;
+			case FIELD:
+			case METHOD:
+			case INTERFACE_METHOD:
+				cpRef(u2(), CLASS);
+				cpRef(u2(), NAME_TYPE);
+				break;
+			case NAME_TYPE:
+				cpRef(u2(), UTF8);
+				cpRef(u2(), UTF8);
+				break;
+			case DYNAMIC:
+			case INVOKE_DYNAMIC:
+				// bootstrap method index, name and type
+				skip(2);
+				cpRef(u2(), NAME_TYPE);
+				break;
+			case METHOD_HANDLE:
+				int kind = u1();
+				int ref = u2();
+				if (kind < 1 || kind > 9) {
+					throw new InvalidClassException("Invalid method handle kind " + kind + " at index " + i);
+				}
+				if (kind <= 4) {
+					cpRef(ref, FIELD);
+				} else {
+					cpRef(ref, METHOD, INTERFACE_METHOD);
+				}
+				break;
+			default:
+				break;
+			}
+		}
+		pos = end;
+	}
+
+	private void readMembers(boolean methods) throws InvalidClassException {
+		int count = u2();
+		for (int i = 0; i < count; i++) {
+			// access
+			skip(2);
+			// name + descriptor
+			cpRef(u2(), UTF8);
+			cpRef(u2(), UTF8);
+			readAttributes(methods ? "Code" : null);
+		}
+	}
+
+	/**
+	 * @param codeName
+	 *            Name of the code attribute if the attributes belong to a
+	 *            method, {@code null} otherwise.
+	 */
+	private void readAttributes(String codeName) throws InvalidClassException {
+		int count = u2();
+		for (int i = 0; i < count; i++) {
+			int nameIndex = u2();
+			cpRef(nameIndex, UTF8);
+			int length = u4();
+			if (length < 0) {
+				throw new InvalidClassException("Invalid attribute length: " + Integer.toUnsignedString(length));
+			}
+			int end = pos + length;
+			if (codeName != null && utf8Equals(nameIndex, codeName)) {
+				readCode(end);
+			}
+			pos = end;
+			ensure(0);
+		}
+	}
+
+	private void readCode(int end) throws InvalidClassException {
+		// max stack + max locals
+		skip(4);
+		int codeLength = u4();
+		if (codeLength <= 0 || codeLength > MAX_CODE_LENGTH) {
+			throw new InvalidClassException("Invalid method code length: " + Integer.toUnsignedString(codeLength));
+		}
+		skip(codeLength);
+		int handlers = u2();
+		for (int i = 0; i < handlers; i++) {
+			int start = u2();
+			int handlerEnd = u2();
+			int handler = u2();
+			int type = u2();
+			// Only offsets past the code are rejected, like ASM does. Empty
+			// ranges are left in by some obfuscators, and load fine.
+			if (start > codeLength || handlerEnd > codeLength || handler > codeLength) {
+				throw new InvalidClassException("Invalid exception table range");
+			}
+			if (type != 0) {
+				cpRef(type, CLASS);
+			}
+		}
+		readAttributes(null);
+		if (pos != end) {
+			throw new InvalidClassException("Code attribute length does not match its content");
+		}
+	}
+
+	private boolean utf8Equals(int index, String value) {
+		// Offset points at the entry's length, directly after its tag.
+		int offset = offsets[index];
+		int length = ((b[offset] & 0xFF) << 8) | (b[offset + 1] & 0xFF);
+		if (length != value.length()) {
+			return false;
+		}
+		for (int i = 0; i < length; i++) {
+			if (b[offset + 2 + i] != value.charAt(i)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private void cpRef(int index, int expected) throws InvalidClassException {
+		cpRef(index, expected, expected);
+	}
+
+	private void cpRef(int index, int expected, int alternative) throws InvalidClassException {
+		if (index <= 0 || index >= tags.length) {
+			throw new InvalidClassException("Constant pool index out of bounds: " + index);
+		}
+		int tag = tags[index];
+		if (tag != expected && tag != alternative) {
+			throw new InvalidClassException("Constant pool index " + index + " has unexpected tag " + tag);
+		}
+	}
+
+	private void ensure(int length) throws InvalidClassException {
+		if (pos < 0 || pos + length > b.length) {
+			throw new InvalidClassException("Unexpected end of class data");
+		}
+	}
+
+	private void skip(int length) throws InvalidClassException {
+		ensure(length);
+		pos += length;
+	}
+
+	private int u1() throws InvalidClassException {
+		ensure(1);
+		return b[pos++] & 0xFF;
+	}
+
+	private int u2() throws InvalidClassException {
+		ensure(2);
+		int v = ((b[pos] & 0xFF) << 8) | (b[pos + 1] & 0xFF);
+		pos += 2;
+		return v;
+	}
+
+	private int u4() throws InvalidClassException {
+		ensure(4);
+		int v = ((b[pos] & 0xFF) << 24) | ((b[pos + 1] & 0xFF) << 16) | ((b[pos + 2] & 0xFF) << 8) | (b[pos + 3]
+				& 0xFF);
+		pos += 4;
+		return v;
+	}
+
+	/**
+	 * Thrown when the class data is malformed.
+	 */
+	@SuppressWarnings("serial")
+	private static class InvalidClassException extends Exception {
+		InvalidClassException(String message) {
+			super(message, null, false, false);
+		}
+	}
+}
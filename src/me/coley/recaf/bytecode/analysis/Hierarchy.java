@@ -1,11 +1,14 @@
 package me.coley.recaf.bytecode.analysis;
 
 import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Deque;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedList;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.concurrent.ConcurrentHashMap;
@@ -20,24 +23,30 @@ import com.google.common.collect.Iterables;
 
 import me.coley.event.Bus;
 import me.coley.event.Listener;
-import me.coley.recaf.Input;
 import me.coley.recaf.Logging;
+import me.coley.recaf.Input;
 import me.coley.recaf.bytecode.Agent;
+import me.coley.recaf.bytecode.ClassSummary;
+import me.coley.recaf.bytecode.ClassSummary.Member;
 import me.coley.recaf.config.impl.ConfASM;
+import me.coley.recaf.event.ClassDirtyEvent;
 import me.coley.recaf.event.ClassRenameEvent;
+import me.coley.recaf.event.InputChangeEvent;
 import me.coley.recaf.event.MethodRenameEvent;
 import me.coley.recaf.event.NewInputEvent;
 import me.coley.recaf.util.Threads;
 
 /**
  * ClassNode inheritance/MethodNode override utility.
+ * <hr>
+ * The hierarchy is generated once per input, then patched as classes change.
+ * Method-groups hold the classes declaring a method within one connected set
+ * of classes, so changing the parents of a class only regroups the sets it
+ * leaves and joins. Adding, removing or renaming a method only moves the
+ * class between the groups of the method.
  * 
  * @author Matt
  */
-// TODO: Update when user does the following:
-// - Update interface list
-// - Update superName
-// - Insert method / change method name to match one in the tree
 public enum Hierarchy {
 	INSTANCE;
 	/**
@@ -60,6 +69,21 @@ public enum Hierarchy {
 	 * Set of classes already visited during hierarchy generation.
 	 */
 	private final Set<CVert> visitedGroupHosts = Collections.newSetFromMap(new ConcurrentHashMap<>());
+	/**
+	 * Key: Name of a class not in the input.<br>
+	 * Value: Classes of the input extending it. Linked to the class if it is
+	 * added to the input later.
+	 */
+	private final Map<String, Set<CVert>> waiting = new HashMap<>();
+	/**
+	 * String representations of NameTypes declared by external parents. Groups
+	 * of these types are locked.
+	 */
+	private final Set<String> lockedTypes = Collections.newSetFromMap(new ConcurrentHashMap<>());
+	/**
+	 * External parents whose methods have been added to {@link #lockedTypes}.
+	 */
+	private final Set<String> lockedExternals = Collections.newSetFromMap(new ConcurrentHashMap<>());
 	/**
 	 * Status of what has been loaded.
 	 */
@@ -136,7 +160,7 @@ public enum Hierarchy {
 	}
 
 	@Listener
-	private void onClassRename(ClassRenameEvent rename) {
+	private synchronized void onClassRename(ClassRenameEvent rename) {
 		String original = rename.getOriginalName();
 		String replace = rename.getNewName();
 		// If a class is renamed, remove it from the lookup and add it back
@@ -145,66 +169,433 @@ public enum Hierarchy {
 		if (vert != null) {
 			classes.remove(original);
 			classes.put(replace, vert);
-			// As long as the event priority causes this event to be handled by
-			// Input first, this will work.
-			vert.data = Input.get().getClass(replace);
+			vert.name = replace;
+			// Children refer to the class by name
+			for (CVert child : vert.children) {
+				if (original.equals(child.superName)) {
+					child.superName = replace;
+				}
+				child.interfaces.replaceAll(inter -> inter.equals(original) ? replace : inter);
+			}
+			// Children updated to the new name before the class was renamed
+			// could not be linked to it.
+			if (waiting.containsKey(replace)) {
+				Set<CVert> affected = component(Collections.singleton(vert));
+				removeGroups(affected);
+				adopt(vert);
+				regroup(affected, component(Collections.singleton(vert)));
+			}
+		}
+		// Descriptors referring to the class now have different NameTypes
+		String descOriginal = "L" + original + ";";
+		String descReplace = "L" + replace + ";";
+		for (CVert other : new ArrayList<>(classes.values())) {
+			List<NameType> methods = null;
+			for (NameType method : other.methods) {
+				if (method.desc.contains(descOriginal)) {
+					if (methods == null) {
+						methods = new ArrayList<>(other.methods);
+					}
+					methods.set(other.methods.indexOf(method), new NameType(method.name, method.desc.replace(
+							descOriginal, descReplace)));
+				}
+			}
+			if (methods != null) {
+				updateClass(other.name, other.superName, other.interfaces, methods, false);
+			}
 		}
 	}
 
 	@Listener
-	private void onMethodRenamed(MethodRenameEvent rename) {
+	private synchronized void onMethodRenamed(MethodRenameEvent rename) {
 		// Get group from type
 		NameType type = type(rename.getOriginalName(), rename.getMethod().desc);
 		MGroup group = getGroup(type, rename.getOwner().name);
 		if (group == null) {
+			if (getGroup(type(rename.getNewName(), rename.getMethod().desc), rename.getOwner().name) != null) {
+				// The renamed classes were already moved to the groups of the
+				// new name when they were marked dirty.
+				return;
+			}
 			throw new RuntimeException("Failed to update method-hierarchy: Failed to get method-group");
 		}
-		// Rename group
+		// Update declared methods of the group's classes, then rename group
+		for (CVert definer : group.definers) {
+			for (NameType method : definer.methods) {
+				if (method.equals(type)) {
+					method.setName(rename.getNewName());
+				}
+			}
+		}
 		group.setName(rename.getNewName());
 	}
 
 	@Listener
 	private void onNewInput(NewInputEvent input) {
-		// Reset values
-		classes.clear();
-		groupMap.clear();
-		types.clear();
-		visitedGroupHosts.clear();
+		rebuild(input.get());
+	}
+
+	@Listener
+	private synchronized void onInputChange(InputChangeEvent change) {
+		// Classes were added, removed or changed on disk, or by undo / redo
+		Input input = change.getInput();
+		for (String name : change.getRemovedClasses()) {
+			removeClass(name);
+		}
+		for (String name : Iterables.concat(change.getAddedClasses(), change.getChangedClasses())) {
+			ClassSummary summary = input.getSummary(name);
+			if (summary == null) {
+				removeClass(name);
+				continue;
+			}
+			List<NameType> methods = new ArrayList<>();
+			for (Member method : summary.getMethods()) {
+				methods.add(new NameType(method.getName(), method.getDesc()));
+			}
+			updateClass(name, summary.getSuperName(), summary.getInterfaces(), methods, true);
+		}
+	}
+
+	@Listener
+	private synchronized void onClassDirty(ClassDirtyEvent event) {
+		ClassNode node = event.getNode();
+		List<NameType> methods = new ArrayList<>();
+		for (MethodNode method : node.methods) {
+			methods.add(new NameType(method.name, method.desc));
+		}
+		// Classes are only added by input changes. Unknown names are classes
+		// being renamed, updated once the rename is handled.
+		updateClass(node.name, node.superName, node.interfaces, methods, false);
+	}
+
+	/**
+	 * Update the parents and methods of a class, patching only the edges and
+	 * method-groups affected.
+	 * 
+	 * @param name
+	 *            Class name.
+	 * @param superName
+	 *            Name of the super-class.
+	 * @param interfaces
+	 *            Names of the interfaces.
+	 * @param methods
+	 *            Declared methods.
+	 * @param add
+	 *            {@code true} to add the class if it is not in the hierarchy.
+	 */
+	private void updateClass(String name, String superName, List<String> interfaces, List<NameType> methods,
+			boolean add) {
+		CVert vert = classes.get(name);
+		if (vert == null) {
+			if (add) {
+				vert = new CVert(name, superName, interfaces, methods);
+				classes.put(name, vert);
+				link(vert);
+				adopt(vert);
+				regroup(Collections.emptySet(), component(Collections.singleton(vert)));
+			}
+			return;
+		}
+		if (!Objects.equals(vert.superName, superName) || !vert.interfaces.equals(interfaces)) {
+			// Parents changed, the classes connected to the class before and
+			// after may be split or merged.
+			Set<CVert> before = component(Collections.singleton(vert));
+			removeGroups(before);
+			unlink(vert);
+			vert.superName = superName;
+			vert.interfaces.clear();
+			vert.interfaces.addAll(interfaces);
+			vert.methods.clear();
+			vert.methods.addAll(methods);
+			link(vert);
+			regroup(before, component(Collections.singleton(vert)));
+			return;
+		}
+		Set<String> current = new HashSet<>();
+		for (NameType method : methods) {
+			current.add(method.toString());
+		}
+		Set<String> previous = new HashSet<>();
+		for (NameType method : vert.methods) {
+			previous.add(method.toString());
+		}
+		if (current.equals(previous)) {
+			return;
+		}
+		// Methods removed or renamed leave their groups, the rest of the
+		// group stays connected.
+		for (NameType method : vert.methods) {
+			if (!current.contains(method.toString())) {
+				MGroup group = getGroup(method, name);
+				if (group != null) {
+					group.definers.remove(vert);
+					if (group.definers.isEmpty()) {
+						removeGroup(group);
+					}
+				}
+			}
+		}
+		vert.methods.clear();
+		vert.methods.addAll(methods);
+		// Methods added or renamed join the group of the connected classes
+		// declaring the same method.
+		Set<CVert> connected = null;
+		for (NameType method : methods) {
+			if (previous.contains(method.toString())) {
+				continue;
+			}
+			if (connected == null) {
+				connected = component(Collections.singleton(vert));
+			}
+			NameType type = type(method.name, method.desc);
+			MGroup group = null;
+			Set<MGroup> groups = groupMap.get(type.toString());
+			if (groups != null) {
+				for (MGroup other : groups) {
+					// All definers of a group are connected, checking one is
+					// enough.
+					if (!other.definers.isEmpty() && connected.contains(other.definers.iterator().next())) {
+						group = other;
+						break;
+					}
+				}
+			}
+			if (group == null) {
+				group = new MGroup(type);
+				group.locked = lockedTypes.contains(type.toString());
+				groupMap.computeIfAbsent(type.toString(), k -> new HashSet<>()).add(group);
+			}
+			group.definers.add(vert);
+		}
+	}
+
+	/**
+	 * Remove a class from the hierarchy. Its children are kept waiting, in
+	 * case a class by the name is added again.
+	 * 
+	 * @param name
+	 *            Class name.
+	 */
+	private void removeClass(String name) {
+		CVert vert = classes.get(name);
+		if (vert == null) {
+			return;
+		}
+		Set<CVert> before = component(Collections.singleton(vert));
+		removeGroups(before);
+		unlink(vert);
+		for (CVert child : vert.children) {
+			child.parents.remove(vert);
+			child.externalParents.add(name);
+			waiting.computeIfAbsent(name, k -> new HashSet<>()).add(child);
+		}
+		vert.children.clear();
+		classes.remove(name);
+		visitedGroupHosts.remove(vert);
+		before.remove(vert);
+		regroup(before, Collections.emptySet());
+	}
+
+	/**
+	 * Link a class to the children that were waiting for a class by its name.
+	 * 
+	 * @param vert
+	 *            Class vertex.
+	 */
+	private void adopt(CVert vert) {
+		Set<CVert> children = waiting.remove(vert.name);
+		if (children == null) {
+			return;
+		}
+		for (CVert child : children) {
+			child.externalParents.remove(vert.name);
+			child.parents.add(vert);
+			vert.children.add(child);
+		}
+	}
+
+	/**
+	 * Add edges from a class to its parents. Parents not in the input are
+	 * noted as external.
+	 * 
+	 * @param vert
+	 *            Class vertex.
+	 */
+	private void link(CVert vert) {
+		List<String> parents = new ArrayList<>(vert.interfaces);
+		parents.add(0, vert.superName);
+		for (String parent : parents) {
+			if (parent == null) {
+				continue;
+			}
+			CVert other = classes.get(parent);
+			if (other != null && other != vert) {
+				vert.parents.add(other);
+				other.children.add(vert);
+			} else {
+				// Could not find parent, note that for later.
+				vert.externalParents.add(parent);
+				waiting.computeIfAbsent(parent, k -> new HashSet<>()).add(vert);
+			}
+		}
+	}
+
+	/**
+	 * Remove edges from a class to its parents.
+	 * 
+	 * @param vert
+	 *            Class vertex.
+	 */
+	private void unlink(CVert vert) {
+		for (CVert parent : vert.parents) {
+			parent.children.remove(vert);
+		}
+		vert.parents.clear();
+		for (String external : vert.externalParents) {
+			Set<CVert> children = waiting.get(external);
+			if (children != null) {
+				children.remove(vert);
+				if (children.isEmpty()) {
+					waiting.remove(external);
+				}
+			}
+		}
+		vert.externalParents.clear();
+	}
+
+	/**
+	 * Regenerate the method-groups of classes connected to a changed class.
+	 * 
+	 * @param before
+	 *            Classes connected to the class before the change, their
+	 *            groups must already be removed.
+	 * @param after
+	 *            Classes connected to the class after the change.
+	 */
+	private void regroup(Set<CVert> before, Set<CVert> after) {
+		Set<CVert> joined = new HashSet<>(after);
+		joined.removeAll(before);
+		removeGroups(joined);
+		Set<CVert> affected = new HashSet<>(before);
+		affected.addAll(after);
+		visitedGroupHosts.removeAll(affected);
+		for (CVert vert : affected) {
+			createGroups(vert);
+		}
+		if (ConfASM.instance().doLockLibraryMethod()) {
+			for (CVert vert : affected) {
+				for (String external : vert.externalParents) {
+					lockExternal(external);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Remove the method-groups of the given classes.
+	 * 
+	 * @param verts
+	 *            Classes connected to each other.
+	 */
+	private void removeGroups(Set<CVert> verts) {
+		for (CVert vert : verts) {
+			for (NameType method : vert.methods) {
+				Set<MGroup> groups = groupMap.get(method.toString());
+				if (groups != null) {
+					groups.removeIf(group -> group.definers.contains(vert));
+					if (groups.isEmpty()) {
+						groupMap.remove(method.toString());
+					}
+				}
+			}
+		}
+	}
+
+	private void removeGroup(MGroup group) {
+		Set<MGroup> groups = groupMap.get(group.type.toString());
+		if (groups != null) {
+			groups.remove(group);
+			if (groups.isEmpty()) {
+				groupMap.remove(group.type.toString());
+			}
+		}
+	}
+
+	/**
+	 * @param roots
+	 *            Class vertices.
+	 * @return The classes and all classes connected to them by parent/child
+	 *         relations.
+	 */
+	private static Set<CVert> component(Collection<CVert> roots) {
+		Set<CVert> visited = new HashSet<>(roots);
+		Deque<CVert> queue = new LinkedList<>(roots);
+		while (!queue.isEmpty()) {
+			CVert node = queue.poll();
+			for (CVert other : Iterables.concat(node.parents, node.children)) {
+				if (visited.add(other)) {
+					queue.add(other);
+				}
+			}
+		}
+		return visited;
+	}
+
+	/**
+	 * Regenerate the hierarchy of all classes in the input.
+	 * 
+	 * @param input
+	 *            Input to generate the hierarchy of.
+	 */
+	private void rebuild(Input input) {
 		Threads.run(() -> {
-			try {
-				long start = System.currentTimeMillis();
-				status = LoadStatus.NONE;
-				Logging.info("Generating inheritence hierarchy");
-				setupVertices(input.get().getClasses());
-				setupEdges();
-				status = LoadStatus.CLASSES;
-				setupNameType();
-				setupMethodGroups();
-				setupMethodLocks();
-				status = LoadStatus.METHODS;
-				long now = System.currentTimeMillis();
-				Logging.info("Finished generating inheritence hierarchy: took " + (now - start) + "ms");
-			} catch (Exception e) {
-				Logging.error(e);
+			// Changes are applied once the hierarchy is generated
+			synchronized (this) {
+				try {
+					// Reset values
+					classes.clear();
+					groupMap.clear();
+					types.clear();
+					visitedGroupHosts.clear();
+					waiting.clear();
+					lockedTypes.clear();
+					lockedExternals.clear();
+					long start = System.currentTimeMillis();
+					status = LoadStatus.NONE;
+					Logging.info("Generating inheritence hierarchy");
+					setupVertices(input);
+					setupEdges();
+					status = LoadStatus.CLASSES;
+					setupNameType();
+					setupMethodGroups();
+					setupMethodLocks();
+					status = LoadStatus.METHODS;
+					long now = System.currentTimeMillis();
+					Logging.info("Finished generating inheritence hierarchy: took " + (now - start) + "ms");
+				} catch (Exception e) {
+					Logging.error(e);
+				}
 			}
 		});
 	}
 
 	/**
-	 * Setup CVert lookup for all ClassNodes.
+	 * Setup CVert lookup for all classes.
 	 * 
-	 * @param nodes
-	 *            Map of ClassNodes.
+	 * @param input
+	 *            Input to read class summaries from.
 	 */
-	private void setupVertices(Map<String, ClassNode> nodes) {
+	private void setupVertices(Input input) {
 		ExecutorService pool = Threads.pool(Threads.PoolKind.IO);
-		// Typically iterating the keyset and fetching the value is a bad idea.
-		// But due to the nature of lazy-loading and the ability to multithread
-		// the loads, this should be faster.
-		for (String name : nodes.keySet()) {
+		// Summaries are either stored in the workspace index, or read without
+		// building full ClassNodes. Either way they can be fetched in
+		// parallel.
+		for (String name : input.classes) {
 			pool.execute(() -> {
-				ClassNode cn = nodes.get(name);
-				classes.put(cn.name, new CVert(cn));
+				ClassSummary summary = input.getSummary(name);
+				if (summary != null) {
+					classes.put(summary.getName(), new CVert(summary));
+				}
 			});
 		}
 		Threads.waitForCompletion(pool);
@@ -212,30 +603,11 @@ public enum Hierarchy {
 
 	/**
 	 * Setup parent-child relations in the {@link #classes CVert map} based on
-	 * superclass/interface relations of the wrapped ClassNode value.
+	 * superclass/interface relations of the summarized classes.
 	 */
 	private void setupEdges() {
 		for (CVert vert : classes.values()) {
-			// Get superclass vertex
-			CVert other = classes.get(vert.data.superName);
-			if (other != null) {
-				vert.parents.add(other);
-				other.children.add(vert);
-			} else {
-				// Could not find superclass, note that for later.
-				vert.externalParents.add(vert.data.superName);
-			}
-			// Iterate interfaces, get interface vertex and do the same
-			for (String inter : vert.data.interfaces) {
-				other = classes.get(inter);
-				if (other != null) {
-					vert.parents.add(other);
-					other.children.add(vert);
-				} else {
-					// Could not find superclass, note that for later.
-					vert.externalParents.add(inter);
-				}
-			}
+			link(vert);
 		}
 	}
 
@@ -244,8 +616,8 @@ public enum Hierarchy {
 	 */
 	private void setupNameType() {
 		for (CVert vert : classes.values()) {
-			for (MethodNode mn : vert.data.methods) {
-				type(mn);
+			for (NameType method : vert.methods) {
+				type(method.name, method.desc);
 			}
 		}
 	}
@@ -280,11 +652,12 @@ public enum Hierarchy {
 			visitedGroupHosts.add(node);
 			// Iterate over methods, fetch the group by the NameType and then
 			// add the current vertext to the group.
-			for (MethodNode mn : node.data.methods) {
-				NameType type = type(mn);
+			for (NameType method : node.methods) {
+				NameType type = type(method.name, method.desc);
 				MGroup group = typeGroups.get(type);
 				if (group == null) {
 					group = new MGroup(type);
+					group.locked = lockedTypes.contains(type.toString());
 					typeGroups.put(type, group);
 				}
 				group.definers.add(node);
@@ -357,37 +730,42 @@ public enum Hierarchy {
 		}
 		ExecutorService pool = Threads.pool(Threads.PoolKind.LOGIC);
 		for (String external : externalRefs) {
-			pool.execute(() -> {
-				String className = external.replace("/", ".");
-				try {
-					// Load class without initialization
-					Class<?> cls = Class.forName(className, false, ClassLoader.getSystemClassLoader());
-					for (Method method : cls.getDeclaredMethods()) {
-						// Get NameType from method
-						String name = method.getName();
-						String desc = Type.getMethodDescriptor(method).toString();
-						NameType type = type(name, desc);
-						// Lock groups
-						Set<MGroup> groups = groupMap.get(type.toString());
-						if (groups != null) {
-							for (MGroup group : groups) {
-								group.locked = true;
-							}
-						}
-					}
-				} catch (Exception e) {}
-			});
+			pool.execute(() -> lockExternal(external));
 		}
 		Threads.waitForCompletion(pool);
 	}
 
 	/**
-	 * @param mn
-	 *            MethodNode.
-	 * @return NameType of MethodNode.
+	 * Check the methods of an external class via Reflection, and lock all
+	 * groups with matching NameTypes. Groups created later with these
+	 * NameTypes are locked as well.
+	 * 
+	 * @param external
+	 *            Name of a class not in the input.
 	 */
-	private NameType type(MethodNode mn) {
-		return type(mn.name + mn.desc, mn.name, mn.desc);
+	private void lockExternal(String external) {
+		if (!lockedExternals.add(external)) {
+			return;
+		}
+		String className = external.replace("/", ".");
+		try {
+			// Load class without initialization
+			Class<?> cls = Class.forName(className, false, ClassLoader.getSystemClassLoader());
+			for (Method method : cls.getDeclaredMethods()) {
+				// Get NameType from method
+				String name = method.getName();
+				String desc = Type.getMethodDescriptor(method).toString();
+				NameType type = type(name, desc);
+				lockedTypes.add(type.toString());
+				// Lock groups
+				Set<MGroup> groups = groupMap.get(type.toString());
+				if (groups != null) {
+					for (MGroup group : groups) {
+						group.locked = true;
+					}
+				}
+			}
+		} catch (Exception e) {}
 	}
 
 	/**
@@ -428,7 +806,8 @@ public enum Hierarchy {
 	}
 
 	/**
-	 * Class Vertex. Edges denote parent/child relations.
+	 * Class Vertex. Edges denote parent/child relations. Built from a class
+	 * summary, so the hierarchy never holds on to ClassNodes.
 	 * 
 	 * @author Matt
 	 */
@@ -436,20 +815,30 @@ public enum Hierarchy {
 		final Set<String> externalParents = new HashSet<>();
 		final Set<CVert> parents = new HashSet<>();
 		final Set<CVert> children = new HashSet<>();
-		ClassNode data;
-
-		CVert(ClassNode data) {
-			this.data = data;
+		final List<String> interfaces;
+		final List<NameType> methods = new ArrayList<>();
+		String superName;
+		String name;
+
+		CVert(ClassSummary data) {
+			this.name = data.getName();
+			this.superName = data.getSuperName();
+			this.interfaces = new ArrayList<>(data.getInterfaces());
+			for (Member method : data.getMethods()) {
+				methods.add(new NameType(method.getName(), method.getDesc()));
+			}
 		}
 
-		@Override
-		public int hashCode() {
-			return Objects.hashCode(data.name);
+		CVert(String name, String superName, List<String> interfaces, List<NameType> methods) {
+			this.name = name;
+			this.superName = superName;
+			this.interfaces = new ArrayList<>(interfaces);
+			this.methods.addAll(methods);
 		}
 
 		@Override
 		public String toString() {
-			return data.name;
+			return name;
 		}
 	}
 
@@ -0,0 +1,398 @@
+package me.coley.recaf.bytecode.analysis;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.objectweb.asm.AnnotationVisitor;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.FieldVisitor;
+import org.objectweb.asm.Label;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.TypePath;
+import org.objectweb.asm.commons.ClassRemapper;
+import org.objectweb.asm.commons.Remapper;
+
+/**
+ * Index from classes, fields and methods to the classes that reference them.
+ * Lets renames remap only the classes that mention the renamed name, instead
+ * of every class in the input.
+ * <hr>
+ * References are collected by running a {@link ClassRemapper} that maps every
+ * name to itself, so a class is indexed as referencing exactly the names a
+ * rename's remapper would be asked about. Fields are keyed by owner, name and
+ * descriptor. Methods are keyed by name and descriptor only, since linked
+ * renaming also updates references through other classes of the hierarchy.
+ *
+ * @author Matt
+ */
+public class ReferenceIndex {
+	/**
+	 * Key: Name of indexed class.<br>
+	 * Value: Id of the class in the referrer lists.
+	 */
+	private final Map<String, Integer> ids = new HashMap<>();
+	/**
+	 * Names of indexed classes, by id.
+	 */
+	private String[] names = new String[1024];
+	/**
+	 * Ids of removed classes, reused before new ids are assigned so the name
+	 * table does not grow with each rename or reload.
+	 */
+	private int[] free = new int[16];
+	private int freeCount;
+	/**
+	 * Next id that has never been assigned.
+	 */
+	private int nextId;
+	private final Map<String, Referrers> classRefs = new HashMap<>();
+	private final Map<String, Referrers> fieldRefs = new HashMap<>();
+	private final Map<String, Referrers> methodRefs = new HashMap<>();
+	/**
+	 * Key: Name of indexed class.<br>
+	 * Value: Referrer lists the class is in, so it can be removed again.
+	 */
+	private final Map<String, Referrers[]> indexed = new HashMap<>();
+
+	/**
+	 * @param value
+	 *            Class file bytes.
+	 * @return Names referenced by the class, including its own declarations.
+	 */
+	public static References scan(byte[] value) {
+		References refs = new References();
+		ClassVisitor sink = new ClassSink();
+		new ClassReader(value).accept(new ClassRemapper(sink, new Remapper() {
+			@Override
+			public String map(String internalName) {
+				refs.classes.add(internalName);
+				return internalName;
+			}
+
+			@Override
+			public String mapFieldName(String owner, String name, String descriptor) {
+				refs.fields.add(fieldKey(owner, name, descriptor));
+				return name;
+			}
+
+			@Override
+			public String mapMethodName(String owner, String name, String descriptor) {
+				refs.methods.add(methodKey(name, descriptor));
+				return name;
+			}
+		}), 0);
+		return refs;
+	}
+
+	/**
+	 * Index a class, replacing what was previously indexed for it.
+	 *
+	 * @param name
+	 *            Name of class.
+	 * @param refs
+	 *            Names referenced by the class.
+	 */
+	public synchronized void update(String name, References refs) {
+		remove(name);
+		int id = id(name);
+		Referrers[] lists = new Referrers[refs.classes.size() + refs.fields.size() + refs.methods.size()];
+		int i = 0;
+		i = add(classRefs, refs.classes, id, lists, i);
+		i = add(fieldRefs, refs.fields, id, lists, i);
+		add(methodRefs, refs.methods, id, lists, i);
+		indexed.put(name, lists);
+	}
+
+	/**
+	 * Index a class only if it is not indexed yet. Used when indexing from
+	 * content that may have been replaced while it was being scanned.
+	 *
+	 * @param name
+	 *            Name of class.
+	 * @param refs
+	 *            Names referenced by the class.
+	 */
+	public synchronized void updateIfAbsent(String name, References refs) {
+		if (!indexed.containsKey(name)) {
+			update(name, refs);
+		}
+	}
+
+	/**
+	 * @param name
+	 *            Name of class to drop from the index.
+	 */
+	public synchronized void remove(String name) {
+		Referrers[] lists = indexed.remove(name);
+		if (lists == null) {
+			return;
+		}
+		int id = ids.remove(name);
+		for (Referrers list : lists) {
+			list.remove(id);
+		}
+		names[id] = null;
+		if (freeCount == free.length) {
+			free = Arrays.copyOf(free, freeCount * 2);
+		}
+		free[freeCount++] = id;
+	}
+
+	/**
+	 * @param name
+	 *            Name of class.
+	 * @return {@code true} if the class is indexed.
+	 */
+	public synchronized boolean contains(String name) {
+		return indexed.containsKey(name);
+	}
+
+	/**
+	 * Drop all indexed classes.
+	 */
+	public synchronized void clear() {
+		ids.clear();
+		names = new String[1024];
+		freeCount = 0;
+		nextId = 0;
+		classRefs.clear();
+		fieldRefs.clear();
+		methodRefs.clear();
+		indexed.clear();
+	}
+
+	/**
+	 * @param name
+	 *            Internal name of a class.
+	 * @return Names of indexed classes referencing the class.
+	 */
+	public synchronized Set<String> getClassReferences(String name) {
+		return names(classRefs.get(name));
+	}
+
+	/**
+	 * @param owner
+	 *            Internal name of the field's owner.
+	 * @param name
+	 *            Field name.
+	 * @param desc
+	 *            Field descriptor.
+	 * @return Names of indexed classes declaring or referencing the field.
+	 */
+	public synchronized Set<String> getFieldReferences(String owner, String name, String desc) {
+		return names(fieldRefs.get(fieldKey(owner, name, desc)));
+	}
+
+	/**
+	 * @param name
+	 *            Method name.
+	 * @param desc
+	 *            Method descriptor.
+	 * @return Names of indexed classes declaring or referencing a method of
+	 *         the given name and descriptor, in any class.
+	 */
+	public synchronized Set<String> getMethodReferences(String name, String desc) {
+		return names(methodRefs.get(methodKey(name, desc)));
+	}
+
+	private int id(String name) {
+		Integer id = ids.get(name);
+		if (id == null) {
+			if (freeCount > 0) {
+				id = free[--freeCount];
+			} else {
+				id = nextId++;
+				if (id == names.length) {
+					names = Arrays.copyOf(names, id * 2);
+				}
+			}
+			ids.put(name, id);
+			names[id] = name;
+		}
+		return id;
+	}
+
+	private static int add(Map<String, Referrers> map, Set<String> keys, int id, Referrers[] lists, int i) {
+		for (String key : keys) {
+			Referrers list = map.get(key);
+			if (list == null) {
+				list = new Referrers(key, map);
+				map.put(key, list);
+			}
+			list.add(id);
+			lists[i++] = list;
+		}
+		return i;
+	}
+
+	private Set<String> names(Referrers list) {
+		if (list == null) {
+			return new HashSet<>();
+		}
+		Set<String> set = new HashSet<>(list.size * 2);
+		for (int i = 0; i < list.size; i++) {
+			set.add(names[list.ids[i]]);
+		}
+		return set;
+	}
+
+	private static String fieldKey(String owner, String name, String desc) {
+		return owner + '.' + name + ' ' + desc;
+	}
+
+	private static String methodKey(String name, String desc) {
+		return name + desc;
+	}
+
+	/**
+	 * Names referenced by a class.
+	 *
+	 * @author Matt
+	 */
+	public static class References {
+		private final Set<String> classes = new HashSet<>();
+		private final Set<String> fields = new HashSet<>();
+		private final Set<String> methods = new HashSet<>();
+	}
+
+	/**
+	 * Ids of classes referencing a name. Order is not kept, so removal can
+	 * move the last id into the freed slot.
+	 *
+	 * @author Matt
+	 */
+	private static class Referrers {
+		private final String key;
+		private final Map<String, Referrers> map;
+		private int[] ids = new int[4];
+		private int size;
+
+		private Referrers(String key, Map<String, Referrers> map) {
+			this.key = key;
+			this.map = map;
+		}
+
+		private void add(int id) {
+			if (size == ids.length) {
+				ids = Arrays.copyOf(ids, size * 2);
+			}
+			ids[size++] = id;
+		}
+
+		private void remove(int id) {
+			for (int i = 0; i < size; i++) {
+				if (ids[i] == id) {
+					ids[i] = ids[--size];
+					break;
+				}
+			}
+			if (size == 0) {
+				map.remove(key);
+			}
+		}
+	}
+
+	/**
+	 * Visits everything so the remapper is asked about every name, but keeps
+	 * nothing.
+	 *
+	 * @author Matt
+	 */
+	private static class ClassSink extends ClassVisitor {
+		private static final AnnotationVisitor ANNO = new AnnotationVisitor(Opcodes.ASM7) {
+			@Override
+			public AnnotationVisitor visitAnnotation(String name, String descriptor) {
+				return this;
+			}
+
+			@Override
+			public AnnotationVisitor visitArray(String name) {
+				return this;
+			}
+		};
+		private static final FieldVisitor FIELD = new FieldVisitor(Opcodes.ASM7) {
+			@Override
+			public AnnotationVisitor visitAnnotation(String descriptor, boolean visible) {
+				return ANNO;
+			}
+
+			@Override
+			public AnnotationVisitor visitTypeAnnotation(int typeRef, TypePath typePath, String descriptor,
+					boolean visible) {
+				return ANNO;
+			}
+		};
+		private static final MethodVisitor METHOD = new MethodVisitor(Opcodes.ASM7) {
+			@Override
+			public AnnotationVisitor visitAnnotationDefault() {
+				return ANNO;
+			}
+
+			@Override
+			public AnnotationVisitor visitAnnotation(String descriptor, boolean visible) {
+				return ANNO;
+			}
+
+			@Override
+			public AnnotationVisitor visitTypeAnnotation(int typeRef, TypePath typePath, String descriptor,
+					boolean visible) {
+				return ANNO;
+			}
+
+			@Override
+			public AnnotationVisitor visitParameterAnnotation(int parameter, String descriptor, boolean visible) {
+				return ANNO;
+			}
+
+			@Override
+			public AnnotationVisitor visitInsnAnnotation(int typeRef, TypePath typePath, String descriptor,
+					boolean visible) {
+				return ANNO;
+			}
+
+			@Override
+			public AnnotationVisitor visitTryCatchAnnotation(int typeRef, TypePath typePath, String descriptor,
+					boolean visible) {
+				return ANNO;
+			}
+
+			@Override
+			public AnnotationVisitor visitLocalVariableAnnotation(int typeRef, TypePath typePath,
+					Label[] start, Label[] end, int[] index, String descriptor,
+					boolean visible) {
+				return ANNO;
+			}
+		};
+
+		private ClassSink() {
+			super(Opcodes.ASM7);
+		}
+
+		@Override
+		public AnnotationVisitor visitAnnotation(String descriptor, boolean visible) {
+			return ANNO;
+		}
+
+		@Override
+		public AnnotationVisitor visitTypeAnnotation(int typeRef, TypePath typePath, String descriptor,
+				boolean visible) {
+			return ANNO;
+		}
+
+		@Override
+		public FieldVisitor visitField(int access, String name, String descriptor, String signature, Object value) {
+			return FIELD;
+		}
+
+		@Override
+		public MethodVisitor visitMethod(int access, String name, String descriptor, String signature,
+				String[] exceptions) {
+			return METHOD;
+		}
+	}
+}
@@ -1,12 +1,20 @@
 package me.coley.recaf.bytecode.analysis;
 
-import java.io.PrintWriter;
-import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javafx.scene.image.Image;
 import jregex.Matcher;
 import jregex.Pattern;
 
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.Opcodes;
 import org.objectweb.asm.tree.*;
 import org.objectweb.asm.tree.analysis.Analyzer;
 import org.objectweb.asm.tree.analysis.AnalyzerException;
@@ -15,9 +23,11 @@ import org.objectweb.asm.util.*;
 
 import me.coley.recaf.Input;
 import me.coley.recaf.Logging;
+import me.coley.recaf.bytecode.OpcodeUtil;
 import me.coley.recaf.ui.FxCode;
 import me.coley.recaf.util.Icons;
 import me.coley.recaf.util.Lang;
+import me.coley.recaf.util.Threads;
 
 public class Verify {
 	//@formatter:off
@@ -79,21 +89,17 @@ public class Verify {
 	/**
 	 * Verify correctness of a ClassNode. Since this is expected to be used in a
 	 * wide-scope, this does not gather extra information about errors that
-	 * {@link #checkValid(MethodNode)} would.
+	 * {@link #checkValid(String, MethodNode)} would.
 	 * 
 	 * @param clazz
 	 *            The ClassNode to check.
 	 * @return Check if this class has passed verification.
 	 */
 	public static VerifyResults checkValid(ClassNode clazz) {
-		StringWriter sw = new StringWriter();
 		Exception ex = null;
 		try {
-			PrintWriter printer = new PrintWriter(sw);
-			TraceClassVisitor trace = new TraceClassVisitor(printer);
-			CheckClassAdapter check = new CheckClassAdapter(trace);
-			clazz.accept(check);
-		} catch (IllegalArgumentException e) {
+			clazz.accept(new CheckClassAdapter(new ClassVisitor(Opcodes.ASM7) {}, false));
+		} catch (IllegalArgumentException | IllegalStateException e) {
 			// Thrown by CheckClassAdapter
 			ex = e;
 		} catch (Exception e) {
@@ -104,24 +110,219 @@ public class Verify {
 	}
 
 	/**
-	 * @return Check if the current Input instance is valid.
+	 * Verify classes in parallel. Each class is checked for structural
+	 * problems, and each of its methods is analyzed for type and stack
+	 * errors. Checking continues past failures, so the report holds every
+	 * problem found.
+	 * 
+	 * @param names
+	 *            Names of classes to check.
+	 * @return Report of all failures.
+	 */
+	public static VerifyReport verify(Collection<String> names) {
+		Input in = Input.get();
+		ConcurrentLinkedQueue<VerifyFailure> failures = new ConcurrentLinkedQueue<>();
+		AtomicInteger methods = new AtomicInteger();
+		ExecutorService pool = Threads.pool(Threads.PoolKind.LOGIC);
+		for (String name : names) {
+			pool.execute(() -> {
+				try {
+					methods.addAndGet(verify(in.getClass(name), failures));
+				} catch (Exception e) {
+					failures.add(new VerifyFailure(name, null, -1, null, "Could not load class: " + e));
+				}
+			});
+		}
+		Threads.waitForCompletion(pool);
+		return new VerifyReport(names.size(), methods.get(), new ArrayList<>(failures));
+	}
+
+	/**
+	 * @param clazz
+	 *            The ClassNode to check.
+	 * @return Report of all failures in the class.
+	 */
+	public static VerifyReport verify(ClassNode clazz) {
+		List<VerifyFailure> failures = new ArrayList<>();
+		int methods = verify(clazz, failures);
+		return new VerifyReport(1, methods, failures);
+	}
+
+	/**
+	 * @param clazz
+	 *            The ClassNode to check.
+	 * @param failures
+	 *            Collection to add failures to.
+	 * @return Number of methods analyzed.
+	 */
+	private static int verify(ClassNode clazz, Collection<VerifyFailure> failures) {
+		VerifyResults structure = checkValid(clazz);
+		if (!structure.valid()) {
+			failures.add(new VerifyFailure(clazz.name, null, -1, null, structure.ex.getMessage()));
+		}
+		Analyzer<?> analyzer = new Analyzer<>(new BasicVerifier());
+		int methods = 0;
+		for (MethodNode method : clazz.methods) {
+			if (method.instructions.size() == 0) {
+				continue;
+			}
+			methods++;
+			try {
+				analyzer.analyze(clazz.name, method);
+			} catch (AnalyzerException e) {
+				int index = e.node == null ? -1 : method.instructions.indexOf(e.node);
+				// The analyzer prefixes the cause with the instruction index,
+				// which the failure already holds.
+				Throwable cause = e.getCause() != null && e.getCause().getMessage() != null ? e.getCause() : e;
+				failures.add(new VerifyFailure(clazz.name, method, index, e.node, cause.getMessage()));
+			} catch (Exception e) {
+				// Malformed code the analyzer does not expect, such as
+				// instructions referring to missing labels.
+				failures.add(new VerifyFailure(clazz.name, method, -1, null, e.toString()));
+			}
+		}
+		return methods;
+	}
+
+	/**
+	 * @return Check if the current Input instance is valid. If not, a window
+	 *         listing every failure is shown.
 	 */
 	public static boolean isValid() {
+		VerifyReport report;
 		try {
 			Input in = Input.get();
-			for (String name : in.getModifiedClasses()) {
-				VerifyResults res = checkValid(in.getClass(name));
-				if (!res.valid()) {
-					res.showWindow();
-					return false;
-				}
-			}
+			report = verify(in.getModifiedClasses());
 		} catch (Exception e) {
 			return false;
 		}
+		if (!report.isValid()) {
+			Logging.error(report.getFailures().size() + " verification failures in " + report.getClassCount()
+					+ " modified classes");
+			new FxVerify(report.toString()).show();
+			return false;
+		}
 		return true;
 	}
 
+	/**
+	 * Results of verifying a set of classes.
+	 */
+	public static class VerifyReport {
+		private final int classes;
+		private final int methods;
+		private final List<VerifyFailure> failures;
+
+		public VerifyReport(int classes, int methods, List<VerifyFailure> failures) {
+			this.classes = classes;
+			this.methods = methods;
+			this.failures = new ArrayList<>(failures);
+			// Threads finish in any order, keep reports stable.
+			this.failures.sort(Comparator.comparing((VerifyFailure f) -> f.owner).thenComparing(f -> f.method == null
+					? ""
+					: f.method.name + f.method.desc).thenComparingInt(f -> f.index));
+		}
+
+		/**
+		 * @return Number of classes checked.
+		 */
+		public int getClassCount() {
+			return classes;
+		}
+
+		/**
+		 * @return Number of methods analyzed.
+		 */
+		public int getMethodCount() {
+			return methods;
+		}
+
+		/**
+		 * @return All failures, ordered by owner, method and instruction.
+		 */
+		public List<VerifyFailure> getFailures() {
+			return Collections.unmodifiableList(failures);
+		}
+
+		/**
+		 * @return {@code true} if no failures were found.
+		 */
+		public boolean isValid() {
+			return failures.isEmpty();
+		}
+
+		@Override
+		public String toString() {
+			StringBuilder sb = new StringBuilder();
+			String last = null;
+			for (VerifyFailure failure : failures) {
+				String location = failure.getLocation();
+				if (!location.equals(last)) {
+					sb.append(location).append('\n');
+					last = location;
+				}
+				sb.append("    ").append(failure.describeInsn()).append(failure.message).append('\n');
+			}
+			return sb.toString();
+		}
+	}
+
+	/**
+	 * Single verification failure.
+	 */
+	public static class VerifyFailure {
+		/**
+		 * Name of the class that failed.
+		 */
+		public final String owner;
+		/**
+		 * Method that failed, {@code null} if the failure is not tied to a
+		 * method.
+		 */
+		public final MethodNode method;
+		/**
+		 * Index of the failing instruction in the method, {@code -1} if
+		 * unknown.
+		 */
+		public final int index;
+		/**
+		 * Failing instruction, {@code null} if unknown.
+		 */
+		public final AbstractInsnNode insn;
+		/**
+		 * Description of the failure.
+		 */
+		public final String message;
+
+		public VerifyFailure(String owner, MethodNode method, int index, AbstractInsnNode insn, String message) {
+			this.owner = owner;
+			this.method = method;
+			this.index = index;
+			this.insn = insn;
+			this.message = message;
+		}
+
+		/**
+		 * @return Owner, and method if known, of the failure.
+		 */
+		public String getLocation() {
+			return method == null ? owner : owner + "." + method.name + method.desc;
+		}
+
+		private String describeInsn() {
+			if (index < 0) {
+				return "";
+			}
+			String op = insn == null || insn.getOpcode() < 0 ? "?" : OpcodeUtil.opcodeToName(insn.getOpcode());
+			return String.format("%05d %s: ", index, op);
+		}
+
+		@Override
+		public String toString() {
+			return getLocation() + " " + describeInsn() + message;
+		}
+	}
+
 	public static class VerifyResults {
 		/**
 		 * Exception thrown by verifier. {@code null} if verification was a
@@ -0,0 +1,315 @@
+package me.coley.recaf.bytecode.mapping;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import me.coley.recaf.Logging;
+
+/**
+ * Supported mapping file formats. Each maps the names found in the input to
+ * new names.
+ *
+ * @author Matt
+ */
+public enum MappingFormat {
+	/**
+	 * ProGuard {@code mapping.txt}. Maps original names to obfuscated names,
+	 * so it is applied in reverse to restore the original names.
+	 */
+	PROGUARD {
+		@Override
+		void parse(List<String> lines, Mappings mappings) throws IOException {
+			// Member types use original names, but must be looked up by the
+			// obfuscated names found in the input.
+			Map<String, String> obfuscated = new HashMap<>();
+			for (String line : lines) {
+				if (!line.isEmpty() && !Character.isWhitespace(line.charAt(0)) && !line.startsWith("#")) {
+					line = line.trim();
+					String[] parts = line.substring(0, line.length() - 1).split(" -> ");
+					if (parts.length != 2) {
+						continue;
+					}
+					obfuscated.put(internal(parts[0]), internal(parts[1]));
+				}
+			}
+			String owner = null;
+			for (int i = 0; i < lines.size(); i++) {
+				String line = lines.get(i).trim();
+				if (line.isEmpty() || line.startsWith("#")) {
+					continue;
+				}
+				String[] parts = line.split(" -> ");
+				if (parts.length != 2) {
+					throw malformed(this, i, line);
+				}
+				if (!Character.isWhitespace(lines.get(i).charAt(0))) {
+					// com.example.Foo -> a:
+					owner = internal(parts[1].substring(0, parts[1].length() - 1));
+					mappings.addClass(owner, internal(parts[0]));
+					continue;
+				}
+				if (owner == null) {
+					throw malformed(this, i, line);
+				}
+				// [1:2:]type name[(args)[:3:4]] -> obfName
+				String member = parts[0].replaceFirst("^\\d+:\\d+:", "");
+				int space = member.indexOf(' ');
+				if (space < 0) {
+					throw malformed(this, i, line);
+				}
+				String type = desc(member.substring(0, space), obfuscated);
+				String name = member.substring(space + 1);
+				int open = name.indexOf('(');
+				if ((open < 0 ? name : name.substring(0, open)).indexOf('.') >= 0) {
+					// Frame of a method inlined from another class, such as
+					// "1:3:void com.other.Cls.inlined():5:7 -> a"
+					continue;
+				}
+				if (open < 0) {
+					mappings.addField(owner, parts[1], type, name);
+					continue;
+				}
+				int close = name.indexOf(')');
+				StringBuilder desc = new StringBuilder("(");
+				String args = name.substring(open + 1, close);
+				if (!args.isEmpty()) {
+					for (String arg : args.split(",")) {
+						desc.append(desc(arg, obfuscated));
+					}
+				}
+				desc.append(')').append(type);
+				mappings.addMethod(owner, parts[1], desc.toString(), name.substring(0, open));
+			}
+		}
+	},
+	/**
+	 * SRG, with {@code CL:}, {@code FD:} and {@code MD:} lines.
+	 */
+	SRG {
+		@Override
+		void parse(List<String> lines, Mappings mappings) throws IOException {
+			for (int i = 0; i < lines.size(); i++) {
+				String line = lines.get(i).trim();
+				if (line.isEmpty() || line.startsWith("#")) {
+					continue;
+				}
+				String[] parts = line.split(" ");
+				if (line.startsWith("CL: ") && parts.length >= 3) {
+					mappings.addClass(parts[1], parts[2]);
+				} else if (line.startsWith("FD: ") && parts.length >= 3) {
+					int split = parts[1].lastIndexOf('/');
+					mappings.addField(parts[1].substring(0, split), parts[1].substring(split + 1), null, parts[2]
+							.substring(parts[2].lastIndexOf('/') + 1));
+				} else if (line.startsWith("MD: ") && parts.length >= 4) {
+					int split = parts[1].lastIndexOf('/');
+					mappings.addMethod(parts[1].substring(0, split), parts[1].substring(split + 1), parts[2],
+							parts[3].substring(parts[3].lastIndexOf('/') + 1));
+				} else if (!line.startsWith("PK: ")) {
+					throw malformed(this, i, line);
+				}
+			}
+		}
+	},
+	/**
+	 * TSRG, with members indented below their class.
+	 */
+	TSRG {
+		@Override
+		void parse(List<String> lines, Mappings mappings) throws IOException {
+			String owner = null;
+			for (int i = 0; i < lines.size(); i++) {
+				String raw = lines.get(i);
+				String line = raw.trim();
+				if (line.isEmpty() || line.startsWith("#") || line.startsWith("tsrg2 ") || raw.startsWith("\t\t")) {
+					// Header, parameters and other member details
+					continue;
+				}
+				String[] parts = line.split(" ");
+				if (parts.length < 2) {
+					throw malformed(this, i, line);
+				}
+				if (!Character.isWhitespace(raw.charAt(0))) {
+					owner = parts[0];
+					mappings.addClass(owner, parts[1]);
+				} else if (owner == null) {
+					throw malformed(this, i, line);
+				} else if (parts.length == 2) {
+					mappings.addField(owner, parts[0], null, parts[1]);
+				} else if (parts[1].startsWith("(")) {
+					mappings.addMethod(owner, parts[0], parts[1], parts[2]);
+				} else {
+					mappings.addField(owner, parts[0], parts[1], parts[2]);
+				}
+			}
+		}
+	},
+	/**
+	 * Tiny, version 1 or 2. Maps from the first namespace to the second.
+	 */
+	TINY {
+		@Override
+		void parse(List<String> lines, Mappings mappings) throws IOException {
+			boolean v2 = lines.get(0).startsWith("tiny\t");
+			String owner = null;
+			for (int i = 1; i < lines.size(); i++) {
+				String line = lines.get(i);
+				if (line.trim().isEmpty() || line.startsWith("#") || line.startsWith("\t\t")) {
+					// Comments, parameters and locals
+					continue;
+				}
+				String[] parts = line.trim().split("\t");
+				if (!v2) {
+					// CLASS a b / FIELD owner desc a b / METHOD owner desc a b
+					if (parts[0].equals("CLASS") && parts.length >= 3) {
+						mappings.addClass(parts[1], parts[2]);
+					} else if (parts[0].equals("FIELD") && parts.length >= 5) {
+						mappings.addField(parts[1], parts[3], parts[2], parts[4]);
+					} else if (parts[0].equals("METHOD") && parts.length >= 5) {
+						mappings.addMethod(parts[1], parts[3], parts[2], parts[4]);
+					} else {
+						throw malformed(this, i, line);
+					}
+				} else if (!line.startsWith("\t")) {
+					// c a b
+					if (!parts[0].equals("c") || parts.length < 3) {
+						throw malformed(this, i, line);
+					}
+					owner = parts[1];
+					mappings.addClass(owner, parts[2]);
+				} else if (owner != null && parts.length >= 4 && parts[0].equals("f")) {
+					mappings.addField(owner, parts[2], parts[1], parts[3]);
+				} else if (owner != null && parts.length >= 4 && parts[0].equals("m")) {
+					mappings.addMethod(owner, parts[2], parts[1], parts[3]);
+				} else if (!parts[0].equals("c")) {
+					// Class comments are the only other member-level line
+					throw malformed(this, i, line);
+				}
+			}
+		}
+	},
+	/**
+	 * Simple {@code name,newName} pairs. Classes are given by internal name,
+	 * fields as {@code owner.name} and methods as {@code owner.name(desc)}.
+	 */
+	CSV {
+		@Override
+		void parse(List<String> lines, Mappings mappings) throws IOException {
+			for (int i = 0; i < lines.size(); i++) {
+				String line = lines.get(i).trim();
+				if (line.isEmpty() || line.startsWith("#")) {
+					continue;
+				}
+				String[] parts = line.split(",");
+				if (parts.length != 2) {
+					throw malformed(this, i, line);
+				}
+				String name = parts[0].trim();
+				String newName = parts[1].trim();
+				int open = name.indexOf('(');
+				int dot = open < 0 ? name.lastIndexOf('.') : name.lastIndexOf('.', open);
+				if (dot < 0) {
+					mappings.addClass(name, newName);
+				} else if (open < 0) {
+					mappings.addField(name.substring(0, dot), name.substring(dot + 1), null, newName);
+				} else {
+					mappings.addMethod(name.substring(0, dot), name.substring(dot + 1, open), name.substring(open),
+							newName);
+				}
+			}
+		}
+	};
+
+	/**
+	 * @param lines
+	 *            Lines of a mapping file.
+	 * @param mappings
+	 *            Mappings to add to.
+	 * @throws IOException
+	 *             Thrown if a line is malformed.
+	 */
+	abstract void parse(List<String> lines, Mappings mappings) throws IOException;
+
+	/**
+	 * @param lines
+	 *            Lines of a mapping file.
+	 * @return Format of the file, {@code null} if the format is unknown.
+	 */
+	public static MappingFormat detect(List<String> lines) {
+		for (String line : lines) {
+			if (line.trim().isEmpty() || line.startsWith("#")) {
+				continue;
+			}
+			if (line.startsWith("v1\t") || line.startsWith("tiny\t")) {
+				return TINY;
+			} else if (line.matches("^(PK|CL|FD|MD): .*")) {
+				return SRG;
+			} else if (line.contains(" -> ")) {
+				return PROGUARD;
+			} else if (line.contains(",")) {
+				return CSV;
+			} else if (line.startsWith("tsrg2 ") || line.matches("^\\S+ \\S+$")) {
+				// Header, or a class line
+				return TSRG;
+			}
+			Logging.warn("Unknown mapping format, first line: " + line);
+			return null;
+		}
+		Logging.warn("Unknown mapping format, no mappings found");
+		return null;
+	}
+
+	private static IOException malformed(MappingFormat format, int line, String content) {
+		return new IOException(String.format("Malformed %s mapping on line %d: %s", format.name(), line + 1,
+				content));
+	}
+
+	/**
+	 * @param name
+	 *            Java class name.
+	 * @return Internal name.
+	 */
+	private static String internal(String name) {
+		return name.replace('.', '/');
+	}
+
+	/**
+	 * @param type
+	 *            Java type name, such as {@code int} or
+	 *            {@code java.lang.String[]}.
+	 * @param obfuscated
+	 *            Obfuscated names of classes by their original names.
+	 * @return Descriptor of the type, using obfuscated class names.
+	 */
+	private static String desc(String type, Map<String, String> obfuscated) {
+		StringBuilder sb = new StringBuilder();
+		while (type.endsWith("[]")) {
+			sb.append('[');
+			type = type.substring(0, type.length() - 2);
+		}
+		switch (type) {
+		case "void":
+			return sb.append('V').toString();
+		case "boolean":
+			return sb.append('Z').toString();
+		case "byte":
+			return sb.append('B').toString();
+		case "char":
+			return sb.append('C').toString();
+		case "short":
+			return sb.append('S').toString();
+		case "int":
+			return sb.append('I').toString();
+		case "long":
+			return sb.append('J').toString();
+		case "float":
+			return sb.append('F').toString();
+		case "double":
+			return sb.append('D').toString();
+		default:
+			String name = internal(type);
+			return sb.append('L').append(obfuscated.getOrDefault(name, name)).append(';').toString();
+		}
+	}
+}
@@ -0,0 +1,166 @@
+package me.coley.recaf.bytecode.mapping;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.commons.Remapper;
+
+import me.coley.recaf.bytecode.ClassSummary;
+import me.coley.recaf.bytecode.ClassSummary.Member;
+
+/**
+ * Remapper applying a whole {@link Mappings} table at once. Member references
+ * through a subclass are resolved against the parent that declares the mapped
+ * member, using the summaries of classes in the input.
+ * <hr>
+ * Resolved lookups are shared between the {@link #copy() copies} used for
+ * each class, so that remapping many classes in parallel only walks each
+ * hierarchy once. Each copy tracks whether it changed any name.
+ *
+ * @author Matt
+ */
+public class MappingRemapper extends Remapper {
+	/**
+	 * Stands in for members without a mapping in {@link #resolved}.
+	 */
+	private static final String UNMAPPED = "";
+	private final Mappings mappings;
+	private final Function<String, ClassSummary> summaries;
+	/**
+	 * Key: Member reference.<br>
+	 * Value: New name of the member, or {@link #UNMAPPED}.
+	 */
+	private final Map<String, String> resolved;
+	private boolean changed;
+
+	/**
+	 * @param mappings
+	 *            Names to apply.
+	 * @param summaries
+	 *            Lookup of class summaries, for resolving inherited members.
+	 *            Returns {@code null} for classes not in the input.
+	 */
+	public MappingRemapper(Mappings mappings, Function<String, ClassSummary> summaries) {
+		this.mappings = mappings;
+		this.summaries = summaries;
+		this.resolved = new ConcurrentHashMap<>();
+	}
+
+	private MappingRemapper(MappingRemapper shared) {
+		this.mappings = shared.mappings;
+		this.summaries = shared.summaries;
+		this.resolved = shared.resolved;
+	}
+
+	/**
+	 * @return Remapper sharing resolved lookups, with its own
+	 *         {@link #isChanged() change} tracking. Use one per class.
+	 */
+	public MappingRemapper copy() {
+		return new MappingRemapper(this);
+	}
+
+	/**
+	 * @return {@code true} if any name has been mapped to a new name.
+	 */
+	public boolean isChanged() {
+		return changed;
+	}
+
+	@Override
+	public String map(String internalName) {
+		String mapped = mapClass(internalName);
+		if (mapped == null) {
+			return internalName;
+		}
+		changed = true;
+		return mapped;
+	}
+
+	@Override
+	public String mapFieldName(String owner, String name, String descriptor) {
+		return mapMember(owner, name, descriptor, false);
+	}
+
+	@Override
+	public String mapMethodName(String owner, String name, String descriptor) {
+		if (name.charAt(0) == '<') {
+			// Constructors and static initializers
+			return name;
+		}
+		return mapMember(owner, name, descriptor, true);
+	}
+
+	/**
+	 * @param name
+	 *            Internal name of class.
+	 * @return New name, or {@code null} if neither the class nor its outer
+	 *         class is mapped.
+	 */
+	private String mapClass(String name) {
+		String mapped = mappings.getClass(name);
+		if (mapped == null) {
+			// Inner classes follow their outer class if not mapped themselves
+			int split = name.lastIndexOf('$');
+			if (split > 0) {
+				String outer = mapClass(name.substring(0, split));
+				if (outer != null) {
+					mapped = outer + name.substring(split);
+				}
+			}
+		}
+		return mapped;
+	}
+
+	private String mapMember(String owner, String name, String desc, boolean method) {
+		String key = (method ? "m " : "f ") + owner + '.' + name + ' ' + desc;
+		String mapped = resolved.get(key);
+		if (mapped == null) {
+			mapped = resolve(owner, name, desc, method, 0);
+			resolved.put(key, mapped == null ? UNMAPPED : mapped);
+		}
+		if (mapped == null || mapped == UNMAPPED) {
+			return name;
+		}
+		changed = true;
+		return mapped;
+	}
+
+	/**
+	 * @return New name of the member declared by the owner or its closest
+	 *         mapped parent, {@code null} if not mapped. Fields, private and
+	 *         static methods declared by an unmapped owner are not inherited,
+	 *         so they are never resolved through its parents.
+	 */
+	private String resolve(String owner, String name, String desc, boolean method, int depth) {
+		String mapped = method ? mappings.getMethod(owner, name, desc) : mappings.getField(owner, name, desc);
+		if (mapped != null || depth > 64) {
+			// Depth guards against cyclic hierarchies in malformed inputs
+			return mapped;
+		}
+		ClassSummary summary = summaries.apply(owner);
+		if (summary == null || declaresOwnMember(summary, name, desc, method)) {
+			return null;
+		}
+		if (summary.getSuperName() != null) {
+			mapped = resolve(summary.getSuperName(), name, desc, method, depth + 1);
+		}
+		for (int i = 0; mapped == null && i < summary.getInterfaces().size(); i++) {
+			mapped = resolve(summary.getInterfaces().get(i), name, desc, method, depth + 1);
+		}
+		return mapped;
+	}
+
+	private static boolean declaresOwnMember(ClassSummary summary, String name, String desc, boolean method) {
+		for (Member member : method ? summary.getMethods() : summary.getFields()) {
+			if (member.getName().equals(name) && member.getDesc().equals(desc)) {
+				// Overriding methods must follow the name of what they override
+				return !method || (member.getAccess() & (Opcodes.ACC_PRIVATE | Opcodes.ACC_STATIC)) != 0
+						|| name.charAt(0) == '<';
+			}
+		}
+		return false;
+	}
+}
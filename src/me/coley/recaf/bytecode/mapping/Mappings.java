@@ -0,0 +1,137 @@
+package me.coley.recaf.bytecode.mapping;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Table of new names for classes, fields and methods, keyed by their current
+ * names. Fields may be mapped with or without a descriptor, since some formats
+ * do not record field types.
+ *
+ * @author Matt
+ */
+public class Mappings {
+	private final Map<String, String> classes = new HashMap<>();
+	private final Map<String, String> fields = new HashMap<>();
+	private final Map<String, String> methods = new HashMap<>();
+
+	/**
+	 * @param file
+	 *            Mapping file, in any {@link MappingFormat supported format}.
+	 * @return Mappings read from the file.
+	 * @throws IOException
+	 *             Thrown if the file could not be read, is in an unknown
+	 *             format, or is malformed.
+	 */
+	public static Mappings read(File file) throws IOException {
+		List<String> lines = Files.readAllLines(file.toPath(), StandardCharsets.UTF_8);
+		MappingFormat format = MappingFormat.detect(lines);
+		if (format == null) {
+			throw new IOException("Unknown mapping format: " + file.getName());
+		}
+		Mappings mappings = new Mappings();
+		format.parse(lines, mappings);
+		return mappings;
+	}
+
+	/**
+	 * @param name
+	 *            Internal name of class.
+	 * @param newName
+	 *            New internal name.
+	 */
+	public void addClass(String name, String newName) {
+		classes.put(name, newName);
+	}
+
+	/**
+	 * @param owner
+	 *            Internal name of the declaring class.
+	 * @param name
+	 *            Field name.
+	 * @param desc
+	 *            Field descriptor, {@code null} to map the field regardless of
+	 *            its type.
+	 * @param newName
+	 *            New field name.
+	 */
+	public void addField(String owner, String name, String desc, String newName) {
+		fields.put(memberKey(owner, name, desc), newName);
+	}
+
+	/**
+	 * @param owner
+	 *            Internal name of the declaring class.
+	 * @param name
+	 *            Method name.
+	 * @param desc
+	 *            Method descriptor.
+	 * @param newName
+	 *            New method name.
+	 */
+	public void addMethod(String owner, String name, String desc, String newName) {
+		methods.put(memberKey(owner, name, desc), newName);
+	}
+
+	/**
+	 * @param name
+	 *            Internal name of class.
+	 * @return New internal name, or {@code null} if the class is not mapped.
+	 */
+	public String getClass(String name) {
+		return classes.get(name);
+	}
+
+	/**
+	 * @param owner
+	 *            Internal name of the declaring class.
+	 * @param name
+	 *            Field name.
+	 * @param desc
+	 *            Field descriptor.
+	 * @return New field name, or {@code null} if the field is not mapped.
+	 */
+	public String getField(String owner, String name, String desc) {
+		String mapped = fields.get(memberKey(owner, name, desc));
+		if (mapped == null) {
+			mapped = fields.get(memberKey(owner, name, null));
+		}
+		return mapped;
+	}
+
+	/**
+	 * @param owner
+	 *            Internal name of the declaring class.
+	 * @param name
+	 *            Method name.
+	 * @param desc
+	 *            Method descriptor.
+	 * @return New method name, or {@code null} if the method is not mapped.
+	 */
+	public String getMethod(String owner, String name, String desc) {
+		return methods.get(memberKey(owner, name, desc));
+	}
+
+	/**
+	 * @return {@code true} if no names are mapped.
+	 */
+	public boolean isEmpty() {
+		return classes.isEmpty() && fields.isEmpty() && methods.isEmpty();
+	}
+
+	/**
+	 * @return Number of mapped names.
+	 */
+	public int size() {
+		return classes.size() + fields.size() + methods.size();
+	}
+
+	private static String memberKey(String owner, String name, String desc) {
+		return desc == null ? owner + '.' + name : owner + '.' + name + ' ' + desc;
+	}
+}
@@ -4,7 +4,6 @@ import java.util.ArrayList;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.Map.Entry;
 import java.util.Set;
 import java.util.regex.Pattern;
 
@@ -21,14 +20,16 @@ import org.objectweb.asm.tree.MethodNode;
 import org.objectweb.asm.tree.TypeInsnNode;
 
 import me.coley.recaf.Input;
+import me.coley.recaf.bytecode.ClassSummary;
 import me.coley.recaf.ui.FormatFactory;
 import me.coley.recaf.util.RollingList;
 
 public class Search {
 	public static List<Result> search(Parameter... params) {
 		Set<Result> results = new LinkedHashSet<>();
-		Map<String, ClassNode> nodes = Input.get().getClasses();
-		for (Entry<String, ClassNode> entry : nodes.entrySet()) {
+		Input input = Input.get();
+		Map<String, ClassNode> nodes = input.getClasses();
+		for (String name : nodes.keySet()) {
 			// TODO: Optimize by reducing needless iteration
 			// * Make wrapper for params[],
 			// * Make proxy calls for references called on param
@@ -36,11 +37,18 @@ public class Search {
 			// * The next Entry<String, ClassNode> resets, adds back param
 			for (Parameter param : params) {
 				// check if entry should be skipped
-				if (skip(param.getSkipList(), entry.getKey())) {
+				if (skip(param.getSkipList(), name)) {
+					continue;
+				}
+				// skip classes whose summary shows they cannot match
+				if (param.getType().equals(SearchType.STRING) && !containsString(input, name, param)) {
 					continue;
 				}
 				// begin search
-				ClassNode cn = entry.getValue();
+				ClassNode cn = nodes.get(name);
+				if (cn == null) {
+					continue;
+				}
 				if (param.getType().equals(SearchType.DECLARATION)) {
 					// If user only searches for the name, only add the class,
 					// not every member.
@@ -50,13 +58,13 @@ public class Search {
 					}
 					// search for matching field members
 					for (FieldNode fn : cn.fields) {
-						if (param.validMember(entry.getKey(), fn.name, fn.desc)) {
+						if (param.validMember(name, fn.name, fn.desc)) {
 							results.add(Result.field(cn, fn));
 						}
 					}
 					// search for matching method members
 					for (MethodNode mn : cn.methods) {
-						if (param.validMember(entry.getKey(), mn.name, mn.desc)) {
+						if (param.validMember(name, mn.name, mn.desc)) {
 							results.add(Result.method(cn, mn));
 						}
 					}
@@ -177,6 +185,36 @@ public class Search {
 		return new ArrayList<>(results);
 	}
 
+	/**
+	 * @param input
+	 *            Input containing the class.
+	 * @param name
+	 *            Class name.
+	 * @param param
+	 *            String search parameter.
+	 * @return {@code true} if the class has a string constant matching the
+	 *         parameter.
+	 */
+	private static boolean containsString(Input input, String name, Parameter param) {
+		// Unsaved edits are only in the class's node, search the node itself.
+		if (input.hasUnsavedChanges(name)) {
+			return true;
+		}
+		// Only use a summary that does not require reading the class, the
+		// search would read it a second time.
+		ClassSummary summary = input.peekSummary(name);
+		if (summary == null) {
+			// Cannot tell, search the class itself.
+			return true;
+		}
+		for (String value : summary.getStrings()) {
+			if (param.check(0, value, false)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
 	/**
 	 * @param skip
 	 * @param key
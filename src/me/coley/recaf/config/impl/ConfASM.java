@@ -73,6 +73,13 @@ public class ConfASM extends Config {
 	 */
 	@Conf(category = "asm", key = "in.expandframes")
 	public boolean expandFrames;
+	/**
+	 * Flag for ASM input, verify classes when loading by having ASM parse and
+	 * re-write them. Otherwise a cheaper structural check of the raw class
+	 * file is used.
+	 */
+	@Conf(category = "asm", key = "in.strictverify")
+	public boolean strictVerify;
 	/**
 	 * Used to indicate if linked<i>(Overrides / parents)</i> methods should be
 	 * renamed when updating a method's name.
@@ -85,6 +92,13 @@ public class ConfASM extends Config {
 	 */
 	@Conf(category = "asm", key = "edit.locklibmethods")
 	public boolean lockLibraryMethods = true;
+	/**
+	 * Used to indicate if renaming should rewrite the constant pool of
+	 * affected classes, copying method code as-is, instead of regenerating
+	 * them.
+	 */
+	@Conf(category = "asm", key = "edit.cprename")
+	public boolean constantPoolRename = true;
 	/**
 	 * Option for alerting users that edits have produced invalid bytecode
 	 * during editing.
@@ -145,6 +159,15 @@ public class ConfASM extends Config {
 		return computeFrams;
 	}
 
+	/**
+	 * @return {@code true} if classes should be verified by a full ASM
+	 *         read/write round-trip when loaded. {@code false} if the cheaper
+	 *         structural check should be used.
+	 */
+	public boolean doStrictVerify() {
+		return strictVerify;
+	}
+
 	/**
 	 * @return {@code true} if exporting can use reflection to find classes not
 	 *         found in the input file.
@@ -169,6 +192,14 @@ public class ConfASM extends Config {
 		return lockLibraryMethods;
 	}
 
+	/**
+	 * @return {@code true} if renaming should only rewrite the constant pool
+	 *         of classes, as opposed to regenerating them.
+	 */
+	public boolean useConstantPoolRename() {
+		return constantPoolRename;
+	}
+
 	/**
 	 * @return {@code true} if edits should be verified to alert users of
 	 *         invalid changes.
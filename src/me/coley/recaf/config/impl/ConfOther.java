@@ -21,11 +21,172 @@ public class ConfOther extends Config {
 	@Conf(category = "other", key = "maxthreadslogic")
 	public int maxThreadsLogic = 5;
 
+	/**
+	 * Heap budget for each cache of parsed input contents, in megabytes.
+	 */
+	@Conf(category = "other", key = "cachebudget")
+	public int cacheBudget = 256;
+
+	/**
+	 * Store an index of loaded archives so unchanged archives re-open without
+	 * processing their contents.
+	 */
+	@Conf(category = "other", key = "workspaceindex")
+	public boolean workspaceIndex = true;
+
+	/**
+	 * Load the contents of archives nested in the input, such as the
+	 * libraries of fat jars and WARs.
+	 */
+	@Conf(category = "other", key = "nestedarchives")
+	public boolean nestedArchives = true;
+	/**
+	 * Reload the input when the file changes on disk.
+	 */
+	@Conf(category = "other", key = "watchinput")
+	public boolean watchInput;
+	/**
+	 * Max number of save states kept for each class.
+	 */
+	@Conf(category = "other", key = "historydepth")
+	public int historyDepth = 10;
+	/**
+	 * Heap budget for save states of all classes, in megabytes. The oldest
+	 * states are dropped first when exceeded.
+	 */
+	@Conf(category = "other", key = "historybudget")
+	public int historyBudget = 64;
+	/**
+	 * Keep the journal of changes to classes on disk, so changes are restored
+	 * when the same archive is opened again.
+	 */
+	@Conf(category = "other", key = "persistjournal")
+	public boolean persistJournal;
+	/**
+	 * Compression level of exported entries, from 1 <i>(fastest)</i> to 9
+	 * <i>(smallest)</i>.
+	 */
+	@Conf(category = "other", key = "exportlevel")
+	public int exportLevel = 6;
+	/**
+	 * Write exported entries uncompressed. Fastest to write, for quick local
+	 * iteration.
+	 */
+	@Conf(category = "other", key = "exportstored")
+	public boolean exportStored;
+	/**
+	 * Rate at which classes of a runtime attached to are captured in the
+	 * background, in classes per second. Classes are otherwise captured when
+	 * first opened, searched or exported.
+	 */
+	@Conf(category = "other", key = "agentprefetch")
+	public int agentPrefetch = 100;
+	/**
+	 * Redefine saved classes automatically when attached to a runtime.
+	 */
+	@Conf(category = "other", key = "agentlive")
+	public boolean agentLive;
+	/**
+	 * Time in milliseconds to wait for more saves before saved classes are
+	 * redefined.
+	 */
+	@Conf(category = "other", key = "agentlivedelay")
+	public int agentLiveDelay = 200;
+
 	public ConfOther() {
 		super("rc_other");
 		load();
 	}
 
+	/**
+	 * @return Heap budget for each cache of parsed input contents, in bytes.
+	 */
+	public long getCacheBudget() {
+		return Math.max(1, cacheBudget) * 1024L * 1024L;
+	}
+
+	/**
+	 * @return {@code true} if loaded archives should be indexed.
+	 */
+	public boolean useWorkspaceIndex() {
+		return workspaceIndex;
+	}
+
+	/**
+	 * @return {@code true} if archives nested in the input should be loaded.
+	 */
+	public boolean loadNestedArchives() {
+		return nestedArchives;
+	}
+
+	/**
+	 * @return {@code true} if the input should be reloaded when it changes on
+	 *         disk.
+	 */
+	public boolean doWatchInput() {
+		return watchInput;
+	}
+
+	/**
+	 * @return Max number of save states kept for each class.
+	 */
+	public int getHistoryDepth() {
+		return Math.max(1, historyDepth);
+	}
+
+	/**
+	 * @return Heap budget for save states of all classes, in bytes.
+	 */
+	public long getHistoryBudget() {
+		return Math.max(1, historyBudget) * 1024L * 1024L;
+	}
+
+	/**
+	 * @return {@code true} if the journal of changes should be kept on disk.
+	 */
+	public boolean doPersistJournal() {
+		return persistJournal;
+	}
+
+	/**
+	 * @return Compression level of exported entries.
+	 */
+	public int getExportLevel() {
+		return Math.max(1, Math.min(9, exportLevel));
+	}
+
+	/**
+	 * @return {@code true} if exported entries should be written
+	 *         uncompressed.
+	 */
+	public boolean doExportStored() {
+		return exportStored;
+	}
+
+	/**
+	 * @return Classes of a runtime attached to captured each second in the
+	 *         background. Disabled if not positive.
+	 */
+	public int getAgentPrefetchRate() {
+		return agentPrefetch;
+	}
+
+	/**
+	 * @return {@code true} if saved classes should be redefined in the
+	 *         runtime attached to.
+	 */
+	public boolean doAgentLive() {
+		return agentLive;
+	}
+
+	/**
+	 * @return Time in milliseconds to wait for more saves before saved
+	 *         classes are redefined.
+	 */
+	public long getAgentLiveDelay() {
+		return Math.max(0, agentLiveDelay);
+	}
+
 	/**
 	 * Static getter.
 	 * 
@@ -0,0 +1,23 @@
+package me.coley.recaf.event;
+
+import me.coley.event.Event;
+
+/**
+ * Event for when a class is no longer open for editing.
+ * 
+ * @author Matt
+ */
+public class ClassCloseEvent extends Event {
+	private final String name;
+
+	public ClassCloseEvent(String name) {
+		this.name = name;
+	}
+
+	/**
+	 * @return Name of class closed.
+	 */
+	public String getName() {
+		return name;
+	}
+}
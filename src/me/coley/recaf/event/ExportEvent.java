@@ -28,7 +28,7 @@ public class ExportEvent extends Event {
 
 	/**
 	 * @return Map of contents to be written to the {@link #getFile() output}
-	 *         file.
+	 *         file. Content is produced when it is read.
 	 */
 	public Map<String, byte[]> getContents() {
 		return contents;
@@ -0,0 +1,89 @@
+package me.coley.recaf.event;
+
+import java.util.Collections;
+import java.util.Set;
+
+import me.coley.event.Event;
+import me.coley.recaf.Input;
+
+/**
+ * Event for when many classes and resources of the input change at once,
+ * such as when the input is reloaded from disk or mappings are applied.
+ * Contains the classes and resources that were added, removed or changed.
+ * 
+ * @author Matt
+ */
+public class InputChangeEvent extends Event {
+	private final Input input;
+	private final Set<String> addedClasses, removedClasses, changedClasses;
+	private final Set<String> addedResources, removedResources, changedResources;
+
+	public InputChangeEvent(Input input, Set<String> addedClasses, Set<String> removedClasses,
+			Set<String> changedClasses, Set<String> addedResources, Set<String> removedResources,
+			Set<String> changedResources) {
+		this.input = input;
+		this.addedClasses = Collections.unmodifiableSet(addedClasses);
+		this.removedClasses = Collections.unmodifiableSet(removedClasses);
+		this.changedClasses = Collections.unmodifiableSet(changedClasses);
+		this.addedResources = Collections.unmodifiableSet(addedResources);
+		this.removedResources = Collections.unmodifiableSet(removedResources);
+		this.changedResources = Collections.unmodifiableSet(changedResources);
+	}
+
+	/**
+	 * @return Input that was reloaded.
+	 */
+	public Input getInput() {
+		return input;
+	}
+
+	/**
+	 * @return Names of classes added to the input.
+	 */
+	public Set<String> getAddedClasses() {
+		return addedClasses;
+	}
+
+	/**
+	 * @return Names of classes removed from the input.
+	 */
+	public Set<String> getRemovedClasses() {
+		return removedClasses;
+	}
+
+	/**
+	 * @return Names of classes whose content changed.
+	 */
+	public Set<String> getChangedClasses() {
+		return changedClasses;
+	}
+
+	/**
+	 * @return Names of resources added to the input.
+	 */
+	public Set<String> getAddedResources() {
+		return addedResources;
+	}
+
+	/**
+	 * @return Names of resources removed from the input.
+	 */
+	public Set<String> getRemovedResources() {
+		return removedResources;
+	}
+
+	/**
+	 * @return Names of resources whose content changed.
+	 */
+	public Set<String> getChangedResources() {
+		return changedResources;
+	}
+
+	/**
+	 * @return {@code true} if nothing changed.
+	 */
+	public boolean isEmpty() {
+		return addedClasses.isEmpty() && removedClasses.isEmpty() && changedClasses.isEmpty() && addedResources
+				.isEmpty() && removedResources.isEmpty() && changedResources.isEmpty();
+	}
+}
@@ -0,0 +1,25 @@
+package me.coley.recaf.event;
+
+import java.io.File;
+
+import me.coley.event.Event;
+
+/**
+ * Event for requesting a mapping file be applied to the input.
+ * 
+ * @author Matt
+ */
+public class RequestMappingsEvent extends Event {
+	private final File file;
+
+	public RequestMappingsEvent(File file) {
+		this.file = file;
+	}
+
+	/**
+	 * @return Mapping file to apply.
+	 */
+	public File getFile() {
+		return file;
+	}
+}
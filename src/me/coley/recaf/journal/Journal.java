@@ -0,0 +1,427 @@
+package me.coley.recaf.journal;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+
+import me.coley.recaf.Logging;
+
+/**
+ * Ordered list of {@link Transaction transactions}, with a cursor separating
+ * those that are applied from those that have been undone. Recording a new
+ * transaction discards the undone ones.
+ * <hr>
+ * When given a key, the journal is kept on disk so it survives a restart. The
+ * file starts with a checkpoint: the transactions and cursor at the time, and
+ * the content of every file changed since the journal began. Later transactions, undos and redos
+ * are appended as records. Restoring only needs to load the checkpoint
+ * content and replay the records after it. The file is rewritten with a new
+ * checkpoint once enough records have been appended.
+ *
+ * @author Matt
+ */
+public class Journal {
+	/**
+	 * Folder holding journal files.
+	 */
+	private static final File FOLDER = new File("rc-cache");
+	/**
+	 * Number of journal files to keep, least recently used are deleted first.
+	 */
+	private static final int MAX_FILES = 16;
+	/**
+	 * Number of transactions to keep, oldest are dropped first.
+	 */
+	private static final int MAX_TRANSACTIONS = 100;
+	/**
+	 * Number of appended records before the file is rewritten.
+	 */
+	private static final int CHECKPOINT_INTERVAL = 32;
+	private static final int MAGIC = 0x52434A4E;
+	private static final int VERSION = 1;
+	private static final byte RECORD = 'T', UNDO = 'U', REDO = 'R';
+	private final List<Transaction> transactions = new ArrayList<>();
+	/**
+	 * Names of all files changed since the journal began, including by
+	 * transactions that have since been dropped.
+	 */
+	private final Set<String> changed = new LinkedHashSet<>();
+	/**
+	 * Number of applied transactions.
+	 */
+	private int cursor;
+	/**
+	 * Key of the journal file, {@code null} if not kept on disk.
+	 */
+	private String key;
+	/**
+	 * Lookup of the current content of a file, {@code null} if it does not
+	 * exist. Used to write checkpoints.
+	 */
+	private Function<String, byte[]> contents;
+	/**
+	 * Number of records appended since the last checkpoint. Negative if no
+	 * checkpoint has been written.
+	 */
+	private int appended = -1;
+
+	/**
+	 * Create a journal kept in memory.
+	 */
+	public Journal() {}
+
+	/**
+	 * @param key
+	 *            Key of the content the journal belongs to.
+	 * @param contents
+	 *            Lookup of the current content of a file, {@code null} if it
+	 *            does not exist.
+	 */
+	public Journal(String key, Function<String, byte[]> contents) {
+		this.key = key;
+		this.contents = contents;
+	}
+
+	/**
+	 * @param key
+	 *            Key of the content the journal belongs to.
+	 * @param contents
+	 *            Lookup of the current content of a file, {@code null} if it
+	 *            does not exist.
+	 * @return Journal stored for the key, or {@code null} if there is none or
+	 *         it could not be read.
+	 */
+	public static Restore read(String key, Function<String, byte[]> contents) {
+		File file = file(key);
+		if (!file.isFile()) {
+			return null;
+		}
+		Journal journal = new Journal(key, contents);
+		Map<String, byte[]> checkpoint = new HashMap<>();
+		List<Step> steps = new ArrayList<>();
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+			if (in.readInt() != MAGIC || in.readInt() != VERSION || !in.readUTF().equals(key)) {
+				return null;
+			}
+			int count = in.readInt();
+			for (int i = 0; i < count; i++) {
+				journal.transactions.add(Transaction.read(in));
+			}
+			journal.cursor = in.readInt();
+			count = in.readInt();
+			for (int i = 0; i < count; i++) {
+				String name = in.readUTF();
+				byte[] value = null;
+				if (in.readBoolean()) {
+					value = new byte[in.readInt()];
+					in.readFully(value);
+				}
+				checkpoint.put(name, value);
+				journal.changed.add(name);
+			}
+			journal.appended = 0;
+			// Records after the checkpoint. A partly written record at the
+			// end is from an interrupted session, and is ignored.
+			while (true) {
+				int type;
+				Transaction transaction;
+				try {
+					type = in.readByte();
+				} catch (EOFException e) {
+					break;
+				}
+				try {
+					transaction = type == RECORD ? Transaction.read(in) : null;
+				} catch (EOFException e) {
+					// Rewrite the file before appending to it again
+					journal.appended = -1;
+					break;
+				}
+				if (type == RECORD) {
+					journal.add(transaction);
+					steps.add(new Step(transaction, false));
+				} else if (type == UNDO && journal.canUndo()) {
+					steps.add(new Step(journal.transactions.get(--journal.cursor), true));
+				} else if (type == REDO && journal.canRedo()) {
+					steps.add(new Step(journal.transactions.get(journal.cursor++), false));
+				} else {
+					return null;
+				}
+				journal.appended++;
+			}
+		} catch (IOException | IndexOutOfBoundsException e) {
+			Logging.warn("Failed to read journal: " + e);
+			return null;
+		}
+		// Mark as recently used
+		file.setLastModified(System.currentTimeMillis());
+		return new Restore(journal, checkpoint, steps);
+	}
+
+	/**
+	 * Add a transaction as applied, discarding undone transactions. Call once
+	 * its changes have been made.
+	 *
+	 * @param transaction
+	 *            Transaction to add.
+	 */
+	public synchronized void record(Transaction transaction) {
+		if (transaction.isEmpty()) {
+			return;
+		}
+		add(transaction);
+		persist(RECORD, transaction);
+	}
+
+	/**
+	 * Count the {@link #peekUndo() next transaction to undo} as undone, once
+	 * its changes have been reverted.
+	 */
+	public synchronized void undo() {
+		if (canUndo()) {
+			cursor--;
+			persist(UNDO, null);
+		}
+	}
+
+	/**
+	 * Count the {@link #peekRedo() next transaction to redo} as applied, once
+	 * its changes have been applied again.
+	 */
+	public synchronized void redo() {
+		if (canRedo()) {
+			cursor++;
+			persist(REDO, null);
+		}
+	}
+
+	/**
+	 * @return Next transaction to undo, {@code null} if there is none.
+	 */
+	public synchronized Transaction peekUndo() {
+		return canUndo() ? transactions.get(cursor - 1) : null;
+	}
+
+	/**
+	 * @return Next transaction to redo, {@code null} if there is none.
+	 */
+	public synchronized Transaction peekRedo() {
+		return canRedo() ? transactions.get(cursor) : null;
+	}
+
+	/**
+	 * @return {@code true} if there is an applied transaction.
+	 */
+	public synchronized boolean canUndo() {
+		return cursor > 0;
+	}
+
+	/**
+	 * @return {@code true} if there is an undone transaction.
+	 */
+	public synchronized boolean canRedo() {
+		return cursor < transactions.size();
+	}
+
+	/**
+	 * @return All transactions, oldest first.
+	 */
+	public synchronized List<Transaction> getTransactions() {
+		return Collections.unmodifiableList(new ArrayList<>(transactions));
+	}
+
+	/**
+	 * @return Number of applied transactions.
+	 */
+	public synchronized int getCursor() {
+		return cursor;
+	}
+
+	private void add(Transaction transaction) {
+		transactions.subList(cursor, transactions.size()).clear();
+		transactions.add(transaction);
+		changed.addAll(transaction.getNames());
+		cursor++;
+		if (transactions.size() > MAX_TRANSACTIONS) {
+			transactions.remove(0);
+			cursor--;
+		}
+	}
+
+	/**
+	 * Append a record to the file, or write a new checkpoint if there is no
+	 * file yet or enough records have been appended.
+	 */
+	private void persist(byte type, Transaction transaction) {
+		if (key == null) {
+			return;
+		}
+		try {
+			if (appended < 0 || appended >= CHECKPOINT_INTERVAL || !file(key).isFile()) {
+				checkpoint();
+				return;
+			}
+			try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file(
+					key), true)))) {
+				out.writeByte(type);
+				if (transaction != null) {
+					transaction.write(out);
+				}
+			}
+			appended++;
+		} catch (IOException e) {
+			Logging.warn("Failed to write journal, it will only be kept in memory: " + e);
+			key = null;
+		}
+	}
+
+	/**
+	 * Rewrite the file with the current transactions, and the content of
+	 * every file they changed.
+	 */
+	private void checkpoint() throws IOException {
+		FOLDER.mkdirs();
+		File temp = new File(FOLDER, key + ".jtmp");
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)))) {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeUTF(key);
+			out.writeInt(transactions.size());
+			for (Transaction transaction : transactions) {
+				transaction.write(out);
+			}
+			out.writeInt(cursor);
+			out.writeInt(changed.size());
+			for (String name : changed) {
+				byte[] value = contents.apply(name);
+				out.writeUTF(name);
+				out.writeBoolean(value != null);
+				if (value != null) {
+					out.writeInt(value.length);
+					out.write(value);
+				}
+			}
+		}
+		Files.move(temp.toPath(), file(key).toPath(), StandardCopyOption.REPLACE_EXISTING);
+		appended = 0;
+		prune();
+	}
+
+	/**
+	 * Delete the least recently used journal files exceeding
+	 * {@link #MAX_FILES}.
+	 */
+	private static void prune() {
+		File[] files = FOLDER.listFiles((dir, name) -> name.endsWith(".jnl"));
+		if (files == null || files.length <= MAX_FILES) {
+			return;
+		}
+		Arrays.sort(files, Comparator.comparingLong(File::lastModified).reversed());
+		for (int i = MAX_FILES; i < files.length; i++) {
+			files[i].delete();
+		}
+	}
+
+	private static File file(String key) {
+		return new File(FOLDER, key + ".jnl");
+	}
+
+	/**
+	 * Journal read from disk, with what is needed to bring content back to
+	 * the state it was in when the journal was last written.
+	 *
+	 * @author Matt
+	 */
+	public static class Restore {
+		private final Journal journal;
+		private final Map<String, byte[]> checkpoint;
+		private final List<Step> steps;
+
+		private Restore(Journal journal, Map<String, byte[]> checkpoint, List<Step> steps) {
+			this.journal = journal;
+			this.checkpoint = checkpoint;
+			this.steps = steps;
+		}
+
+		/**
+		 * @return The journal.
+		 */
+		public Journal getJournal() {
+			return journal;
+		}
+
+		/**
+		 * @return Content of files at the checkpoint, {@code null} values for
+		 *         files that did not exist. Apply first.
+		 */
+		public Map<String, byte[]> getCheckpoint() {
+			return checkpoint;
+		}
+
+		/**
+		 * @return Transactions to undo or redo after the checkpoint, in order.
+		 */
+		public List<Step> getSteps() {
+			return steps;
+		}
+
+		/**
+		 * @return Number of files changed by the checkpoint and steps.
+		 */
+		public int size() {
+			Set<String> names = new LinkedHashSet<>(checkpoint.keySet());
+			for (Step step : steps) {
+				names.addAll(step.getTransaction().getNames());
+			}
+			return names.size();
+		}
+	}
+
+	/**
+	 * Transaction to undo or redo while restoring.
+	 *
+	 * @author Matt
+	 */
+	public static class Step {
+		private final Transaction transaction;
+		private final boolean undo;
+
+		private Step(Transaction transaction, boolean undo) {
+			this.transaction = transaction;
+			this.undo = undo;
+		}
+
+		/**
+		 * @return Transaction of the step.
+		 */
+		public Transaction getTransaction() {
+			return transaction;
+		}
+
+		/**
+		 * @return {@code true} to undo the transaction, {@code false} to
+		 *         redo it.
+		 */
+		public boolean isUndo() {
+			return undo;
+		}
+	}
+}
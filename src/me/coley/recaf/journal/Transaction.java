@@ -0,0 +1,268 @@
+package me.coley.recaf.journal;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.function.Function;
+import java.util.zip.CRC32;
+
+import me.coley.recaf.util.Delta;
+import me.coley.recaf.util.Threads;
+
+/**
+ * Change to any number of files made by one operation, such as a rename or a
+ * recompile. Each file's change is stored as a pair of {@link Delta deltas},
+ * one to undo and one to redo it, so the transaction costs about as much as
+ * the bytes that actually changed.
+ * <hr>
+ * Files are identified by name. A file that did not exist before, or no
+ * longer exists after, the transaction is stored in full on the side where it
+ * exists.
+ *
+ * @author Matt
+ */
+public class Transaction {
+	private final String description;
+	private final long time;
+	private final Map<String, Change> changes;
+
+	private Transaction(String description, long time, Map<String, Change> changes) {
+		this.description = description;
+		this.time = time;
+		this.changes = changes;
+	}
+
+	/**
+	 * @param description
+	 *            Description of the operation.
+	 * @param before
+	 *            Content of the files the operation touched, before it ran.
+	 *            {@code null} values for files that did not exist.
+	 * @param after
+	 *            Lookup of the content of a file after the operation ran,
+	 *            returning {@code null} if it does not exist.
+	 * @return Transaction holding the changes. Files with equal content
+	 *         before and after are left out.
+	 */
+	public static Transaction create(String description, Map<String, byte[]> before,
+			Function<String, byte[]> after) {
+		Map<String, Change> changes = new ConcurrentHashMap<>();
+		ExecutorService pool = Threads.pool(Threads.PoolKind.LOGIC);
+		for (Entry<String, byte[]> e : before.entrySet()) {
+			pool.execute(() -> {
+				Change change = Change.create(e.getValue(), after.apply(e.getKey()));
+				if (change != null) {
+					changes.put(e.getKey(), change);
+				}
+			});
+		}
+		Threads.waitForCompletion(pool);
+		return new Transaction(description, System.currentTimeMillis(), new LinkedHashMap<>(changes));
+	}
+
+	/**
+	 * @return Description of the operation.
+	 */
+	public String getDescription() {
+		return description;
+	}
+
+	/**
+	 * @return Time the transaction was recorded, in milliseconds since the
+	 *         epoch.
+	 */
+	public long getTime() {
+		return time;
+	}
+
+	/**
+	 * @return Names of changed files.
+	 */
+	public Set<String> getNames() {
+		return Collections.unmodifiableSet(changes.keySet());
+	}
+
+	/**
+	 * @return {@code true} if no file was changed.
+	 */
+	public boolean isEmpty() {
+		return changes.isEmpty();
+	}
+
+	/**
+	 * @param name
+	 *            Name of a changed file.
+	 * @param current
+	 *            Current content, {@code null} if it does not exist.
+	 * @return {@code true} if the current content is what the transaction
+	 *         left, so it can be undone.
+	 */
+	public boolean isUndoable(String name, byte[] current) {
+		Change change = changes.get(name);
+		return change.after ? change.afterCrc == crc(current) : current == null;
+	}
+
+	/**
+	 * @param name
+	 *            Name of a changed file.
+	 * @param current
+	 *            Current content, {@code null} if it does not exist.
+	 * @return {@code true} if the current content is what the transaction
+	 *         started from, so it can be redone.
+	 */
+	public boolean isRedoable(String name, byte[] current) {
+		Change change = changes.get(name);
+		return change.before ? change.beforeCrc == crc(current) : current == null;
+	}
+
+	/**
+	 * @param name
+	 *            Name of a changed file.
+	 * @param current
+	 *            Content the transaction left.
+	 * @return Content before the transaction, {@code null} if the file did
+	 *         not exist.
+	 */
+	public byte[] undo(String name, byte[] current) {
+		Change change = changes.get(name);
+		if (!change.before) {
+			return null;
+		}
+		return change.after ? Delta.apply(current, change.undo) : change.undo;
+	}
+
+	/**
+	 * @param name
+	 *            Name of a changed file.
+	 * @param current
+	 *            Content the transaction started from.
+	 * @return Content after the transaction, {@code null} if the file was
+	 *         removed.
+	 */
+	public byte[] redo(String name, byte[] current) {
+		Change change = changes.get(name);
+		if (!change.after) {
+			return null;
+		}
+		return change.before ? Delta.apply(current, change.redo) : change.redo;
+	}
+
+	/**
+	 * @param out
+	 *            Stream to write to.
+	 * @throws IOException
+	 *             Thrown if the stream could not be written to.
+	 */
+	void write(DataOutputStream out) throws IOException {
+		out.writeUTF(description);
+		out.writeLong(time);
+		out.writeInt(changes.size());
+		for (Entry<String, Change> e : changes.entrySet()) {
+			Change change = e.getValue();
+			out.writeUTF(e.getKey());
+			out.writeBoolean(change.before);
+			out.writeBoolean(change.after);
+			out.writeInt(change.beforeCrc);
+			out.writeInt(change.afterCrc);
+			writeBytes(out, change.undo);
+			writeBytes(out, change.redo);
+		}
+	}
+
+	/**
+	 * @param in
+	 *            Stream to read from.
+	 * @return Transaction read from the stream.
+	 * @throws IOException
+	 *             Thrown if the stream could not be read from.
+	 */
+	static Transaction read(DataInputStream in) throws IOException {
+		String description = in.readUTF();
+		long time = in.readLong();
+		int count = in.readInt();
+		Map<String, Change> changes = new LinkedHashMap<>();
+		for (int i = 0; i < count; i++) {
+			String name = in.readUTF();
+			Change change = new Change(in.readBoolean(), in.readBoolean(), in.readInt(), in.readInt());
+			change.undo = readBytes(in);
+			change.redo = readBytes(in);
+			changes.put(name, change);
+		}
+		return new Transaction(description, time, changes);
+	}
+
+	private static void writeBytes(DataOutputStream out, byte[] value) throws IOException {
+		out.writeInt(value.length);
+		out.write(value);
+	}
+
+	private static byte[] readBytes(DataInputStream in) throws IOException {
+		byte[] value = new byte[in.readInt()];
+		in.readFully(value);
+		return value;
+	}
+
+	private static int crc(byte[] value) {
+		if (value == null) {
+			return 0;
+		}
+		CRC32 crc = new CRC32();
+		crc.update(value);
+		return (int) crc.getValue();
+	}
+
+	/**
+	 * Change of a single file.
+	 *
+	 * @author Matt
+	 */
+	private static class Change {
+		private final boolean before, after;
+		private final int beforeCrc, afterCrc;
+		/**
+		 * Delta from the content after to the content before, or the full
+		 * content before if the file was removed.
+		 */
+		private byte[] undo = new byte[0];
+		/**
+		 * Delta from the content before to the content after, or the full
+		 * content after if the file was added.
+		 */
+		private byte[] redo = new byte[0];
+
+		private Change(boolean before, boolean after, int beforeCrc, int afterCrc) {
+			this.before = before;
+			this.after = after;
+			this.beforeCrc = beforeCrc;
+			this.afterCrc = afterCrc;
+		}
+
+		/**
+		 * @return Change between the contents, {@code null} if they are
+		 *         equal.
+		 */
+		private static Change create(byte[] before, byte[] after) {
+			if (before == null ? after == null : after != null && Arrays.equals(before, after)) {
+				return null;
+			}
+			Change change = new Change(before != null, after != null, crc(before), crc(after));
+			if (before == null) {
+				change.redo = after;
+			} else if (after == null) {
+				change.undo = before;
+			} else {
+				change.undo = Delta.diff(after, before);
+				change.redo = Delta.diff(before, after);
+			}
+			return change;
+		}
+	}
+}
@@ -12,6 +12,7 @@ import me.coley.recaf.util.Lang;
 public class FileChoosers {
 	private static final FileChooser open = new FileChooser();
 	private static final FileChooser export = new FileChooser();
+	private static final FileChooser mappings = new FileChooser();
 
 	public static void open() {
 		File file = open.showOpenDialog(null);
@@ -39,6 +40,17 @@ public class FileChoosers {
 		}
 	}
 
+	public static void mappings() {
+		File file = mappings.showOpenDialog(null);
+		if (file != null) {
+			// Save location
+			File dir = file.getParentFile();
+			if (dir != null) mappings.setInitialDirectory(dir);
+			// Invoke mapping
+			Bus.post(new RequestMappingsEvent(file));
+		}
+	}
+
 	static {
 		String dir = System.getProperty("user.dir");
 		File fileDir = new File(dir);
@@ -51,5 +63,11 @@ public class FileChoosers {
 		export.setTitle(Lang.get("ui.filepropt.export"));
 		export.getExtensionFilters().add(filter);
 		export.setSelectedExtensionFilter(filter);
+		ExtensionFilter mappingFilter = new ExtensionFilter(Lang.get("ui.fileprompt.mappings.extensions"), "*.txt",
+				"*.map", "*.mapping", "*.mappings", "*.srg", "*.tsrg", "*.tiny", "*.csv");
+		mappings.setInitialDirectory(fileDir);
+		mappings.setTitle(Lang.get("ui.fileprompt.mappings"));
+		mappings.getExtensionFilters().add(mappingFilter);
+		mappings.setSelectedExtensionFilter(mappingFilter);
 	}
 }
@@ -180,11 +180,7 @@ public class FxHistory extends Stage {
 	}
 
 	private void regen(ListView<Integer> histories, History history) {
-		try {
-			 times = history.getFileTimes();
-		} catch (IOException e) {
-			Logging.error(e);
-		}
+		times = history.getTimes();
 
 		histories.getItems().clear();
 		for (int i = 0; i < history.length; i++) {
@@ -11,6 +11,8 @@ import javafx.scene.control.*;
 import javafx.scene.input.*;
 import javafx.scene.layout.*;
 import me.coley.event.*;
+import me.coley.recaf.Input;
+import me.coley.recaf.Logging;
 import me.coley.recaf.bytecode.Agent;
 import me.coley.recaf.config.impl.*;
 import me.coley.recaf.event.*;
@@ -29,17 +31,33 @@ public class FxWindow extends Application {
 		// Actions
 		Runnable rExport = () -> FileChoosers.export();
 		Runnable rLoad = () -> FileChoosers.open();
+		Runnable rMappings = () -> FileChoosers.mappings();
 		Runnable rSave = () -> Bus.post(new RequestSaveStateEvent());
 		Runnable rAgentSave = () -> Bus.post(new RequestAgentSaveEvent());
 		Runnable rSearch = () -> FxSearch.open();
 		Runnable rConfig = () -> FxConfig.open();
 		Runnable rHistory = () -> FxHistory.open();
+		Runnable rUndo = () -> Threads.run(() -> {
+			try {
+				Input.get().undoTransaction();
+			} catch (Exception e) {
+				Logging.error(e, true);
+			}
+		});
+		Runnable rRedo = () -> Threads.run(() -> {
+			try {
+				Input.get().redoTransaction();
+			} catch (Exception e) {
+				Logging.error(e, true);
+			}
+		});
 		Runnable rAttach = () -> FxAttach.open();
 		BorderPane borderPane = new BorderPane();
 		// Menubar
 		Menu menuFile = new Menu(Lang.get("ui.menubar.file"));
 		menuFile.getItems().add(new ActionMenuItem(Lang.get("ui.menubar.load"), rLoad));
 		menuFile.getItems().add(new ActionMenuItem(Lang.get("ui.menubar.export"), rExport));
+		menuFile.getItems().add(new ActionMenuItem(Lang.get("ui.menubar.mappings"), rMappings));
 		if (Agent.isActive()) {
 			menuFile.getItems().add(new ActionMenuItem(Lang.get("ui.menubar.agentexport"), rAgentSave));
 		}
@@ -50,6 +68,8 @@ public class FxWindow extends Application {
 		menuHistory.setDisable(true);
 		menuHistory.getItems().add(new ActionMenuItem(Lang.get("ui.menubar.history.new"), rSave));
 		menuHistory.getItems().add(new ActionMenuItem(Lang.get("ui.menubar.history.view"), rHistory));
+		menuHistory.getItems().add(new ActionMenuItem(Lang.get("ui.menubar.history.undo"), rUndo));
+		menuHistory.getItems().add(new ActionMenuItem(Lang.get("ui.menubar.history.redo"), rRedo));
 		Menu menuAttach = new ActionMenu(Lang.get("ui.menubar.attach"), rAttach);
 		Menu menuPlugins = new Menu(Lang.get("ui.menubar.plugins"));
 		MenuBar menubar = new MenuBar(menuFile, menuSearch, menuConfig, menuHistory);
@@ -114,6 +134,9 @@ public class FxWindow extends Application {
 			if (Agent.isActive()) {
 				// only exit the javafx platform, the targeted process should
 				// still be allowed to run
+				if (Input.get() != null) {
+					Input.get().close();
+				}
 				Platform.exit();
 			} else {
 				// kill independent process
@@ -79,6 +79,7 @@ public class ClassEditPane extends TabPane {
 		Tab tab = cache.remove(originalName);
 		// reopen tab
 		if (getTabs().remove(tab)) {
+			Bus.post(new ClassCloseEvent(originalName));
 			Threads.runLaterFx(20, () -> {
 				Bus.post(new ClassOpenEvent(Input.get().getClass(newName)));
 			});
@@ -101,6 +102,7 @@ public class ClassEditPane extends TabPane {
 				tab.setOnClosed(o -> {
 					cache.remove(name);
 					getTabs().remove(_tab);
+					Bus.post(new ClassCloseEvent(name));
 				});
 				cache.put(name, tab);
 			}
@@ -383,11 +383,16 @@ public class DecompileItem implements Item {
 				}
 				// Iterate over compiled units. This will include inner classes
 				// and the like.
-				for (String unit : compiler.getUnitNames()) {
-					byte[] code = compiler.getUnitCode(unit);
-					ClassNode newValue = Asm.getNode(code);
-					Input.get().getClasses().put(cn.name, newValue);
-					Logging.info("Recompiled '" + cn.name + "' - size:" + code.length, 1);
+				Input.get().beginTransaction("Recompile " + cn.name);
+				try {
+					for (String unit : compiler.getUnitNames()) {
+						byte[] code = compiler.getUnitCode(unit);
+						ClassNode newValue = Asm.getNode(code);
+						Input.get().getClasses().put(cn.name, newValue);
+						Logging.info("Recompiled '" + cn.name + "' - size:" + code.length, 1);
+					}
+				} finally {
+					Input.get().endTransaction();
 				}
 			} catch (Exception e) {
 				if (out == null) {
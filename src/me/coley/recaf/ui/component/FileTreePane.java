@@ -135,6 +135,27 @@ public class FileTreePane extends BorderPane {
 		addToRoot(root, name);
 	}
 
+	/**
+	 * Update the tree when the input is reloaded from disk.
+	 * 
+	 * @param change
+	 */
+	@Listener
+	private void onInputReload(InputChangeEvent change) {
+		Threads.runFx(() -> {
+			FileTreeItem root = (FileTreeItem) tree.getRoot();
+			for (String name : change.getRemovedClasses()) {
+				FileTreeItem item = getNode(name);
+				if (item != null) {
+					((FileTreeItem) item.getParent()).remove(item);
+				}
+			}
+			for (String name : change.getAddedClasses()) {
+				addToRoot(root, name);
+			}
+		});
+	}
+
 	/**
 	 * Move a class being renamed to a new tree-path.
 	 * 
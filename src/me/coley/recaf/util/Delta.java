@@ -0,0 +1,157 @@
+package me.coley.recaf.util;
+
+import java.io.ByteArrayOutputStream;
+
+/**
+ * Binary deltas between two versions of a file. A delta is a list of
+ * instructions to either copy a range of the source, or add new bytes.
+ * <hr>
+ * Matches are found by hashing every {@value #BLOCK}-byte window of the
+ * source, so moved and repeated content is still copied rather than added.
+ * This suits class files, where an edit often shifts the rest of the file.
+ *
+ * @author Matt
+ */
+public class Delta {
+	/**
+	 * Minimum length of a copied range.
+	 */
+	private static final int BLOCK = 8;
+	private static final int ADD = 0, COPY = 1;
+
+	/**
+	 * @param source
+	 *            Version the delta is applied to.
+	 * @param target
+	 *            Version the delta produces.
+	 * @return Delta from the source to the target.
+	 */
+	public static byte[] diff(byte[] source, byte[] target) {
+		ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(16, target.length / 8));
+		writeVarInt(out, target.length);
+		int[] table = index(source);
+		int mask = table.length - 1;
+		int literal = 0;
+		int i = 0;
+		while (i + BLOCK <= target.length && table.length > 0) {
+			int match = table[hash(target, i) & mask] - 1;
+			if (match < 0 || !matches(source, match, target, i)) {
+				i++;
+				continue;
+			}
+			int length = BLOCK;
+			while (match + length < source.length && i + length < target.length && source[match
+					+ length] == target[i + length]) {
+				length++;
+			}
+			// Extend back over bytes that would otherwise be added
+			while (match > 0 && i > literal && source[match - 1] == target[i - 1]) {
+				match--;
+				i--;
+				length++;
+			}
+			add(out, target, literal, i);
+			writeVarInt(out, (length << 1) | COPY);
+			writeVarInt(out, match);
+			i += length;
+			literal = i;
+		}
+		add(out, target, literal, target.length);
+		return out.toByteArray();
+	}
+
+	/**
+	 * @param source
+	 *            Version the delta was made from.
+	 * @param delta
+	 *            Delta from the source.
+	 * @return Version the delta produces.
+	 * @throws IllegalArgumentException
+	 *             Thrown if the delta does not apply to the source.
+	 */
+	public static byte[] apply(byte[] source, byte[] delta) {
+		int[] pos = { 0 };
+		byte[] target = new byte[readVarInt(delta, pos)];
+		int offset = 0;
+		try {
+			while (pos[0] < delta.length) {
+				int header = readVarInt(delta, pos);
+				int length = header >>> 1;
+				if ((header & 1) == COPY) {
+					System.arraycopy(source, readVarInt(delta, pos), target, offset, length);
+				} else {
+					System.arraycopy(delta, pos[0], target, offset, length);
+					pos[0] += length;
+				}
+				offset += length;
+			}
+		} catch (IndexOutOfBoundsException e) {
+			throw new IllegalArgumentException("Delta does not match its source", e);
+		}
+		if (offset != target.length) {
+			throw new IllegalArgumentException("Delta does not match its source");
+		}
+		return target;
+	}
+
+	/**
+	 * @return Hash table of the last position of each window in the source,
+	 *         plus one. Empty if the source is shorter than a window.
+	 */
+	private static int[] index(byte[] source) {
+		if (source.length < BLOCK) {
+			return new int[0];
+		}
+		int size = Integer.highestOneBit(source.length * 2 - 1);
+		int[] table = new int[Math.max(16, size)];
+		int mask = table.length - 1;
+		for (int i = 0; i + BLOCK <= source.length; i++) {
+			table[hash(source, i) & mask] = i + 1;
+		}
+		return table;
+	}
+
+	private static int hash(byte[] b, int offset) {
+		int h = 0;
+		for (int i = 0; i < BLOCK; i++) {
+			h = h * 31 + b[offset + i];
+		}
+		return h ^ (h >>> 16);
+	}
+
+	private static boolean matches(byte[] source, int sourceOffset, byte[] target, int targetOffset) {
+		for (int i = 0; i < BLOCK; i++) {
+			if (source[sourceOffset + i] != target[targetOffset + i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static void add(ByteArrayOutputStream out, byte[] target, int start, int end) {
+		if (end > start) {
+			writeVarInt(out, ((end - start) << 1) | ADD);
+			out.write(target, start, end - start);
+		}
+	}
+
+	private static void writeVarInt(ByteArrayOutputStream out, int value) {
+		while ((value & ~0x7F) != 0) {
+			out.write((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		out.write(value);
+	}
+
+	private static int readVarInt(byte[] b, int[] pos) {
+		int value = 0;
+		for (int shift = 0; shift < 32; shift += 7) {
+			int read = b[pos[0]++];
+			value |= (read & 0x7F) << shift;
+			if ((read & 0x80) == 0) {
+				return value;
+			}
+		}
+		throw new IllegalArgumentException("Malformed delta");
+	}
+}
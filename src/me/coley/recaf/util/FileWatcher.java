@@ -0,0 +1,92 @@
+package me.coley.recaf.util;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.concurrent.TimeUnit;
+
+import me.coley.recaf.Logging;
+
+/**
+ * Watches a file for changes. Builds often write a file in several steps, so
+ * the callback is only run once the file has not been touched for a quiet
+ * period.
+ *
+ * @author Matt
+ */
+public class FileWatcher implements Closeable {
+	private final Path file;
+	private final long quietMillis;
+	private final Runnable onChange;
+	private final WatchService service;
+	private final Thread thread;
+
+	/**
+	 * @param file
+	 *            File to watch.
+	 * @param quietMillis
+	 *            Time the file must go unchanged before the callback is run.
+	 * @param onChange
+	 *            Callback for changes, run on the watcher's thread.
+	 * @throws IOException
+	 *             Thrown if the file's directory could not be watched.
+	 */
+	public FileWatcher(File file, long quietMillis, Runnable onChange) throws IOException {
+		this.file = file.getAbsoluteFile().toPath();
+		this.quietMillis = quietMillis;
+		this.onChange = onChange;
+		this.service = FileSystems.getDefault().newWatchService();
+		// Directories are watched, not files. Replacing the file by moving a
+		// new one over it shows up as a create event.
+		this.file.getParent().register(service, StandardWatchEventKinds.ENTRY_CREATE,
+				StandardWatchEventKinds.ENTRY_MODIFY);
+		this.thread = new Thread(this::watch, "Watcher: " + file.getName());
+		this.thread.setDaemon(true);
+		this.thread.start();
+	}
+
+	private void watch() {
+		boolean pending = false;
+		try {
+			while (true) {
+				// Wait indefinitely for a change, then poll until the file is
+				// quiet.
+				WatchKey key = pending ? service.poll(quietMillis, TimeUnit.MILLISECONDS) : service.take();
+				if (key == null) {
+					pending = false;
+					try {
+						onChange.run();
+					} catch (Exception e) {
+						Logging.error(e);
+					}
+					continue;
+				}
+				for (WatchEvent<?> event : key.pollEvents()) {
+					if (file.getFileName().equals(event.context())) {
+						pending = true;
+					}
+				}
+				key.reset();
+			}
+		} catch (InterruptedException | ClosedWatchServiceException e) {
+			// Watcher closed
+		}
+	}
+
+	@Override
+	public void close() {
+		thread.interrupt();
+		try {
+			service.close();
+		} catch (IOException e) {
+			Logging.warn(e);
+		}
+	}
+}
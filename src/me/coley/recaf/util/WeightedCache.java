@@ -0,0 +1,213 @@
+package me.coley.recaf.util;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+import java.util.function.Predicate;
+import java.util.function.ToLongFunction;
+
+/**
+ * Cache bounded by the total estimated weight of its values. When the budget
+ * is exceeded the least recently used values are evicted first. Pinned keys
+ * are never evicted, but still count towards the budget.
+ *
+ * @author Matt
+ *
+ * @param <K>
+ *            Key type.
+ * @param <V>
+ *            Value type.
+ */
+public class WeightedCache<K, V> {
+	/**
+	 * Access-ordered map, eldest entries are the least recently used.
+	 */
+	private final LinkedHashMap<K, Weighted<V>> map = new LinkedHashMap<>(16, 0.75f, true);
+	private final ToLongFunction<V> weigher;
+	private final Predicate<K> pinned;
+	private final LongSupplier budget;
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+	private final LongAdder evictions = new LongAdder();
+	/**
+	 * Total weight of cached values.
+	 */
+	private long weight;
+
+	/**
+	 * @param budget
+	 *            Supplier of the maximum total weight. Queried whenever the
+	 *            cache grows so changes apply without recreating the cache.
+	 * @param weigher
+	 *            Estimates the weight of a value.
+	 * @param pinned
+	 *            Check for keys that must not be evicted.
+	 */
+	public WeightedCache(LongSupplier budget, ToLongFunction<V> weigher, Predicate<K> pinned) {
+		this.budget = budget;
+		this.weigher = weigher;
+		this.pinned = pinned;
+	}
+
+	/**
+	 * @param key
+	 *            Key of value.
+	 * @return Cached value, or {@code null} if not cached.
+	 */
+	public synchronized V get(Object key) {
+		Weighted<V> w = map.get(key);
+		if (w == null) {
+			misses.increment();
+			return null;
+		}
+		hits.increment();
+		return w.value;
+	}
+
+	/**
+	 * Lookup that does not count towards the hit and miss counters.
+	 *
+	 * @param key
+	 *            Key of value.
+	 * @return Cached value, or {@code null} if not cached.
+	 */
+	public synchronized V peek(Object key) {
+		Weighted<V> w = map.get(key);
+		return w == null ? null : w.value;
+	}
+
+	/**
+	 * Cache a value, evicting others if the budget is exceeded.
+	 *
+	 * @param key
+	 *            Key of value.
+	 * @param value
+	 *            Value to cache.
+	 */
+	public synchronized void put(K key, V value) {
+		Weighted<V> w = new Weighted<>(value, Math.max(1, weigher.applyAsLong(value)));
+		Weighted<V> old = map.put(key, w);
+		if (old != null) {
+			weight -= old.weight;
+		}
+		weight += w.weight;
+		evict();
+	}
+
+	/**
+	 * @param key
+	 *            Key of value.
+	 * @return Removed value, or {@code null} if not cached.
+	 */
+	public synchronized V remove(Object key) {
+		Weighted<V> w = map.remove(key);
+		if (w == null) {
+			return null;
+		}
+		weight -= w.weight;
+		return w.value;
+	}
+
+	/**
+	 * @param key
+	 *            Key of value.
+	 * @return {@code true} if a value is cached for the key.
+	 */
+	public synchronized boolean containsKey(Object key) {
+		return map.containsKey(key);
+	}
+
+	/**
+	 * Remove all cached values.
+	 */
+	public synchronized void clear() {
+		map.clear();
+		weight = 0;
+	}
+
+	/**
+	 * @return Number of cached values.
+	 */
+	public synchronized int size() {
+		return map.size();
+	}
+
+	/**
+	 * @return Total estimated weight of cached values.
+	 */
+	public synchronized long getWeight() {
+		return weight;
+	}
+
+	/**
+	 * @return Number of lookups that found a cached value.
+	 */
+	public long getHits() {
+		return hits.sum();
+	}
+
+	/**
+	 * @return Number of lookups that did not find a cached value.
+	 */
+	public long getMisses() {
+		return misses.sum();
+	}
+
+	/**
+	 * @return Number of values evicted to stay within the budget.
+	 */
+	public long getEvictions() {
+		return evictions.sum();
+	}
+
+	/**
+	 * Evict least recently used values until the budget is met or only pinned
+	 * values remain.
+	 */
+	private void evict() {
+		long max = budget.getAsLong();
+		if (weight <= max) {
+			return;
+		}
+		List<K> skipped = new ArrayList<>();
+		Iterator<Map.Entry<K, Weighted<V>>> it = map.entrySet().iterator();
+		while (weight > max && it.hasNext()) {
+			Map.Entry<K, Weighted<V>> e = it.next();
+			if (pinned.test(e.getKey())) {
+				skipped.add(e.getKey());
+				continue;
+			}
+			weight -= e.getValue().weight;
+			it.remove();
+			evictions.increment();
+		}
+		// Move pinned values to the back so the next eviction does not have
+		// to walk past them again.
+		for (K key : skipped) {
+			map.get(key);
+		}
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%d cached (weight %d), %d hits, %d misses, %d evictions", size(), getWeight(),
+				getHits(), getMisses(), getEvictions());
+	}
+
+	/**
+	 * Value with its weight at the time it was cached.
+	 */
+	private static class Weighted<V> {
+		private final V value;
+		private final long weight;
+
+		private Weighted(V value, long weight) {
+			this.value = value;
+			this.weight = weight;
+		}
+	}
+}